@@ -1,119 +1,1092 @@
 // CLASSIFICATION NOTICE: This file is UNCLASSIFIED
 package edu.utexas.arlut.ciads;
 
-import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.*;
 
-public class BMap<K extends Comparable<K>, V> implements Map<K, V> {
+/**
+ * An in-memory B+tree NavigableMap over Comparable keys. Interior nodes hold
+ * only separator keys; keys and values live in the leaves, as parallel
+ * arrays, and the leaves are linked both ways so ordered and range scans
+ * run along the leaf level without going back up the tree.
+ * <p>
+ * Every node but the root holds between minWindow and 2 * minWindow keys;
+ * a full node splits in two, and an underfull one borrows from a sibling or
+ * merges with it. With the default window of 32 a node's keys are a couple
+ * of cache lines, and an entry costs about two references, against
+ * TreeMap's 40-byte Entry.
+ * <p>
+ * Null keys aren't allowed. Iterators are fail-fast; entries handed out by
+ * the navigation methods are snapshots, as in TreeMap.
+ */
+public class BMap<K extends Comparable<K>, V> extends AbstractMap<K, V> implements NavigableMap<K, V> {
     private final int minWindow, maxWindow;
-    private Node<K> root;
-    BMap() {
-        this.minWindow = 32;
-        this.maxWindow = 2 * minWindow;
-        Map<K, V> m = newHashMap();
-        root = new Node<K>(maxWindow);
+    private Node root;
+    private int height = 0;
+    private int size = 0;
+    private int modCount = 0;
+
+    public BMap() {
+        this(32);
     }
-    BMap(int minWindow) {
+    public BMap(int minWindow) {
+        checkArgument(minWindow >= 2, "minWindow must be at least 2");
         this.minWindow = minWindow;
         this.maxWindow = 2 * minWindow;
-        root = new Node<K>(maxWindow);
+        root = new Leaf(maxWindow);
     }
+
     @Override
     public int size() {
-        return 1;
+        return size;
     }
     @Override
     public boolean isEmpty() {
-        return false;
+        return 0 == size;
     }
     @Override
     public boolean containsKey(Object o) {
-        return false;
+        Leaf lf = leafFor(o);
+        return search(lf.keys, lf.cnt, o) >= 0;
     }
     @Override
     public boolean containsValue(Object o) {
+        for (Leaf lf = firstLeaf(); null != lf; lf = lf.next) {
+            for (int i = 0; i < lf.cnt; i++)
+                if (Objects.equals(o, lf.vals[i]))
+                    return true;
+        }
         return false;
     }
     @Override
     public V get(Object o) {
-        return null;
+        Leaf lf = leafFor(o);
+        int i = search(lf.keys, lf.cnt, o);
+        return (i >= 0) ? (V)lf.vals[i] : null;
     }
+
     @Override
     public V put(K k, V v) {
-        if (null == root)
-            root = new Node<K>(maxWindow);
-        Node<K> home = findHome(root, k);
-        home.put(k);
+        checkNotNull(k);
+        Inner[] path = new Inner[height];
+        int[] at = new int[height];
+        Node n = root;
+        for (int d = 0; d < height; d++) {
+            Inner in = (Inner)n;
+            int i = childIndex(in, k);
+            path[d] = in;
+            at[d] = i;
+            n = in.children[i];
+        }
+        Leaf lf = (Leaf)n;
+        int pos = search(lf.keys, lf.cnt, k);
+        if (pos >= 0) {
+            V oldV = (V)lf.vals[pos];
+            lf.vals[pos] = v;
+            return oldV;
+        }
+        pos = -pos - 1;
+        size++;
+        modCount++;
+        if (lf.cnt < maxWindow) {
+            lf.insertAt(pos, k, v);
+            return null;
+        }
+
+        Leaf right = lf.split(pos, k, v);
+        Object sep = right.keys[0];
+        Node child = right;
+        for (int d = height - 1; d >= 0; d--) {
+            Inner in = path[d];
+            if (in.cnt < maxWindow) {
+                in.insertAt(at[d], sep, child);
+                return null;
+            }
+            Inner sibling = in.split(at[d], sep, child);
+            sep = in.promoted;
+            in.promoted = null;
+            child = sibling;
+        }
+        Inner r = new Inner(maxWindow);
+        r.keys[0] = sep;
+        r.children[0] = root;
+        r.children[1] = child;
+        r.cnt = 1;
+        root = r;
+        height++;
         return null;
     }
-    private Node<K> findHome(Node<K> n, K k) {
-        int i = Arrays.binarySearch(n.keys, 0, n.cnt, k);
-        if (i >= 0)
-            return n;
-        return root;
-    }
-    // insert is always done on a leaf.
-    // no need to keep track of alignment of children on a leaf.
-    private void insert(K k) {
-        Node<K> r = root;
-        // root is full, split & push up
-        if (r.full()) {
-            root = new Node<K>(maxWindow);
-            root.leaf = false;
-            root.children[0] = r;
-//            split(root, r);
-        }
-//        if (n.isLeaf()) {
-//            if (n.cnt == maxWindow) {
-//                // split & promote
-//            } else {
-//                // insert
-//            }
-//        }
-    }
+
     @Override
     public V remove(Object o) {
-        return null;
+        checkNotNull(o);
+        Inner[] path = new Inner[height];
+        int[] at = new int[height];
+        Node n = root;
+        for (int d = 0; d < height; d++) {
+            Inner in = (Inner)n;
+            int i = childIndex(in, o);
+            path[d] = in;
+            at[d] = i;
+            n = in.children[i];
+        }
+        Leaf lf = (Leaf)n;
+        int pos = search(lf.keys, lf.cnt, o);
+        if (pos < 0)
+            return null;
+        V oldV = (V)lf.vals[pos];
+        lf.removeAt(pos);
+        size--;
+        modCount++;
+        // separators equal to the removed key can stay: they still bound
+        // their children correctly
+        for (int d = height - 1; d >= 0 && n.cnt < minWindow; d--) {
+            rebalance(path[d], at[d]);
+            n = path[d];
+        }
+        if (height > 0 && 0 == root.cnt) {
+            root = ((Inner)root).children[0];
+            height--;
+        }
+        return oldV;
     }
+
     @Override
-    public void putAll(Map<? extends K, ? extends V> map) {
+    public void clear() {
+        root = new Leaf(maxWindow);
+        height = 0;
+        size = 0;
+        modCount++;
+    }
 
+    // =================================
+    @Override
+    public Comparator<? super K> comparator() {
+        return null;
     }
     @Override
-    public void clear() {
+    public Entry<K, V> firstEntry() {
+        return export(first());
+    }
+    @Override
+    public Entry<K, V> lastEntry() {
+        return export(last());
+    }
+    @Override
+    public K firstKey() {
+        return key(first());
+    }
+    @Override
+    public K lastKey() {
+        return key(last());
+    }
+    @Override
+    public Entry<K, V> pollFirstEntry() {
+        return poll(first());
+    }
+    @Override
+    public Entry<K, V> pollLastEntry() {
+        return poll(last());
+    }
+    @Override
+    public Entry<K, V> lowerEntry(K k) {
+        return export(floor(k, false));
+    }
+    @Override
+    public K lowerKey(K k) {
+        return keyOrNull(floor(k, false));
+    }
+    @Override
+    public Entry<K, V> floorEntry(K k) {
+        return export(floor(k, true));
+    }
+    @Override
+    public K floorKey(K k) {
+        return keyOrNull(floor(k, true));
+    }
+    @Override
+    public Entry<K, V> ceilingEntry(K k) {
+        return export(ceiling(k, true));
+    }
+    @Override
+    public K ceilingKey(K k) {
+        return keyOrNull(ceiling(k, true));
+    }
+    @Override
+    public Entry<K, V> higherEntry(K k) {
+        return export(ceiling(k, false));
+    }
+    @Override
+    public K higherKey(K k) {
+        return keyOrNull(ceiling(k, false));
+    }
 
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es = entrySet;
+        return (null == es) ? (entrySet = new SubMap(true, null, false, true, null, false, false).entrySet()) : es;
     }
     @Override
     public Set<K> keySet() {
-        return Collections.emptySet();
+        return navigableKeySet();
     }
     @Override
-    public Collection<V> values() {
-        return Collections.emptyList();
+    public NavigableSet<K> navigableKeySet() {
+        NavigableSet<K> ks = keySet;
+        return (null == ks) ? (keySet = new KeySet<>(this)) : ks;
     }
     @Override
-    public Set<Entry<K, V>> entrySet() {
-        return Collections.emptySet();
+    public NavigableSet<K> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+    @Override
+    public NavigableMap<K, V> descendingMap() {
+        return new SubMap(true, null, false, true, null, false, true);
+    }
+    @Override
+    public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        checkNotNull(fromKey);
+        checkNotNull(toKey);
+        checkArgument(fromKey.compareTo(toKey) <= 0, "fromKey > toKey");
+        return new SubMap(false, fromKey, fromInclusive, false, toKey, toInclusive, false);
+    }
+    @Override
+    public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+        checkNotNull(toKey);
+        return new SubMap(true, null, false, false, toKey, inclusive, false);
+    }
+    @Override
+    public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+        checkNotNull(fromKey);
+        return new SubMap(false, fromKey, inclusive, true, null, false, false);
+    }
+    @Override
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+    @Override
+    public SortedMap<K, V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+    @Override
+    public SortedMap<K, V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    /**
+     * Check the B+tree invariants: key order within and across nodes, node
+     * fill, uniform leaf depth, the leaf links, and size.
+     */
+    public boolean validate() {
+        List<Leaf> leaves = new ArrayList<>();
+        if (!validate(root, 0, null, null, leaves))
+            return false;
+        int n = 0;
+        Leaf prev = null;
+        for (Leaf lf : leaves) {
+            if (lf.prev != prev || (null != prev && prev.next != lf))
+                return false;
+            n += lf.cnt;
+            prev = lf;
+        }
+        return null == prev.next && n == size;
+    }
+
+    // =================================
+    private abstract static class Node {
+        protected final Object[] keys;
+        protected int cnt = 0;
+        protected Node(int window) {
+            keys = new Object[window];
+        }
+    }
+    private static final class Leaf extends Node {
+        private final Object[] vals;
+        private Leaf next, prev;
+        private Leaf(int window) {
+            super(window);
+            vals = new Object[window];
+        }
+        private void insertAt(int i, Object k, Object v) {
+            System.arraycopy(keys, i, keys, i + 1, cnt - i);
+            System.arraycopy(vals, i, vals, i + 1, cnt - i);
+            keys[i] = k;
+            vals[i] = v;
+            cnt++;
+        }
+        private void removeAt(int i) {
+            System.arraycopy(keys, i + 1, keys, i, cnt - i - 1);
+            System.arraycopy(vals, i + 1, vals, i, cnt - i - 1);
+            cnt--;
+            keys[cnt] = null;
+            vals[cnt] = null;
+        }
+        // split a full leaf, adding k at pos; returns the new right sibling
+        private Leaf split(int pos, Object k, Object v) {
+            Leaf right = new Leaf(keys.length);
+            int leftCnt = (cnt + 1) / 2;
+            if (pos < leftCnt) {
+                // the new entry pushes one more across
+                moveTo(right, leftCnt - 1);
+                insertAt(pos, k, v);
+            } else {
+                moveTo(right, leftCnt);
+                right.insertAt(pos - leftCnt, k, v);
+            }
+            right.next = next;
+            right.prev = this;
+            if (null != next)
+                next.prev = right;
+            next = right;
+            return right;
+        }
+        private void moveTo(Leaf right, int from) {
+            int n = cnt - from;
+            System.arraycopy(keys, from, right.keys, 0, n);
+            System.arraycopy(vals, from, right.vals, 0, n);
+            Arrays.fill(keys, from, cnt, null);
+            Arrays.fill(vals, from, cnt, null);
+            right.cnt = n;
+            cnt = from;
+        }
     }
-    private static final class Node<K> {
-        private Node(int window) {
-            keys = (K[])(new Object[window]);
+    private static final class Inner extends Node {
+        private final Node[] children;
+        // the separator a split() pushes up to the parent
+        private Object promoted;
+        private Inner(int window) {
+            super(window);
             children = new Node[window + 1];
         }
-        private void put(K k) {
-            keys[cnt] = k;
+        // separator k at i, with child to its right
+        private void insertAt(int i, Object k, Node child) {
+            System.arraycopy(keys, i, keys, i + 1, cnt - i);
+            System.arraycopy(children, i + 1, children, i + 2, cnt - i);
+            keys[i] = k;
+            children[i + 1] = child;
             cnt++;
         }
-        private boolean isLeaf() {
+        // drop separator i and the child to its right
+        private void removeAt(int i) {
+            System.arraycopy(keys, i + 1, keys, i, cnt - i - 1);
+            System.arraycopy(children, i + 2, children, i + 1, cnt - i - 1);
+            cnt--;
+            keys[cnt] = null;
+            children[cnt + 1] = null;
+        }
+        // split a full node, adding separator k & child at i; the middle
+        // separator goes to promoted, the upper half to the returned sibling
+        private Inner split(int i, Object k, Node child) {
+            int total = cnt + 1;
+            Object[] ks = new Object[total];
+            Node[] cs = new Node[total + 1];
+            System.arraycopy(keys, 0, ks, 0, i);
+            ks[i] = k;
+            System.arraycopy(keys, i, ks, i + 1, cnt - i);
+            System.arraycopy(children, 0, cs, 0, i + 1);
+            cs[i + 1] = child;
+            System.arraycopy(children, i + 1, cs, i + 2, cnt - i);
+
+            int mid = total / 2;
+            Inner right = new Inner(keys.length);
+            Arrays.fill(keys, null);
+            Arrays.fill(children, null);
+            System.arraycopy(ks, 0, keys, 0, mid);
+            System.arraycopy(cs, 0, children, 0, mid + 1);
+            cnt = mid;
+            promoted = ks[mid];
+            right.cnt = total - mid - 1;
+            System.arraycopy(ks, mid + 1, right.keys, 0, right.cnt);
+            System.arraycopy(cs, mid + 1, right.children, 0, right.cnt + 1);
+            return right;
+        }
+    }
+
+    // child i of p is below minWindow: borrow from a sibling, or merge
+    private void rebalance(Inner p, int i) {
+        Node n = p.children[i];
+        Node left = (i > 0) ? p.children[i - 1] : null;
+        Node right = (i < p.cnt) ? p.children[i + 1] : null;
+        if (null != left && left.cnt > minWindow) {
+            if (n instanceof Leaf) {
+                Leaf l = (Leaf)left;
+                ((Leaf)n).insertAt(0, l.keys[l.cnt - 1], l.vals[l.cnt - 1]);
+                l.removeAt(l.cnt - 1);
+                p.keys[i - 1] = n.keys[0];
+            } else {
+                Inner in = (Inner)n;
+                Inner l = (Inner)left;
+                System.arraycopy(in.keys, 0, in.keys, 1, in.cnt);
+                System.arraycopy(in.children, 0, in.children, 1, in.cnt + 1);
+                in.keys[0] = p.keys[i - 1];
+                in.children[0] = l.children[l.cnt];
+                in.cnt++;
+                p.keys[i - 1] = l.keys[l.cnt - 1];
+                l.keys[l.cnt - 1] = null;
+                l.children[l.cnt] = null;
+                l.cnt--;
+            }
+        } else if (null != right && right.cnt > minWindow) {
+            if (n instanceof Leaf) {
+                Leaf r = (Leaf)right;
+                ((Leaf)n).insertAt(n.cnt, r.keys[0], r.vals[0]);
+                r.removeAt(0);
+                p.keys[i] = r.keys[0];
+            } else {
+                Inner in = (Inner)n;
+                Inner r = (Inner)right;
+                in.keys[in.cnt] = p.keys[i];
+                in.children[in.cnt + 1] = r.children[0];
+                in.cnt++;
+                p.keys[i] = r.keys[0];
+                System.arraycopy(r.keys, 1, r.keys, 0, r.cnt - 1);
+                System.arraycopy(r.children, 1, r.children, 0, r.cnt);
+                r.cnt--;
+                r.keys[r.cnt] = null;
+                r.children[r.cnt + 1] = null;
+            }
+        } else if (null != left) {
+            merge(p, i - 1);
+        } else {
+            merge(p, i);
+        }
+    }
+    // fold child i + 1 of p into child i
+    private static void merge(Inner p, int i) {
+        Node l = p.children[i];
+        Node r = p.children[i + 1];
+        if (l instanceof Leaf) {
+            Leaf ll = (Leaf)l;
+            Leaf rl = (Leaf)r;
+            System.arraycopy(rl.keys, 0, ll.keys, ll.cnt, rl.cnt);
+            System.arraycopy(rl.vals, 0, ll.vals, ll.cnt, rl.cnt);
+            ll.cnt += rl.cnt;
+            ll.next = rl.next;
+            if (null != rl.next)
+                rl.next.prev = ll;
+        } else {
+            Inner li = (Inner)l;
+            Inner ri = (Inner)r;
+            li.keys[li.cnt] = p.keys[i];
+            System.arraycopy(ri.keys, 0, li.keys, li.cnt + 1, ri.cnt);
+            System.arraycopy(ri.children, 0, li.children, li.cnt + 1, ri.cnt + 1);
+            li.cnt += 1 + ri.cnt;
+        }
+        p.removeAt(i);
+    }
+
+    // index of k in keys[0, cnt), or -(insertion point) - 1
+    private static int search(Object[] keys, int cnt, Object k) {
+        Comparable<Object> c = (Comparable<Object>)k;
+        int lo = 0;
+        int hi = cnt - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = c.compareTo(keys[mid]);
+            if (cmp > 0)
+                lo = mid + 1;
+            else if (cmp < 0)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -(lo + 1);
+    }
+    // separator i is the least key under child i + 1
+    private static int childIndex(Inner in, Object k) {
+        int i = search(in.keys, in.cnt, k);
+        return (i >= 0) ? i + 1 : -i - 1;
+    }
+    private Leaf leafFor(Object k) {
+        checkNotNull(k);
+        Node n = root;
+        for (int d = 0; d < height; d++) {
+            Inner in = (Inner)n;
+            n = in.children[childIndex(in, k)];
+        }
+        return (Leaf)n;
+    }
+    private Leaf firstLeaf() {
+        Node n = root;
+        for (int d = 0; d < height; d++)
+            n = ((Inner)n).children[0];
+        return (Leaf)n;
+    }
+    private Leaf lastLeaf() {
+        Node n = root;
+        for (int d = 0; d < height; d++)
+            n = ((Inner)n).children[n.cnt];
+        return (Leaf)n;
+    }
+
+    private boolean validate(Node n, int depth, Object lo, Object hi, List<Leaf> leaves) {
+        if (n != root && (n.cnt < minWindow || n.cnt > maxWindow))
+            return false;
+        for (int i = 0; i < n.cnt; i++) {
+            Comparable<Object> k = (Comparable<Object>)n.keys[i];
+            if (i > 0 && k.compareTo(n.keys[i - 1]) <= 0)
+                return false;
+            if ((null != lo && k.compareTo(lo) < 0) || (null != hi && k.compareTo(hi) >= 0))
+                return false;
+        }
+        if (n instanceof Leaf) {
+            leaves.add((Leaf)n);
+            return depth == height;
+        }
+        Inner in = (Inner)n;
+        if (0 == in.cnt)
+            return false;
+        for (int i = 0; i <= in.cnt; i++) {
+            Object clo = (0 == i) ? lo : in.keys[i - 1];
+            Object chi = (i == in.cnt) ? hi : in.keys[i];
+            if (!validate(in.children[i], depth + 1, clo, chi, leaves))
+                return false;
+        }
+        return true;
+    }
+
+    // =================================
+    // a position in the leaf level
+    private final class Cursor {
+        private Leaf leaf;
+        private int idx;
+        private Cursor(Leaf leaf, int idx) {
+            this.leaf = leaf;
+            this.idx = idx;
+        }
+        private K key() {
+            return (K)leaf.keys[idx];
+        }
+        private V value() {
+            return (V)leaf.vals[idx];
+        }
+        // false once it runs off the end
+        private boolean next() {
+            if (++idx < leaf.cnt)
+                return true;
+            leaf = leaf.next;
+            idx = 0;
+            return null != leaf;
+        }
+        private boolean prev() {
+            if (--idx >= 0)
+                return true;
+            leaf = leaf.prev;
+            if (null == leaf)
+                return false;
+            idx = leaf.cnt - 1;
             return true;
         }
-        private boolean full() {
-            return cnt == keys.length;
+    }
+
+    private Cursor first() {
+        return (0 == size) ? null : new Cursor(firstLeaf(), 0);
+    }
+    private Cursor last() {
+        if (0 == size)
+            return null;
+        Leaf lf = lastLeaf();
+        return new Cursor(lf, lf.cnt - 1);
+    }
+    // least key >= k (> k if !inclusive)
+    private Cursor ceiling(Object k, boolean inclusive) {
+        Leaf lf = leafFor(k);
+        int i = search(lf.keys, lf.cnt, k);
+        i = (i >= 0) ? (inclusive ? i : i + 1) : -i - 1;
+        if (i < lf.cnt)
+            return new Cursor(lf, i);
+        // only the root leaf can be empty, & it has no next
+        return (null == lf.next) ? null : new Cursor(lf.next, 0);
+    }
+    // greatest key <= k (< k if !inclusive)
+    private Cursor floor(Object k, boolean inclusive) {
+        Leaf lf = leafFor(k);
+        int i = search(lf.keys, lf.cnt, k);
+        i = (i >= 0) ? (inclusive ? i : i - 1) : -i - 2;
+        if (i >= 0)
+            return new Cursor(lf, i);
+        return (null == lf.prev) ? null : new Cursor(lf.prev, lf.prev.cnt - 1);
+    }
+
+    private Entry<K, V> export(Cursor c) {
+        return (null == c) ? null : new SimpleImmutableEntry<>(c.key(), c.value());
+    }
+    private K keyOrNull(Cursor c) {
+        return (null == c) ? null : c.key();
+    }
+    private K key(Cursor c) {
+        if (null == c)
+            throw new NoSuchElementException();
+        return c.key();
+    }
+    private Entry<K, V> poll(Cursor c) {
+        Entry<K, V> e = export(c);
+        if (null != e)
+            remove(e.getKey());
+        return e;
+    }
+
+    // an entry from an iterator; setValue writes through
+    private final class IteratorEntry extends SimpleEntry<K, V> {
+        private IteratorEntry(K k, V v) {
+            super(k, v);
+        }
+        @Override
+        public V setValue(V v) {
+            put(getKey(), v);
+            return super.setValue(v);
         }
-        private final K[] keys;
-        private final Node[] children;
-        private int cnt = 0;
-        private boolean leaf = true;
     }
+
+    // =================================
+    /**
+     * A bounded and/or descending view. The whole map's entrySet() and
+     * descendingMap() are unbounded ones.
+     */
+    private final class SubMap extends AbstractMap<K, V> implements NavigableMap<K, V> {
+        private final boolean fromStart, toEnd, descending;
+        private final K lo, hi;
+        private final boolean loInclusive, hiInclusive;
+
+        private SubMap(boolean fromStart, K lo, boolean loInclusive,
+                       boolean toEnd, K hi, boolean hiInclusive, boolean descending) {
+            this.fromStart = fromStart;
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.toEnd = toEnd;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+            this.descending = descending;
+        }
+
+        private boolean tooLow(Object k) {
+            if (fromStart)
+                return false;
+            int c = ((Comparable<Object>)k).compareTo(lo);
+            return c < 0 || (0 == c && !loInclusive);
+        }
+        private boolean tooHigh(Object k) {
+            if (toEnd)
+                return false;
+            int c = ((Comparable<Object>)k).compareTo(hi);
+            return c > 0 || (0 == c && !hiInclusive);
+        }
+        private boolean inRange(Object k) {
+            return !tooLow(k) && !tooHigh(k);
+        }
+        // inRange, or on an exclusive bound, for the bounds of a nested view
+        private boolean inClosedRange(Object k) {
+            return (fromStart || ((Comparable<Object>)k).compareTo(lo) >= 0)
+                   && (toEnd || ((Comparable<Object>)k).compareTo(hi) <= 0);
+        }
+        private boolean inRange(Object k, boolean inclusive) {
+            return inclusive ? inRange(k) : inClosedRange(k);
+        }
+
+        // in ascending key order, whatever the view's direction
+        private Cursor absLowest() {
+            Cursor c = fromStart ? first() : ceiling(lo, loInclusive);
+            return (null == c || tooHigh(c.key())) ? null : c;
+        }
+        private Cursor absHighest() {
+            Cursor c = toEnd ? last() : floor(hi, hiInclusive);
+            return (null == c || tooLow(c.key())) ? null : c;
+        }
+        private Cursor absCeiling(K k, boolean inclusive) {
+            if (tooLow(k))
+                return absLowest();
+            Cursor c = ceiling(k, inclusive);
+            return (null == c || tooHigh(c.key())) ? null : c;
+        }
+        private Cursor absFloor(K k, boolean inclusive) {
+            if (tooHigh(k))
+                return absHighest();
+            Cursor c = floor(k, inclusive);
+            return (null == c || tooLow(c.key())) ? null : c;
+        }
+
+        private Cursor lowest() {
+            return descending ? absHighest() : absLowest();
+        }
+        private Cursor highest() {
+            return descending ? absLowest() : absHighest();
+        }
+        private Cursor above(K k, boolean inclusive) {
+            return descending ? absFloor(k, inclusive) : absCeiling(k, inclusive);
+        }
+        private Cursor below(K k, boolean inclusive) {
+            return descending ? absCeiling(k, inclusive) : absFloor(k, inclusive);
+        }
+
+        @Override
+        public int size() {
+            if (fromStart && toEnd)
+                return BMap.this.size;
+            int n = 0;
+            for (Iterator<Entry<K, V>> it = new ViewIterator(); it.hasNext(); it.next())
+                n++;
+            return n;
+        }
+        @Override
+        public boolean isEmpty() {
+            return null == absLowest();
+        }
+        @Override
+        public boolean containsKey(Object k) {
+            return inRange(checkNotNull(k)) && BMap.this.containsKey(k);
+        }
+        @Override
+        public V get(Object k) {
+            return inRange(checkNotNull(k)) ? BMap.this.get(k) : null;
+        }
+        @Override
+        public V put(K k, V v) {
+            checkArgument(inRange(checkNotNull(k)), "key out of range");
+            return BMap.this.put(k, v);
+        }
+        @Override
+        public V remove(Object k) {
+            return inRange(checkNotNull(k)) ? BMap.this.remove(k) : null;
+        }
+        @Override
+        public void clear() {
+            if (fromStart && toEnd) {
+                BMap.this.clear();
+                return;
+            }
+            for (Iterator<Entry<K, V>> it = new ViewIterator(); it.hasNext(); ) {
+                it.next();
+                it.remove();
+            }
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            return descending ? Collections.reverseOrder() : null;
+        }
+        @Override
+        public Entry<K, V> firstEntry() {
+            return export(lowest());
+        }
+        @Override
+        public Entry<K, V> lastEntry() {
+            return export(highest());
+        }
+        @Override
+        public K firstKey() {
+            return key(lowest());
+        }
+        @Override
+        public K lastKey() {
+            return key(highest());
+        }
+        @Override
+        public Entry<K, V> pollFirstEntry() {
+            return poll(lowest());
+        }
+        @Override
+        public Entry<K, V> pollLastEntry() {
+            return poll(highest());
+        }
+        @Override
+        public Entry<K, V> lowerEntry(K k) {
+            return export(below(k, false));
+        }
+        @Override
+        public K lowerKey(K k) {
+            return keyOrNull(below(k, false));
+        }
+        @Override
+        public Entry<K, V> floorEntry(K k) {
+            return export(below(k, true));
+        }
+        @Override
+        public K floorKey(K k) {
+            return keyOrNull(below(k, true));
+        }
+        @Override
+        public Entry<K, V> ceilingEntry(K k) {
+            return export(above(k, true));
+        }
+        @Override
+        public K ceilingKey(K k) {
+            return keyOrNull(above(k, true));
+        }
+        @Override
+        public Entry<K, V> higherEntry(K k) {
+            return export(above(k, false));
+        }
+        @Override
+        public K higherKey(K k) {
+            return keyOrNull(above(k, false));
+        }
+
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return new AbstractSet<Entry<K, V>>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return new ViewIterator();
+                }
+                @Override
+                public int size() {
+                    return SubMap.this.size();
+                }
+                @Override
+                public boolean isEmpty() {
+                    return SubMap.this.isEmpty();
+                }
+                @Override
+                public boolean contains(Object o) {
+                    if (!(o instanceof Entry))
+                        return false;
+                    Entry<?, ?> e = (Entry<?, ?>)o;
+                    Object k = e.getKey();
+                    if (null == k || !inRange(k))
+                        return false;
+                    Leaf lf = leafFor(k);
+                    int i = search(lf.keys, lf.cnt, k);
+                    return i >= 0 && Objects.equals(lf.vals[i], e.getValue());
+                }
+                @Override
+                public boolean remove(Object o) {
+                    if (!contains(o))
+                        return false;
+                    BMap.this.remove(((Entry<?, ?>)o).getKey());
+                    return true;
+                }
+                @Override
+                public void clear() {
+                    SubMap.this.clear();
+                }
+            };
+        }
+        @Override
+        public Set<K> keySet() {
+            return navigableKeySet();
+        }
+        @Override
+        public NavigableSet<K> navigableKeySet() {
+            return new KeySet<>(this);
+        }
+        @Override
+        public NavigableSet<K> descendingKeySet() {
+            return descendingMap().navigableKeySet();
+        }
+        @Override
+        public NavigableMap<K, V> descendingMap() {
+            return new SubMap(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, !descending);
+        }
+
+        @Override
+        public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+            checkNotNull(fromKey);
+            checkNotNull(toKey);
+            if (descending) {
+                checkArgument(fromKey.compareTo(toKey) >= 0, "fromKey < toKey");
+                return bounded(toKey, toInclusive, fromKey, fromInclusive);
+            }
+            checkArgument(fromKey.compareTo(toKey) <= 0, "fromKey > toKey");
+            return bounded(fromKey, fromInclusive, toKey, toInclusive);
+        }
+        @Override
+        public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+            checkNotNull(toKey);
+            return descending ? bounded(toKey, inclusive, null, false) : bounded(null, false, toKey, inclusive);
+        }
+        @Override
+        public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+            checkNotNull(fromKey);
+            return descending ? bounded(null, false, fromKey, inclusive) : bounded(fromKey, inclusive, null, false);
+        }
+        @Override
+        public SortedMap<K, V> subMap(K fromKey, K toKey) {
+            return subMap(fromKey, true, toKey, false);
+        }
+        @Override
+        public SortedMap<K, V> headMap(K toKey) {
+            return headMap(toKey, false);
+        }
+        @Override
+        public SortedMap<K, V> tailMap(K fromKey) {
+            return tailMap(fromKey, true);
+        }
+
+        // narrow to [newLo, newHi] in ascending terms; null keeps this bound
+        private SubMap bounded(K newLo, boolean newLoInclusive, K newHi, boolean newHiInclusive) {
+            if (null != newLo)
+                checkArgument(inRange(newLo, newLoInclusive), "fromKey out of range");
+            if (null != newHi)
+                checkArgument(inRange(newHi, newHiInclusive), "toKey out of range");
+            return new SubMap(fromStart && null == newLo, (null == newLo) ? lo : newLo,
+                              (null == newLo) ? loInclusive : newLoInclusive,
+                              toEnd && null == newHi, (null == newHi) ? hi : newHi,
+                              (null == newHi) ? hiInclusive : newHiInclusive, descending);
+        }
+
+        // walks the leaf level in the view's direction, stopping at its bound
+        private final class ViewIterator implements Iterator<Entry<K, V>> {
+            private Cursor next = lowest();
+            private K lastKey = null;
+            private int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return null != next;
+            }
+            @Override
+            public Entry<K, V> next() {
+                if (null == next)
+                    throw new NoSuchElementException();
+                if (modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                Entry<K, V> e = new IteratorEntry(next.key(), next.value());
+                lastKey = e.getKey();
+                if (!(descending ? next.prev() : next.next()) || outside(next.key()))
+                    next = null;
+                return e;
+            }
+            @Override
+            public void remove() {
+                if (null == lastKey)
+                    throw new IllegalStateException();
+                if (modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                K following = (null == next) ? null : next.key();
+                BMap.this.remove(lastKey);
+                lastKey = null;
+                // the removal can move entries between leaves; find our place again
+                if (null != following)
+                    next = descending ? floor(following, true) : ceiling(following, true);
+                expectedModCount = modCount;
+            }
+            private boolean outside(K k) {
+                return descending ? tooLow(k) : tooHigh(k);
+            }
+        }
+    }
+
+    // =================================
+    private static final class KeySet<K> extends AbstractSet<K> implements NavigableSet<K> {
+        private final NavigableMap<K, ?> m;
+        private KeySet(NavigableMap<K, ?> m) {
+            this.m = m;
+        }
+        @Override
+        public Iterator<K> iterator() {
+            Iterator<? extends Entry<K, ?>> it = m.entrySet().iterator();
+            return new Iterator<K>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+                @Override
+                public K next() {
+                    return it.next().getKey();
+                }
+                @Override
+                public void remove() {
+                    it.remove();
+                }
+            };
+        }
+        @Override
+        public Iterator<K> descendingIterator() {
+            return descendingSet().iterator();
+        }
+        @Override
+        public int size() {
+            return m.size();
+        }
+        @Override
+        public boolean isEmpty() {
+            return m.isEmpty();
+        }
+        @Override
+        public boolean contains(Object o) {
+            return m.containsKey(o);
+        }
+        @Override
+        public boolean remove(Object o) {
+            if (!m.containsKey(o))
+                return false;
+            m.remove(o);
+            return true;
+        }
+        @Override
+        public void clear() {
+            m.clear();
+        }
+        @Override
+        public Comparator<? super K> comparator() {
+            return m.comparator();
+        }
+        @Override
+        public K first() {
+            return m.firstKey();
+        }
+        @Override
+        public K last() {
+            return m.lastKey();
+        }
+        @Override
+        public K lower(K k) {
+            return m.lowerKey(k);
+        }
+        @Override
+        public K floor(K k) {
+            return m.floorKey(k);
+        }
+        @Override
+        public K ceiling(K k) {
+            return m.ceilingKey(k);
+        }
+        @Override
+        public K higher(K k) {
+            return m.higherKey(k);
+        }
+        @Override
+        public K pollFirst() {
+            Entry<K, ?> e = m.pollFirstEntry();
+            return (null == e) ? null : e.getKey();
+        }
+        @Override
+        public K pollLast() {
+            Entry<K, ?> e = m.pollLastEntry();
+            return (null == e) ? null : e.getKey();
+        }
+        @Override
+        public NavigableSet<K> descendingSet() {
+            return new KeySet<>(m.descendingMap());
+        }
+        @Override
+        public NavigableSet<K> subSet(K fromElement, boolean fromInclusive, K toElement, boolean toInclusive) {
+            return new KeySet<>(m.subMap(fromElement, fromInclusive, toElement, toInclusive));
+        }
+        @Override
+        public NavigableSet<K> headSet(K toElement, boolean inclusive) {
+            return new KeySet<>(m.headMap(toElement, inclusive));
+        }
+        @Override
+        public NavigableSet<K> tailSet(K fromElement, boolean inclusive) {
+            return new KeySet<>(m.tailMap(fromElement, inclusive));
+        }
+        @Override
+        public SortedSet<K> subSet(K fromElement, K toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+        @Override
+        public SortedSet<K> headSet(K toElement) {
+            return headSet(toElement, false);
+        }
+        @Override
+        public SortedSet<K> tailSet(K fromElement) {
+            return tailSet(fromElement, true);
+        }
+    }
+
+    private transient Set<Entry<K, V>> entrySet;
+    private transient NavigableSet<K> keySet;
 }
@@ -0,0 +1,84 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.google.common.base.Stopwatch;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * BMap against TreeMap: random-order puts, random gets, and range scans of
+ * SCAN consecutive keys, plus retained heap per entry (keys and values are
+ * shared, so it's the structure alone). Give it heap for two maps:
+ * java -Xmx4g ... BMapBench [entries [minWindow]]
+ */
+@Slf4j
+public class BMapBench {
+    private static final int GETS = 2_000_000;
+    private static final int SCANS = 20_000;
+    private static final int SCAN = 1_000;
+
+    public static void main(String[] args) {
+        int n = (args.length > 0) ? Integer.parseInt(args[0]) : 10_000_000;
+        int window = (args.length > 1) ? Integer.parseInt(args[1]) : 32;
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = i;
+        Random rnd = new Random(19);
+        for (int i = n - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            Integer t = keys[i];
+            keys[i] = keys[j];
+            keys[j] = t;
+        }
+        for (int round = 0; round < 2; round++) {
+            run("TreeMap", TreeMap::new, keys);
+            run("BMap(" + window + ")", () -> new BMap<>(window), keys);
+        }
+    }
+
+    private static void run(String name, Supplier<NavigableMap<Integer, Integer>> factory, Integer[] keys) {
+        int n = keys.length;
+        long before = usedHeap();
+        NavigableMap<Integer, Integer> m = factory.get();
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        for (Integer k : keys)
+            m.put(k, k);
+        double puts = n / micros(stopwatch);
+        long bytes = usedHeap() - before;
+
+        Random rnd = new Random(1);
+        long sum = 0;
+        stopwatch = Stopwatch.createStarted();
+        for (int i = 0; i < GETS; i++)
+            sum += m.get(keys[rnd.nextInt(n)]);
+        double gets = GETS / micros(stopwatch);
+
+        stopwatch = Stopwatch.createStarted();
+        for (int i = 0; i < SCANS; i++) {
+            Integer from = keys[rnd.nextInt(n)];
+            for (Map.Entry<Integer, Integer> e : m.subMap(from, true, from + SCAN, false).entrySet())
+                sum += e.getValue();
+        }
+        double scanned = (double)SCANS * SCAN / micros(stopwatch);
+
+        log.info("{}: put {} M/s, get {} M/s, scan {} M entries/s, {} bytes/entry ({})", name,
+                 String.format("%.2f", puts), String.format("%.2f", gets), String.format("%.1f", scanned),
+                 String.format("%.1f", (double)bytes / n), sum);
+    }
+
+    private static double micros(Stopwatch stopwatch) {
+        return stopwatch.elapsed(TimeUnit.NANOSECONDS) / 1e3;
+    }
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
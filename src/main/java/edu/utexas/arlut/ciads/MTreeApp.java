@@ -6,7 +6,9 @@ import edu.utexas.arlut.ciads.rev.MTree;
 public class MTreeApp {
     public static void main(String[] args) {
         System.out.printf("Hello world!\n");
-        MTree mt = new MTree();
-        mt.put("Shazam");
+        MTree<String, Integer> mt = MTree.empty();
+        MTree<String, Integer> mt1 = mt.put("Shazam", 1);
+        MTree<String, Integer> mt2 = mt1.put("Kazam", 2).remove("Shazam");
+        System.out.printf("%s %s %s\n", mt, mt1, mt2);
     }
 }
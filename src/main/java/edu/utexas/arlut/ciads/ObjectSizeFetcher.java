@@ -1,8 +1,29 @@
 // CLASSIFICATION NOTICE: This file is UNCLASSIFIED
 package edu.utexas.arlut.ciads;
 
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.Queues.newArrayDeque;
+
 import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.collect.ImmutableList;
 
+/**
+ * Object sizes via the instrumentation agent; run with
+ * -javaagent:&lt;the fat jar&gt;. On Java 9+ the deep sizes also need the JDK
+ * internals opened, e.g. --add-opens java.base/java.util=ALL-UNNAMED; fields
+ * that can't be opened are skipped.
+ */
 public class ObjectSizeFetcher {
     private static Instrumentation instrumentation;
 
@@ -11,6 +32,80 @@ public class ObjectSizeFetcher {
     }
 
     public static long getObjectSize(Object o) {
+        checkState(null != instrumentation, "not running with -javaagent");
         return instrumentation.getObjectSize(o);
     }
+
+    /**
+     * Shallow size of everything reachable from root, each object counted
+     * once. Classes and static fields are not followed.
+     */
+    public static long getDeepSize(Object root) {
+        return walk(root, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    /**
+     * Deep size of root, minus everything also reachable from shared: what
+     * root costs on top of structure it shares.
+     */
+    public static long getDeepSize(Object root, Object shared) {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        walk(shared, seen);
+        return walk(root, seen);
+    }
+
+    private static long walk(Object root, Set<Object> seen) {
+        long total = 0;
+        Deque<Object> pending = newArrayDeque();
+        if (null != root)
+            pending.push(root);
+        while (!pending.isEmpty()) {
+            Object o = pending.pop();
+            if (o instanceof Class || !seen.add(o))
+                continue;
+            total += getObjectSize(o);
+            Class<?> c = o.getClass();
+            if (c.isArray()) {
+                if (c.getComponentType().isPrimitive())
+                    continue;
+                for (int i = Array.getLength(o) - 1; i >= 0; i--) {
+                    Object e = Array.get(o, i);
+                    if (null != e)
+                        pending.push(e);
+                }
+                continue;
+            }
+            for (Field f : references(c)) {
+                try {
+                    Object v = f.get(o);
+                    if (null != v)
+                        pending.push(v);
+                } catch (IllegalAccessException e) {
+                    // opened in references(), can't happen
+                }
+            }
+        }
+        return total;
+    }
+
+    // non-static reference fields of c & its superclasses, made accessible
+    private static List<Field> references(Class<?> c) {
+        return FIELDS.computeIfAbsent(c, k -> {
+            ImmutableList.Builder<Field> fields = ImmutableList.builder();
+            for (Class<?> t = k; null != t; t = t.getSuperclass()) {
+                for (Field f : t.getDeclaredFields()) {
+                    if (Modifier.isStatic(f.getModifiers()) || f.getType().isPrimitive())
+                        continue;
+                    try {
+                        f.setAccessible(true);
+                        fields.add(f);
+                    } catch (RuntimeException e) {
+                        // closed module; skip it
+                    }
+                }
+            }
+            return fields.build();
+        });
+    }
+    private static final Map<Class<?>, List<Field>> FIELDS = new ConcurrentHashMap<>();
 }
@@ -3,49 +3,107 @@ package edu.utexas.arlut.ciads.chain;
 
 import lombok.extern.slf4j.Slf4j;
 
-import static com.google.common.collect.Lists.newLinkedList;
+import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Maps.newHashMap;
 
 import java.util.*;
 
+import com.google.common.collect.AbstractIterator;
+
 @Slf4j
 public class ChainMap<K, V> extends AbstractMap<K, V> {
     public ChainMap() {
-        history.addFirst(current);
+        this(true);
+    }
+    /**
+     * @param layerFilters keep a Bloom filter of each committed revision's
+     *                     key hashes, so get() can skip layers that can't
+     *                     hold the key
+     */
+    public ChainMap(boolean layerFilters) {
+        this.filters = layerFilters ? new LayerFilters() : null;
     }
 
     public void commit() {
-        current = new Revision<K, V>();
-        history.addFirst(current);
+        if (null != filters) {
+            // from here on the store doesn't change
+            int[] hashes = new int[current.store.size()];
+            int n = 0;
+            for (K k : current.store.keySet())
+                hashes[n++] = Objects.hashCode(k);
+            filters.add(hashes, n);
+        }
+        committed.add(current);
+        current = new Revision<K, V>(current.size);
+    }
+
+    // lookup stats: how many layers get() actually probed, on average. Only
+    // reads count; put & remove look up the old value uncounted.
+    public long lookups() {
+        return lookups;
+    }
+    public long probes() {
+        return probes;
+    }
+    public double probesPerLookup() {
+        return (0 == lookups) ? 0.0 : (double)probes / lookups;
+    }
+    public void resetStats() {
+        lookups = 0;
+        probes = 0;
     }
 
     public void dump() {
-        for (Revision<K,V> r: history) {
-            log.info("{}", r.store);
+        log.info("{}", current.store);
+        for (int i = committed.size() - 1; i >= 0; i--) {
+            log.info("{}", committed.get(i).store);
         }
     }
 
     public void rollback() {
-        history.pop();
-        current = new Revision<K, V>();
-        history.addFirst(current);
+        current = new Revision<K, V>(committed.isEmpty() ? 0 : committed.get(committed.size() - 1).size);
     }
 
+    /**
+     * The merged view: live entries across every revision, newest value
+     * winning, removals hidden. Iterating it keeps no per-entry state; an
+     * entry from an older layer is checked against the newer layers instead.
+     */
     @Override
     public Set<Entry<K, V>> entrySet() {
-        // filter TOMBSTONE
-        return current.store.entrySet();
+        Set<Entry<K, V>> es = this.entrySet;
+        return (null == es) ? (this.entrySet = new EntrySet()) : es;
+    }
+
+    @Override
+    public int size() {
+        return current.size;
     }
 
     @Override
     public V put(K k, V v) {
-        return current.store.put(k, v);
+        V oldV = find(k);
+        current.store.put(k, v);
+        if (null == oldV)
+            current.size++;
+        return oldV;
     }
 
     @Override
     public V get(Object k) {
-        for (Revision<K, V> r: history) {
-            V v = r.store.get(k);
+        lookups++;
+        V v = find(k);
+        probes += probed;
+        return v;
+    }
+    // the value of k, leaving the number of layers probed in probed
+    private V find(Object k) {
+        probed = 0;
+        if (null != filters)
+            return filteredGet(k);
+        for (int i = 0; i <= committed.size(); i++) {
+            probed++;
+            V v = layer(i).store.get(k);
 //            if (TOMBSTONE.equals(v))
             if (TOMBSTONE == v)
                 return null;
@@ -54,23 +112,128 @@ public class ChainMap<K, V> extends AbstractMap<K, V> {
         }
         return null;
     }
+    // the working revision, then the committed ones the filters let through
+    private V filteredGet(Object k) {
+        probed++;
+        V v = current.store.get(k);
+        if (null != v)
+            return (TOMBSTONE == v) ? null : v;
+        int spread = LayerFilters.spread(Objects.hashCode(k));
+        long mask = LayerFilters.mask(spread);
+        for (int i = filters.layers() - 1; i >= 0; i--) {
+            if (!filters.mightContain(i, spread, mask))
+                continue;
+            probed++;
+            v = committed.get(i).store.get(k);
+            if (null != v)
+                return (TOMBSTONE == v) ? null : v;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object k) {
+        return null != get(k);
+    }
 
     @Override
     public V remove(Object k) {
-        if (containsKey(k)) {
+        V oldV = find(k);
+        if (null != oldV) {
             current.store.put((K) k, (V) TOMBSTONE);
+            current.size--;
+        }
+        return oldV;
+    }
+
+    @Override
+    public void clear() {
+        for (K k : newArrayList(keySet()))
+            remove(k);
+    }
+
+    // =================================
+    // newest first: 0 is the working revision
+    private Revision<K, V> layer(int i) {
+        return (0 == i) ? current : committed.get(committed.size() - i);
+    }
+
+    // does any layer newer than i hold k, live or removed?
+    private boolean shadowed(Object k, int i) {
+        if (i > 0 && current.store.containsKey(k))
+            return true;
+        int spread = (null == filters) ? 0 : LayerFilters.spread(Objects.hashCode(k));
+        long mask = (null == filters) ? 0 : LayerFilters.mask(spread);
+        for (int j = committed.size() - i + 1; j < committed.size(); j++) {
+            if (null != filters && !filters.mightContain(j, spread, mask))
+                continue;
+            if (committed.get(j).store.containsKey(k))
+                return true;
+        }
+        return false;
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<K, V>> {
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new AbstractIterator<Entry<K, V>>() {
+                private int layer = 0;
+                private Iterator<Entry<K, V>> it = current.store.entrySet().iterator();
+                @Override
+                protected Entry<K, V> computeNext() {
+                    while (true) {
+                        while (it.hasNext()) {
+                            Entry<K, V> e = it.next();
+                            if (TOMBSTONE != e.getValue() && !shadowed(e.getKey(), layer))
+                                return new SimpleImmutableEntry<>(e);
+                        }
+                        if (++layer > committed.size())
+                            return endOfData();
+                        it = layer(layer).store.entrySet().iterator();
+                    }
+                }
+            };
+        }
+        @Override
+        public int size() {
+            return current.size;
+        }
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<?, ?> e = (Entry)o;
+            V v = get(e.getKey());
+            return null != v && v.equals(e.getValue());
+        }
+        @Override
+        public boolean remove(Object o) {
+            if (!contains(o))
+                return false;
+            ChainMap.this.remove(((Entry)o).getKey());
+            return true;
+        }
+        @Override
+        public void clear() {
+            ChainMap.this.clear();
         }
-        return null;
     }
 
     private static final Object TOMBSTONE = new String("TOMBSTONE");
-    private Revision<K, V> current = new Revision<>();
-    private final Deque<Revision<K, V>> history = newLinkedList();
+    private Revision<K, V> current = new Revision<>(0);
+    // oldest first
+    private final List<Revision<K, V>> committed = newArrayList();
+    // when filtering, one per committed revision
+    private final LayerFilters filters;
+    private transient Set<Entry<K, V>> entrySet;
+    private long lookups = 0;
+    private long probes = 0;
+    private int probed = 0;
 
 
     private static class Revision<K, V> {
-        private Revision() {
-//            this.prior = prior;
+        private Revision(int size) {
+            this.size = size;
         }
 
         public V get(Object k) {
@@ -78,6 +241,7 @@ public class ChainMap<K, V> extends AbstractMap<K, V> {
         }
 
         private final Map<K, V> store = newHashMap();
-//        private final Revision prior;
+        // of the whole view, as of this revision
+        private int size;
     }
 }
@@ -0,0 +1,52 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.chain;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * get() cost against history depth, with & without the per-layer Bloom
+ * filters. Every layer holds KEYS_PER_REVISION fresh keys & lookups are
+ * uniform over all of them, so most resolve deep in the history.
+ */
+@Slf4j
+public class ChainMapLookupBench {
+    private static final int KEYS_PER_REVISION = 16;
+    private static final int LOOKUPS = 50_000;
+
+    public static void main(String[] args) {
+        int[] depths = {10, 100, 1_000, 5_000};
+        for (int depth : depths) {
+            for (boolean filtered : new boolean[]{false, true}) {
+                ChainMap<String, String> cm = new ChainMap<>(filtered);
+                int k = 0;
+                for (int r = 0; r < depth; r++) {
+                    for (int i = 0; i < KEYS_PER_REVISION; i++, k++)
+                        cm.put("K" + k, "V" + k);
+                    cm.commit();
+                }
+                String[] keys = new String[LOOKUPS];
+                Random rnd = new Random(42);
+                for (int i = 0; i < LOOKUPS; i++)
+                    keys[i] = "K" + rnd.nextInt(k);
+
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < 5; round++) {
+                    cm.resetStats();
+                    Stopwatch stopwatch = Stopwatch.createStarted();
+                    for (String key : keys) {
+                        if (null == cm.get(key))
+                            log.error("missed {}", key);
+                    }
+                    best = Math.min(best, stopwatch.elapsed(TimeUnit.NANOSECONDS));
+                }
+                log.info("{} layers, {}: {} ns/get, {} probes/get", depth, filtered ? "filtered" : "plain   ",
+                         String.format("%.0f", (double)best / LOOKUPS),
+                         String.format("%.1f", cm.probesPerLookup()));
+            }
+        }
+    }
+}
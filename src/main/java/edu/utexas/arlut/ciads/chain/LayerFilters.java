@@ -0,0 +1,66 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.chain;
+
+import java.util.Arrays;
+
+/**
+ * Bloom filters over the key hashes of every committed ChainMap layer, packed
+ * end to end in one long[]. Each filter is blocked to a single word per key:
+ * a key sets 3 bits of one word, & the same 3 bits in every layer, so a
+ * lookup computes its mask once and tests one word per layer, walking the
+ * array in order. About 12 bits per key, for a few percent false positives.
+ * <p>
+ * Guava's BloomFilter was tried first, but a probe there (funnel, boxing &
+ * a 128-bit murmur) costs more than the HashMap.get() it's meant to save.
+ */
+final class LayerFilters {
+    int layers() {
+        return layers;
+    }
+
+    /**
+     * Append the filter for the next layer, holding hashes[0..n).
+     */
+    void add(int[] hashes, int n) {
+        int words = (0 == n) ? 0 : (int)(((long)n * BITS_PER_KEY + 63) >>> 6);
+        if (layers == offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * layers);
+            sizes = Arrays.copyOf(sizes, 2 * layers);
+        }
+        if (used + words > bits.length)
+            bits = Arrays.copyOf(bits, Math.max(2 * bits.length, used + words));
+        offsets[layers] = used;
+        sizes[layers] = words;
+        for (int i = 0; i < n; i++) {
+            int h = spread(hashes[i]);
+            bits[used + word(h, words)] |= mask(h);
+        }
+        used += words;
+        layers++;
+    }
+
+    boolean mightContain(int layer, int spread, long mask) {
+        int words = sizes[layer];
+        return 0 != words && mask == (bits[offsets[layer] + word(spread, words)] & mask);
+    }
+
+    static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+    // 3 bits, from hash bits the word choice doesn't lean on
+    static long mask(int spread) {
+        int h = Integer.reverse(spread) * 0x85EBCA6B;
+        return (1L << h) | (1L << (h >>> 6)) | (1L << (h >>> 12));
+    }
+    private static int word(int spread, int words) {
+        return (int)(((spread & 0xFFFFFFFFL) * words) >>> 32);
+    }
+
+    private static final int BITS_PER_KEY = 12;
+    private long[] bits = new long[64];
+    private int[] offsets = new int[16];
+    private int[] sizes = new int[16];
+    private int used = 0;
+    private int layers = 0;
+}
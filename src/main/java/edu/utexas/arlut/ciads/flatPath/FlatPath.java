@@ -1,35 +1,72 @@
 // CLASSIFICATION NOTICE: This file is UNCLASSIFIED
 package edu.utexas.arlut.ciads.flatPath;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Iterator;
+
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * A persistent hash set on FlatTrie's 4-way paths. add() and remove() leave
+ * this set alone and return the changed one, sharing every node off the
+ * changed path. Leaves pack their elements into one array, so a lookup is a
+ * few small Interior hops and one short scan. Null elements aren't allowed.
+ */
 @Slf4j
-public class FlatPath {
+public final class FlatPath<E> implements Iterable<E> {
+    private static final FlatPath EMPTY = new FlatPath(null, 0);
 
-    public void add(String item) {
-        final int hash = item.hashCode();
+    public static <E> FlatPath<E> empty() {
+        return EMPTY;
+    }
 
+    private FlatPath(FlatTrie.Node root, int size) {
+        this.root = root;
+        this.size = size;
     }
-    private interface Node {
-        boolean isLeaf();
+
+    public FlatPath<E> add(E item) {
+        checkNotNull(item);
+        int[] change = {0};
+        FlatTrie.Node r = FlatTrie.plus(root, FlatTrie.hash(item), new Object[]{item}, change);
+        return (r == root) ? this : new FlatPath<>(r, size + change[0]);
     }
-    private static class Interior implements Node {
 
-        @Override
-        public boolean isLeaf() {
-            return false;
-        }
-        private Node[] children = new Node[4];
+    public FlatPath<E> remove(Object item) {
+        int[] change = {0};
+        FlatTrie.Node r = FlatTrie.minus(root, item, FlatTrie.hash(item), 1, change);
+        return (r == root) ? this : new FlatPath<>(r, size + change[0]);
+    }
+
+    public boolean contains(Object item) {
+        return null != FlatTrie.find(root, item, FlatTrie.hash(item), 1);
     }
-    private static class Leaf implements Node {
 
-        @Override
-        public boolean isLeaf() {
-            return true;
+    public int size() {
+        return size;
+    }
+    public boolean isEmpty() {
+        return 0 == size;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return FlatTrie.iterator(root, 1, (slots, i) -> (E)slots[i]);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (E e : this) {
+            if (sb.length() > 1)
+                sb.append(", ");
+            sb.append(e);
         }
-        private Object[] a0 = null;
-        private Object[] a1 = null;
-        private Object[] a2 = null;
-        private Object[] a3 = null;
+        return sb.append(']').toString();
     }
+
+    // =================================
+    private final FlatTrie.Node root;
+    private final int size;
 }
@@ -0,0 +1,66 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.flatPath;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import com.google.common.base.Stopwatch;
+import com.jwetherell.algorithms.data_structures.HashArrayMappedTrie;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Lookups per second, half hits & half misses, on String sets of a few
+ * sizes: FlatPath against HashSet and jwetherell's HashArrayMappedTrie.
+ * FlatPathBench [maxSize]
+ */
+@Slf4j
+public class FlatPathBench {
+    private static final int LOOKUPS = 2_000_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int max = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        for (int n = 1_000; n <= max; n *= 10) {
+            String[] keys = new String[n];
+            String[] probes = new String[LOOKUPS];
+            Random rnd = new Random(n);
+            for (int i = 0; i < n; i++)
+                keys[i] = "K" + rnd.nextLong();
+            for (int i = 0; i < LOOKUPS; i++)
+                probes[i] = (0 == (i & 1)) ? keys[rnd.nextInt(n)] : "M" + rnd.nextInt(n);
+
+            Set<String> hs = new HashSet<>();
+            FlatPath<String> fp = FlatPath.empty();
+            HashArrayMappedTrie<String, Boolean> hamt = new HashArrayMappedTrie<>();
+            for (String k : keys) {
+                hs.add(k);
+                fp = fp.add(k);
+                hamt.put(k, Boolean.TRUE);
+            }
+            FlatPath<String> flat = fp;
+            log.info("{} keys: HashSet {} M/s, FlatPath {} M/s, HashArrayMappedTrie {} M/s", n,
+                     rate(hs::contains, probes), rate(flat::contains, probes), rate(hamt::contains, probes));
+        }
+    }
+
+    // best of ROUNDS, after the first warms up
+    private static String rate(Predicate<String> contains, String[] probes) {
+        double best = 0;
+        int hits = 0;
+        for (int r = 0; r <= ROUNDS; r++) {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            for (String p : probes)
+                if (contains.test(p))
+                    hits++;
+            double rate = probes.length / (stopwatch.elapsed(TimeUnit.NANOSECONDS) / 1e3);
+            if (r > 0)
+                best = Math.max(best, rate);
+        }
+        if (hits < probes.length / 2)
+            throw new IllegalStateException("missed keys");
+        return String.format("%.1f", best);
+    }
+}
@@ -0,0 +1,85 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.flatPath;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * FlatPath's map: a persistent hash map with the same trie, each leaf
+ * packing key, value, key, value... into one array. put() and remove()
+ * return the changed map. Null keys and values aren't allowed.
+ */
+public final class FlatPathMap<K, V> implements Iterable<Map.Entry<K, V>> {
+    private static final FlatPathMap EMPTY = new FlatPathMap(null, 0);
+
+    public static <K, V> FlatPathMap<K, V> empty() {
+        return EMPTY;
+    }
+
+    private FlatPathMap(FlatTrie.Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    public FlatPathMap<K, V> put(K k, V v) {
+        checkNotNull(k);
+        checkNotNull(v);
+        int[] change = {0};
+        FlatTrie.Node r = FlatTrie.plus(root, FlatTrie.hash(k), new Object[]{k, v}, change);
+        return (r == root) ? this : new FlatPathMap<>(r, size + change[0]);
+    }
+
+    public FlatPathMap<K, V> remove(Object k) {
+        int[] change = {0};
+        FlatTrie.Node r = FlatTrie.minus(root, k, FlatTrie.hash(k), 2, change);
+        return (r == root) ? this : new FlatPathMap<>(r, size + change[0]);
+    }
+
+    public V get(Object k) {
+        return (V)FlatTrie.find(root, k, FlatTrie.hash(k), 2);
+    }
+    public boolean containsKey(Object k) {
+        return null != get(k);
+    }
+
+    public int size() {
+        return size;
+    }
+    public boolean isEmpty() {
+        return 0 == size;
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return FlatTrie.iterator(root, 2, (slots, i) -> new AbstractMap.SimpleImmutableEntry<>((K)slots[i],
+                                                                                            (V)slots[i + 1]));
+    }
+
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        checkNotNull(action);
+        FlatTrie.Cursor c = new FlatTrie.Cursor(root);
+        while (c.hasNext()) {
+            int i = 2 * c.next();
+            action.accept((K)c.slots()[i], (V)c.slots()[i + 1]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((k, v) -> {
+            if (sb.length() > 1)
+                sb.append(", ");
+            sb.append(k).append('=').append(v);
+        });
+        return sb.append('}').toString();
+    }
+
+    // =================================
+    private final FlatTrie.Node root;
+    private final int size;
+}
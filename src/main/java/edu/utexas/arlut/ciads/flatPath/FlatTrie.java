@@ -0,0 +1,354 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.flatPath;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The persistent 4-way hash trie under FlatPath and FlatPathMap. Routing
+ * consumes the mixed hash two bits at a time from the low end, as in
+ * MTree.put: digit d is (hash >>> 2d) & 3, 16 digits in all.
+ * <p>
+ * An Interior branches on a single digit and has at least two children;
+ * digits where everything below agrees are skipped rather than given a
+ * one-child node, and the Interior keeps those low hash bits (prefix) so an
+ * insert can tell where a new key leaves the path. A Leaf is a bucket of up
+ * to LEAF_MAX entries packed into one array - stride 1 (keys) for a set,
+ * stride 2 (key, value) for a map - with their hashes in a parallel int[].
+ * A full Leaf splits at the first digit its hashes differ on; only a bucket
+ * of identical hashes grows past LEAF_MAX.
+ * <p>
+ * Nodes are immutable. plus() and minus() copy the root-to-leaf path and
+ * return the new root, or the same root if nothing changed.
+ */
+final class FlatTrie {
+    static final int LEAF_MAX = 16;
+    private static final int DIGITS = 16;
+
+    private FlatTrie() {
+    }
+
+    interface Node {
+        boolean isLeaf();
+    }
+    static final class Interior implements Node {
+        private Interior(int depth, int prefix, Node[] children) {
+            this.depth = depth;
+            this.prefix = prefix;
+            this.children = children;
+        }
+        @Override
+        public boolean isLeaf() {
+            return false;
+        }
+        // the digit this node branches on
+        private final int depth;
+        // hash bits below depth, shared by everything underneath
+        private final int prefix;
+        private final Node[] children;
+
+        private Node child(int c) {
+            return children[c];
+        }
+        private Node[] children() {
+            return children.clone();
+        }
+    }
+    static final class Leaf implements Node {
+        private Leaf(int[] hashes, Object[] slots) {
+            this.hashes = hashes;
+            this.slots = slots;
+        }
+        @Override
+        public boolean isLeaf() {
+            return true;
+        }
+        private final int[] hashes;
+        private final Object[] slots;
+    }
+
+    // =================================
+    static int hash(Object k) {
+        // the low digits route first, so fold the high bits down
+        int h = k.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        return h ^ (h >>> 13);
+    }
+
+    /**
+     * @return the last slot of k's entry (the key itself when stride is 1,
+     * else its value), or null if absent
+     */
+    static Object find(Node n, Object k, int h, int stride) {
+        while (n instanceof Interior) {
+            Interior in = (Interior)n;
+            n = in.children[digit(h, in.depth)];
+        }
+        if (null == n)
+            return null;
+        Leaf lf = (Leaf)n;
+        int[] hashes = lf.hashes;
+        for (int i = 0; i < hashes.length; i++) {
+            if (h == hashes[i] && k.equals(lf.slots[i * stride]))
+                return lf.slots[i * stride + stride - 1];
+        }
+        return null;
+    }
+
+    /**
+     * @param entry  the slots of the entry to add: {k} or {k, v}
+     * @param change set to 1 if the key was new
+     */
+    static Node plus(Node n, int h, Object[] entry, int[] change) {
+        if (null == n) {
+            change[0] = 1;
+            return new Leaf(new int[]{h}, entry.clone());
+        }
+        int stride = entry.length;
+        if (!n.isLeaf()) {
+            Interior in = (Interior)n;
+            int diff = (h ^ in.prefix) & lowBits(in.depth);
+            if (0 != diff) {
+                change[0] = 1;
+                return branch(firstDigit(diff), in.prefix, in, h, new Leaf(new int[]{h}, entry.clone()));
+            }
+            int c = digit(h, in.depth);
+            Node child = plus(in.child(c), h, entry, change);
+            if (child == in.child(c))
+                return in;
+            Node[] kids = in.children();
+            kids[c] = child;
+            return new Interior(in.depth, in.prefix, kids);
+        }
+
+        Leaf lf = (Leaf)n;
+        int i = indexOf(lf, entry[0], h, stride);
+        if (i >= 0) {
+            if (1 == stride || lf.slots[i * stride + 1] == entry[1])
+                return lf;
+            Object[] slots = lf.slots.clone();
+            slots[i * stride + 1] = entry[1];
+            return new Leaf(lf.hashes, slots);
+        }
+        change[0] = 1;
+        int count = lf.hashes.length;
+        int[] hashes = Arrays.copyOf(lf.hashes, count + 1);
+        hashes[count] = h;
+        Object[] slots = Arrays.copyOf(lf.slots, (count + 1) * stride);
+        System.arraycopy(entry, 0, slots, count * stride, stride);
+        if (count < LEAF_MAX)
+            return new Leaf(hashes, slots);
+        int diff = 0;
+        for (int x : hashes)
+            diff |= x ^ h;
+        // a bucket of one hash can't split
+        return (0 == diff) ? new Leaf(hashes, slots) : split(hashes, slots, stride, firstDigit(diff));
+    }
+
+    /**
+     * @param change set to -1 if the key was there
+     */
+    static Node minus(Node n, Object k, int h, int stride, int[] change) {
+        if (null == n)
+            return null;
+        if (!n.isLeaf()) {
+            Interior in = (Interior)n;
+            if (0 != ((h ^ in.prefix) & lowBits(in.depth)))
+                return in;
+            int c = digit(h, in.depth);
+            Node child = minus(in.child(c), k, h, stride, change);
+            if (child == in.child(c))
+                return in;
+            Node[] kids = in.children();
+            kids[c] = child;
+            return collapse(in, kids, stride);
+        }
+        Leaf lf = (Leaf)n;
+        int i = indexOf(lf, k, h, stride);
+        if (i < 0)
+            return lf;
+        change[0] = -1;
+        int count = lf.hashes.length;
+        if (1 == count)
+            return null;
+        int[] hashes = new int[count - 1];
+        System.arraycopy(lf.hashes, 0, hashes, 0, i);
+        System.arraycopy(lf.hashes, i + 1, hashes, i, count - 1 - i);
+        Object[] slots = new Object[(count - 1) * stride];
+        System.arraycopy(lf.slots, 0, slots, 0, i * stride);
+        System.arraycopy(lf.slots, (i + 1) * stride, slots, i * stride, (count - 1 - i) * stride);
+        return new Leaf(hashes, slots);
+    }
+
+    // =================================
+    /**
+     * Depth-first over the leaves; next() returns the index of the current
+     * entry in leaf().slots / stride.
+     */
+    static final class Cursor {
+        Cursor(Node root) {
+            if (null != root)
+                stack[top++] = root;
+            advance();
+        }
+        boolean hasNext() {
+            return null != leaf;
+        }
+        // position of the next entry in leaf()
+        int next() {
+            if (null == leaf)
+                throw new NoSuchElementException();
+            int i = index++;
+            current = leaf;
+            if (index == leaf.hashes.length)
+                advance();
+            return i;
+        }
+        // the leaf holding the entry next() just returned
+        Object[] slots() {
+            return current.slots;
+        }
+
+        private void advance() {
+            leaf = null;
+            index = 0;
+            while (top > 0) {
+                Node n = stack[--top];
+                if (n.isLeaf()) {
+                    leaf = (Leaf)n;
+                    return;
+                }
+                Interior in = (Interior)n;
+                for (int c = 3; c >= 0; c--)
+                    if (null != in.child(c))
+                        stack[top++] = in.child(c);
+            }
+        }
+
+        // each level pushes at most 4, and there are at most DIGITS levels
+        private final Node[] stack = new Node[4 * DIGITS + 1];
+        private int top = 0;
+        private Leaf leaf;
+        private Leaf current;
+        private int index;
+    }
+
+    static <T> Iterator<T> iterator(Node root, int stride, EntryView<T> view) {
+        Cursor c = new Cursor(root);
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return c.hasNext();
+            }
+            @Override
+            public T next() {
+                int i = c.next();
+                return view.at(c.slots(), i * stride);
+            }
+        };
+    }
+    interface EntryView<T> {
+        T at(Object[] slots, int offset);
+    }
+
+    // =================================
+    private static int digit(int h, int depth) {
+        return (h >>> (2 * depth)) & 3;
+    }
+    // the bits of the digits below depth
+    private static int lowBits(int depth) {
+        return (depth >= DIGITS) ? -1 : (1 << (2 * depth)) - 1;
+    }
+    // the lowest digit where hashes differing by diff (non-zero) part
+    private static int firstDigit(int diff) {
+        return Integer.numberOfTrailingZeros(diff) / 2;
+    }
+
+    private static int indexOf(Leaf lf, Object k, int h, int stride) {
+        int[] hashes = lf.hashes;
+        for (int i = 0; i < hashes.length; i++) {
+            if (h == hashes[i] && k.equals(lf.slots[i * stride]))
+                return i;
+        }
+        return -1;
+    }
+
+    private static Interior branch(int depth, int h1, Node n1, int h2, Node n2) {
+        Node[] kids = new Node[4];
+        kids[digit(h1, depth)] = n1;
+        kids[digit(h2, depth)] = n2;
+        return new Interior(depth, h2 & lowBits(depth), kids);
+    }
+
+    // redistribute an overfull bucket under a node branching on depth
+    private static Interior split(int[] hashes, Object[] slots, int stride, int depth) {
+        int[] counts = new int[4];
+        for (int h : hashes)
+            counts[digit(h, depth)]++;
+        int[][] hs = new int[4][];
+        Object[][] ss = new Object[4][];
+        for (int c = 0; c < 4; c++) {
+            if (counts[c] > 0) {
+                hs[c] = new int[counts[c]];
+                ss[c] = new Object[counts[c] * stride];
+            }
+        }
+        int[] fill = new int[4];
+        for (int i = 0; i < hashes.length; i++) {
+            int c = digit(hashes[i], depth);
+            hs[c][fill[c]] = hashes[i];
+            System.arraycopy(slots, i * stride, ss[c], fill[c] * stride, stride);
+            fill[c]++;
+        }
+        Node[] kids = new Node[4];
+        for (int c = 0; c < 4; c++) {
+            if (counts[c] > 0) {
+                int diff = 0;
+                for (int h : hs[c])
+                    diff |= h ^ hs[c][0];
+                // still overfull only if some other digit splits it further
+                kids[c] = (counts[c] <= LEAF_MAX || 0 == diff)
+                          ? new Leaf(hs[c], ss[c])
+                          : split(hs[c], ss[c], stride, firstDigit(diff));
+            }
+        }
+        return new Interior(depth, hashes[0] & lowBits(depth), kids);
+    }
+
+    // after a removal: drop to the only child left, or merge leaf children
+    // back into one bucket once they fit
+    private static Node collapse(Interior in, Node[] kids, int stride) {
+        Node only = null;
+        int children = 0;
+        int entries = 0;
+        boolean leaves = true;
+        for (Node k : kids) {
+            if (null == k)
+                continue;
+            only = k;
+            children++;
+            if (k.isLeaf())
+                entries += ((Leaf)k).hashes.length;
+            else
+                leaves = false;
+        }
+        if (children <= 1)
+            return only;
+        if (!leaves || entries > LEAF_MAX)
+            return new Interior(in.depth, in.prefix, kids);
+        int[] hashes = new int[entries];
+        Object[] slots = new Object[entries * stride];
+        int n = 0;
+        for (Node k : kids) {
+            if (null == k)
+                continue;
+            Leaf lf = (Leaf)k;
+            System.arraycopy(lf.hashes, 0, hashes, n, lf.hashes.length);
+            System.arraycopy(lf.slots, 0, slots, n * stride, lf.slots.length);
+            n += lf.hashes.length;
+        }
+        return new Leaf(hashes, slots);
+    }
+}
@@ -0,0 +1,161 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.mapmap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Maps.newHashMap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * MapMap's major/minor split as a striped concurrent map. Each major bucket
+ * (hash & ~mask) is its own lock: writers to different buckets never
+ * contend, and order sets the stripe width - a larger order puts more
+ * hashes under each lock.
+ * <p>
+ * A bucket emptied by remove() is dropped from the major map and marked
+ * dead, so a writer that looked it up just before retries on a fresh one.
+ * Null keys and values aren't allowed.
+ */
+@Slf4j
+public class ConcurrentMapMap<K, V> {
+    public ConcurrentMapMap(int order) {
+        checkArgument(order > 0, "order must be positive");
+        if (0 != (order & (order - 1)))
+            log.warn("order {} isn't a power of 2, using {}", order, Integer.highestOneBit(order) << 1);
+        this.order = (1 == order) ? 1 : Integer.highestOneBit(order - 1) << 1;
+        this.mask = this.order - 1;
+    }
+
+    public V get(Object k) {
+        Bucket<K, V> b = majormap.get(major(k));
+        if (null == b)
+            return null;
+        synchronized (b) {
+            return b.minormap.get(k);
+        }
+    }
+
+    public boolean containsKey(Object k) {
+        return null != get(k);
+    }
+
+    public V put(K k, V v) {
+        checkNotNull(k);
+        checkNotNull(v);
+        int major = major(k);
+        while (true) {
+            Bucket<K, V> b = majormap.computeIfAbsent(major, key -> new Bucket<>());
+            synchronized (b) {
+                if (b.dead)
+                    continue;
+                V oldV = b.minormap.put(k, v);
+                if (null == oldV)
+                    size.increment();
+                return oldV;
+            }
+        }
+    }
+
+    public V putIfAbsent(K k, V v) {
+        checkNotNull(k);
+        checkNotNull(v);
+        int major = major(k);
+        while (true) {
+            Bucket<K, V> b = majormap.computeIfAbsent(major, key -> new Bucket<>());
+            synchronized (b) {
+                if (b.dead)
+                    continue;
+                V oldV = b.minormap.putIfAbsent(k, v);
+                if (null == oldV)
+                    size.increment();
+                return oldV;
+            }
+        }
+    }
+
+    public V remove(Object k) {
+        int major = major(k);
+        Bucket<K, V> b = majormap.get(major);
+        if (null == b)
+            return null;
+        synchronized (b) {
+            // a dead bucket is already empty
+            V oldV = b.minormap.remove(k);
+            if (null != oldV) {
+                size.decrement();
+                if (b.minormap.isEmpty()) {
+                    b.dead = true;
+                    majormap.remove(major, b);
+                }
+            }
+            return oldV;
+        }
+    }
+
+    public int size() {
+        return size.intValue();
+    }
+    public boolean isEmpty() {
+        return 0 == size();
+    }
+    public int order() {
+        return order;
+    }
+    public int buckets() {
+        return majormap.size();
+    }
+
+    /**
+     * Visit every entry, one bucket at a time, each under its own lock.
+     * Buckets are visited in parallel across the common pool, so action must
+     * be thread-safe; it must not write to this map. The view of each bucket
+     * is consistent, but the buckets aren't a single snapshot.
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        forEach(1, action);
+    }
+    /**
+     * @param parallelismThreshold as for ConcurrentHashMap.forEach: go
+     *                             parallel only with at least this many
+     *                             buckets; Long.MAX_VALUE runs sequentially
+     */
+    public void forEach(long parallelismThreshold, BiConsumer<? super K, ? super V> action) {
+        checkNotNull(action);
+        majormap.forEachValue(parallelismThreshold, b -> {
+            synchronized (b) {
+                b.minormap.forEach(action);
+            }
+        });
+    }
+
+    public void dump() {
+        for (Map.Entry<Integer, Bucket<K, V>> e : majormap.entrySet()) {
+            log.info("major: {}", e.getKey());
+            synchronized (e.getValue()) {
+                log.info("\t{}", e.getValue().minormap);
+            }
+        }
+    }
+
+    // =================================
+    private int major(Object k) {
+        return k.hashCode() & ~mask;
+    }
+
+    private static final class Bucket<K, V> {
+        private final Map<K, V> minormap = newHashMap();
+        private boolean dead = false;
+    }
+
+    private final int order;
+    private final int mask;
+
+    private final ConcurrentHashMap<Integer, Bucket<K, V>> majormap = new ConcurrentHashMap<>();
+    private final LongAdder size = new LongAdder();
+}
@@ -0,0 +1,107 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.mapmap;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Aggregate throughput of 1..64 writer threads doing a put/get/remove mix
+ * on shared Integer keys 0..n (dense hashes, so order really sets how
+ * many keys share a bucket): ConcurrentMapMap at a few orders against
+ * ConcurrentHashMap.
+ * ConcurrentMapMapBench [keys [writePercent]]
+ */
+@Slf4j
+public class ConcurrentMapMapBench {
+    private static final long MILLIS = 2_000;
+    private static final int OPS_PER_CHECK = 1_000;
+
+    private interface Target {
+        Object get(Integer k);
+        Object put(Integer k, Integer v);
+        Object remove(Integer k);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int keys = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        int writePercent = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+        Integer[] boxed = new Integer[keys];
+        for (int i = 0; i < keys; i++)
+            boxed[i] = i;
+
+        int[] threads = {1, 2, 4, 8, 16, 32, 64};
+        int[] orders = {16, 256, 4096};
+        for (int n : threads) {
+            ConcurrentHashMap<Integer, Integer> chm = new ConcurrentHashMap<>();
+            double rate = measure(new Target() {
+                public Object get(Integer k) { return chm.get(k); }
+                public Object put(Integer k, Integer v) { return chm.put(k, v); }
+                public Object remove(Integer k) { return chm.remove(k); }
+            }, boxed, writePercent, n);
+            log.info("ConcurrentHashMap {} writers: {} M ops/s", n, String.format("%.2f", rate / 1e6));
+            for (int order : orders) {
+                ConcurrentMapMap<Integer, Integer> cmm = new ConcurrentMapMap<>(order);
+                rate = measure(new Target() {
+                    public Object get(Integer k) { return cmm.get(k); }
+                    public Object put(Integer k, Integer v) { return cmm.put(k, v); }
+                    public Object remove(Integer k) { return cmm.remove(k); }
+                }, boxed, writePercent, n);
+                log.info("ConcurrentMapMap({}) {} writers: {} M ops/s, {} buckets",
+                         order, n, String.format("%.2f", rate / 1e6), cmm.buckets());
+            }
+        }
+    }
+
+    private static double measure(Target t, Integer[] keys, int writePercent, int writers) throws Exception {
+        for (int i = 0; i < keys.length; i += 2)
+            t.put(keys[i], i);
+
+        AtomicBoolean done = new AtomicBoolean(false);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        List<Future<Long>> results = Lists.newArrayList();
+        for (int w = 0; w < writers; w++) {
+            results.add(pool.submit(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                start.await();
+                long ops = 0;
+                while (!done.get()) {
+                    for (int i = 0; i < OPS_PER_CHECK; i++) {
+                        Integer k = keys[rnd.nextInt(keys.length)];
+                        int op = rnd.nextInt(100);
+                        if (op >= writePercent)
+                            t.get(k);
+                        else if (0 == (op & 1))
+                            t.put(k, op);
+                        else
+                            t.remove(k);
+                    }
+                    ops += OPS_PER_CHECK;
+                }
+                return ops;
+            }));
+        }
+
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        start.countDown();
+        Thread.sleep(MILLIS);
+        done.set(true);
+        long total = 0;
+        for (Future<Long> f : results)
+            total += f.get();
+        stopwatch.stop();
+        pool.shutdown();
+        return total / (stopwatch.elapsed(TimeUnit.NANOSECONDS) / 1e9);
+    }
+}
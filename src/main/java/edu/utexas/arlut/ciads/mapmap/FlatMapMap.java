@@ -0,0 +1,201 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.mapmap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.function.BiConsumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * MapMap's two-level layout without the per-bucket objects. The majors are
+ * one power-of-two array indexed by the high bits of the (mixed) hash, no
+ * boxed Integer keys; each minor is a single Object[] of interleaved
+ * key/value slots, open-addressed with linear probing, sized to what it
+ * holds. A minor costs one array, and an empty one costs nothing.
+ * <p>
+ * The number of majors is fixed at construction; the minors grow and shrink
+ * on their own. Null keys and values aren't allowed.
+ */
+@Slf4j
+public class FlatMapMap<K, V> {
+    /**
+     * @param majors number of minor buckets, rounded up to a power of 2
+     */
+    public FlatMapMap(int majors) {
+        checkArgument(majors > 0 && majors <= 1 << 30, "majors out of range");
+        if (0 != (majors & (majors - 1)))
+            log.warn("majors {} isn't a power of 2, using {}", majors, Integer.highestOneBit(majors) << 1);
+        int n = (1 == majors) ? 1 : Integer.highestOneBit(majors - 1) << 1;
+        this.shift = 32 - Integer.numberOfTrailingZeros(n);
+        this.minors = new Object[n][];
+        this.counts = new int[n];
+    }
+
+    public V get(Object k) {
+        int h = hash(k);
+        Object[] t = minors[major(h)];
+        if (null == t)
+            return null;
+        int i = find(t, k, h);
+        return (i < 0) ? null : (V)t[i + 1];
+    }
+
+    public boolean containsKey(Object k) {
+        return null != get(k);
+    }
+
+    public V put(K k, V v) {
+        checkNotNull(k);
+        checkNotNull(v);
+        int h = hash(k);
+        int m = major(h);
+        Object[] t = minors[m];
+        if (null == t)
+            t = minors[m] = new Object[2 * MIN_SLOTS];
+        int i = find(t, k, h);
+        if (i >= 0) {
+            V oldV = (V)t[i + 1];
+            t[i + 1] = v;
+            return oldV;
+        }
+        if ((counts[m] + 1) * 4 > (t.length / 2) * 3)
+            t = minors[m] = resize(t, t.length * 2);
+        i = slot(h, t);
+        while (null != t[i])
+            i = (i + 2) & (t.length - 1);
+        t[i] = k;
+        t[i + 1] = v;
+        counts[m]++;
+        size++;
+        return null;
+    }
+
+    public V remove(Object k) {
+        int h = hash(k);
+        int m = major(h);
+        Object[] t = minors[m];
+        if (null == t)
+            return null;
+        int i = find(t, k, h);
+        if (i < 0)
+            return null;
+        V oldV = (V)t[i + 1];
+        size--;
+        if (0 == --counts[m]) {
+            minors[m] = null;
+            return oldV;
+        }
+        deleteSlot(t, i);
+        if (t.length > 2 * MIN_SLOTS && counts[m] * 8 < t.length / 2)
+            minors[m] = resize(t, t.length / 2);
+        return oldV;
+    }
+
+    public int size() {
+        return size;
+    }
+    public boolean isEmpty() {
+        return 0 == size;
+    }
+    public int majors() {
+        return minors.length;
+    }
+    // majors holding at least one entry
+    public int buckets() {
+        int n = 0;
+        for (Object[] t : minors)
+            if (null != t)
+                n++;
+        return n;
+    }
+
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        checkNotNull(action);
+        for (Object[] t : minors) {
+            if (null == t)
+                continue;
+            for (int i = 0; i < t.length; i += 2)
+                if (null != t[i])
+                    action.accept((K)t[i], (V)t[i + 1]);
+        }
+    }
+
+    public void dump() {
+        for (int m = 0; m < minors.length; m++) {
+            if (null == minors[m])
+                continue;
+            log.info("major: {} ({} entries)", m, counts[m]);
+            StringBuilder sb = new StringBuilder();
+            Object[] t = minors[m];
+            for (int i = 0; i < t.length; i += 2)
+                if (null != t[i])
+                    sb.append(t[i]).append('=').append(t[i + 1]).append(' ');
+            log.info("\t{}", sb);
+        }
+    }
+
+    // =================================
+    private static int hash(Object k) {
+        // Fibonacci hashing, so the high bits that pick the major depend on
+        // every bit of hashCode()
+        return k.hashCode() * 0x9E3779B9;
+    }
+    private int major(int h) {
+        // shift is 32 with one major; a shift of 32 is a no-op in Java
+        return (32 == shift) ? 0 : h >>> shift;
+    }
+    // first key slot to probe, an even index
+    private static int slot(int h, Object[] t) {
+        return ((h ^ (h >>> 16)) << 1) & (t.length - 1);
+    }
+
+    // key slot holding k, or -1
+    private static int find(Object[] t, Object k, int h) {
+        for (int i = slot(h, t); null != t[i]; i = (i + 2) & (t.length - 1)) {
+            if (k.equals(t[i]))
+                return i;
+        }
+        return -1;
+    }
+
+    // backward-shift deletion: pull later entries of the probe run into
+    // the hole, so lookups never need tombstones
+    private static void deleteSlot(Object[] t, int hole) {
+        int mask = t.length - 1;
+        for (int i = (hole + 2) & mask; null != t[i]; i = (i + 2) & mask) {
+            int home = slot(hash(t[i]), t);
+            // can the entry at i move back to hole without passing its home?
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                t[hole] = t[i];
+                t[hole + 1] = t[i + 1];
+                hole = i;
+            }
+        }
+        t[hole] = null;
+        t[hole + 1] = null;
+    }
+
+    private static Object[] resize(Object[] t, int length) {
+        Object[] r = new Object[length];
+        for (int i = 0; i < t.length; i += 2) {
+            if (null == t[i])
+                continue;
+            int j = slot(hash(t[i]), r);
+            while (null != r[j])
+                j = (j + 2) & (r.length - 1);
+            r[j] = t[i];
+            r[j + 1] = t[i + 1];
+        }
+        return r;
+    }
+
+    // key slots in a new minor; at 3/4 load, room for one entry before growing
+    private static final int MIN_SLOTS = 2;
+
+    private final int shift;
+    private final Object[][] minors;
+    private final int[] counts;
+    private int size = 0;
+}
@@ -0,0 +1,48 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.mapmap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.utexas.arlut.ciads.ObjectSizeFetcher;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bytes per entry of MapMap's HashMap-of-HashMaps against FlatMapMap, with
+ * a plain HashMap for reference; keys and values are excluded, so it's the
+ * structure alone. Keys are 0..n, so a MapMap of order p holds exactly p
+ * per bucket, and FlatMapMap gets n/p majors to match. Needs the size agent:
+ * java -javaagent:scratch.jar [--add-opens java.base/java.util=ALL-UNNAMED]
+ * ... FlatMapMapBench [entries [entriesPerBucket]]
+ */
+@Slf4j
+public class FlatMapMapBench {
+    public static void main(String[] args) {
+        int entries = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        int perBucket = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+
+        Integer[] keys = new Integer[entries];
+        for (int i = 0; i < entries; i++)
+            keys[i] = i;
+
+        for (int per = 1; per <= perBucket * 4; per *= 2) {
+            int buckets = Math.max(1, entries / per);
+            MapMap<Integer, Integer> mm = new MapMap<>(per);
+            FlatMapMap<Integer, Integer> fm = new FlatMapMap<>(buckets);
+            for (Integer k : keys) {
+                mm.add(k, k);
+                fm.put(k, k);
+            }
+            log.info("~{} entries/bucket: MapMap {} bytes/entry, FlatMapMap {} bytes/entry ({} of {} majors used)",
+                     per, perEntry(mm, keys), perEntry(fm, keys), fm.buckets(), fm.majors());
+        }
+        Map<Integer, Integer> hm = new HashMap<>();
+        for (Integer k : keys)
+            hm.put(k, k);
+        log.info("HashMap: {} bytes/entry", perEntry(hm, keys));
+    }
+
+    private static String perEntry(Object map, Object[] keys) {
+        return String.format("%.1f", (double)ObjectSizeFetcher.getDeepSize(map, keys) / keys.length);
+    }
+}
@@ -30,12 +30,12 @@ public class MapMap<K extends Comparable<K>, V> {
 //        hash = 6;
         Integer major = hash & ~mask;
         Integer minor = hash & mask;
-        log.info("Major {} {}", major, Integer.toBinaryString(major));
-        log.info("Minor {} {}", minor, Integer.toBinaryString(minor));
+        log.debug("Major {} {}", major, Integer.toBinaryString(major));
+        log.debug("Minor {} {}", minor, Integer.toBinaryString(minor));
 
         Map<K, V> minormap = majormap.computeIfAbsent(major, (key -> newHashMap()));
         minormap.put(k, v);
-        log.info("minormap: {}", minormap);
+        log.debug("minormap: {}", minormap);
 
     }
     public void dump() {
@@ -1,6 +1,9 @@
 // CLASSIFICATION NOTICE: This file is UNCLASSIFIED
 package edu.utexas.arlut.ciads.rev;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.Maps.newHashMap;
 
 import com.google.common.base.Joiner;
@@ -9,6 +12,8 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.util.*;
 import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -56,6 +61,10 @@ import java.util.stream.Stream;
  additional: int (for entry size) + int (for children size)
 
  Number of byte copied per iteration: logB(n) * (3B+1)p
+
+ BTree.persistent(order) does this path copying (see BTreeCopyBench to measure it). Nodes carry the
+ epoch of the tree that may write them in place; snapshot() bumps the epoch, so the next write to
+ each node copies it. A mutable BTree never bumps its epoch, and never copies.
  */
 @SuppressWarnings("unchecked")
 @Slf4j
@@ -70,11 +79,21 @@ public class BTree<K extends Comparable<K>, V> implements ITree<K, V>, Iterable<
 
     private Node<K, V> root = null;
     private int size = 0;
+    // bumped by every write that adds or drops an entry; cursors check it
+    private int modCount = 0;
+
+    // persistent mode: nodes stamped with the current epoch belong to this
+    // tree alone and are written in place; any other node may be shared
+    // with a snapshot, so a write copies it first
+    private final boolean persistent;
+    private int epoch = 0;
+    private static final AtomicInteger EPOCHS = new AtomicInteger();
 
     /**
      * Constructor for B-Tree which defaults to a 2-3 B-Tree.
      */
     public BTree() {
+        this.persistent = false;
     }
 
     /**
@@ -84,14 +103,77 @@ public class BTree<K extends Comparable<K>, V> implements ITree<K, V>, Iterable<
      * @param order of the B-Tree.
      */
     public BTree(int order) {
+        this(order, false);
+    }
+    private BTree(int order, boolean persistent) {
         this.minKeySize = order;
         this.minChildrenSize = minKeySize + 1;
         this.maxKeySize = 2 * minKeySize;
         this.maxChildrenSize = maxKeySize + 1;
+        this.persistent = persistent;
+        if (persistent)
+            this.epoch = EPOCHS.incrementAndGet();
     }
 
-    private Node<K, V> newNode(Node<K, V> parent) {
-        return new Node<K, V>(null, maxKeySize, maxChildrenSize);
+    /**
+     * A B-Tree bulk loaded from entries in ascending key order, with every
+     * node filled to maxKeySize. See load().
+     *
+     * @param order  of the B-Tree.
+     * @param sorted entries, keys strictly ascending.
+     */
+    public BTree(int order, Iterator<? extends Map.Entry<K, V>> sorted) {
+        this(order, sorted, 1.0);
+    }
+    public BTree(int order, Stream<? extends Map.Entry<K, V>> sorted) {
+        this(order, sorted.iterator(), 1.0);
+    }
+    /**
+     * @param fill fraction of maxKeySize to pack each node to; never below
+     *             the order. Leave room if random puts are to follow.
+     */
+    public BTree(int order, Iterator<? extends Map.Entry<K, V>> sorted, double fill) {
+        this(order, false);
+        load(sorted, fill);
+    }
+
+    /**
+     * A B-Tree in persistent mode: put and remove copy only the nodes on
+     * the path they change (and a sibling, when rebalancing), so
+     * snapshot() is O(1) and every snapshot stays readable.
+     *
+     * @param order of the B-Tree.
+     */
+    public static <K extends Comparable<K>, V> BTree<K, V> persistent(int order) {
+        return new BTree<>(order, true);
+    }
+    /**
+     * A persistent B-Tree bulk loaded as by BTree(order, sorted, fill).
+     */
+    public static <K extends Comparable<K>, V> BTree<K, V> persistent(int order, Iterator<? extends Map.Entry<K, V>> sorted,
+                                                                     double fill) {
+        BTree<K, V> t = new BTree<>(order, true);
+        t.load(sorted, fill);
+        return t;
+    }
+
+    /**
+     * The tree as it is now, sharing all its nodes with this one. Later
+     * writes to either tree copy a shared node before changing it, so
+     * neither sees the other's changes.
+     */
+    public BTree<K, V> snapshot() {
+        checkState(persistent, "snapshots need a persistent BTree");
+        BTree<K, V> s = new BTree<>(minKeySize, true);
+        s.root = root;
+        s.size = size;
+        // from here on, every node is shared
+        epoch = EPOCHS.incrementAndGet();
+        return s;
+    }
+
+    private Node<K, V> newNode() {
+        return new Node<K, V>(epoch, maxKeySize, maxChildrenSize);
     }
 
     /**
@@ -100,163 +182,237 @@ public class BTree<K extends Comparable<K>, V> implements ITree<K, V>, Iterable<
     @Override
     public boolean put(K key, V value) {
         if (root == null) {
-            root = newNode(null);
-            root.put(key, value);
-        } else {
-            Node<K, V> node = root;
-            while (node != null) {
-                if (node.numberOfChildren() == 0) {
-                    // mutate...
-                    node.put(key, value);
-                    if (node.numberOfKeys() <= maxKeySize) {
-                        // A-OK
-                        break;
-                    }
-                    // Need to split up
-                    split(node);
-                    break;
-                }
-                // Navigate
-
-                // Lesser or equal
-                K lesser = node.getKey(0);
-                if (key.compareTo(lesser) <= 0) {
-                    node = node.getChild(0);
-                    continue;
-                }
-
-                // Greater
-                int numberOfKeys = node.numberOfKeys();
-                int last = numberOfKeys - 1;
-                K greater = node.getKey(last);
-                if (key.compareTo(greater) > 0) {
-                    node = node.getChild(numberOfKeys);
-                    continue;
-                }
-
-                // Search internal nodes
-                for (int i = 1; i < node.numberOfKeys(); i++) {
-                    K prev = node.getKey(i - 1);
-                    K next = node.getKey(i);
-                    if (key.compareTo(prev) > 0 && key.compareTo(next) <= 0) {
-                        node = node.getChild(i);
-                        break;
-                    }
-                }
-            }
+            root = newNode();
+            root.insertEntry(0, key, value);
+            size++;
+            modCount++;
+            return true;
         }
-
+        int depth = descend(key);
+        Node<K, V> node = ownPath(depth);
+        int i = at[depth];
+        if (i >= 0) {
+            node.values[i] = value;
+            return true;
+        }
+        node.insertEntry(-(i + 1), key, value);
         size++;
-
+        modCount++;
+
+        // split back up the path while nodes overflow
+        for (int d = depth - 1; node.numberOfKeys() > maxKeySize; d--) {
+            int median = node.numberOfKeys() / 2;
+            K medianKey = node.keys[median];
+            V medianValue = node.values[median];
+            Node<K, V> right = node.splitOff(median, newNode());
+            if (d < 0) {
+                // new root, height of tree is increased
+                Node<K, V> newRoot = newNode();
+                newRoot.insertEntry(0, medianKey, medianValue);
+                newRoot.insertChild(0, node);
+                newRoot.insertChild(1, right);
+                root = newRoot;
+                break;
+            }
+            Node<K, V> parent = path[d];
+            parent.insertEntry(at[d], medianKey, medianValue);
+            parent.insertChild(at[d] + 1, right);
+            node = parent;
+        }
         return true;
     }
 
     /**
-     * The node's key size is greater than maxKeySize, split down the middle.
+     * {@inheritDoc}
      */
-    private void split(Node<K, V> nodeToSplit) {
-        log.info("Splitting {}", nodeToSplit.id);
-        Node<K, V> node = nodeToSplit;
-        int numberOfKeys = node.numberOfKeys();
-        int medianIndex = numberOfKeys / 2;
-        Map.Entry medianEntry = node.getEntry(medianIndex);
-
-        // split left
-        Node<K, V> left = newNode(null);
-        log.info("new left {}", left.id);
-        left.assignFrom(node, 0, medianIndex);
-
-        // split right
-        Node<K, V> right = newNode(null);
-        log.info("new right {}", right.id);
-        right.assignFrom(node, medianIndex + 1, numberOfKeys);
-
-//        if (node.parent == null) {
-        if (root == node) {
-            // new root, height of tree is increased
-            Node<K, V> newRoot = newNode(null);
-            newRoot.addEntry(medianEntry);
-            node.parent = newRoot;
-            root = newRoot;
-            node = root;
-            node.addChild(left);
-            node.addChild(right);
+    @Override
+    public K remove(K key) {
+        if (root == null)
+            return null;
+        int depth = descend(key);
+        if (at[depth] < 0)
+            return null;
+        Node<K, V> node = ownPath(depth);
+        int i = at[depth];
+        K removed = node.keys[i];
+        if (node.numberOfChildren() > 0) {
+            // swap in the predecessor, from the rightmost leaf on the left
+            Node<K, V> holder = node;
+            int c = i;
+            while (node.numberOfChildren() > 0) {
+                Node<K, V> child = own(node.children[c]);
+                node.children[c] = child;
+                at[depth] = c;
+                path[++depth] = child;
+                node = child;
+                c = node.numberOfChildren() - 1;
+            }
+            int last = node.numberOfKeys() - 1;
+            holder.keys[i] = node.keys[last];
+            holder.values[i] = node.values[last];
+            node.deleteEntry(last);
         } else {
-            // Move the median value up to the parent
-            Node<K, V> parent = node.parent;
-            parent.addEntry(medianEntry);
-            parent.removeChild(node);
-            parent.addChild(left);
-            parent.addChild(right);
+            node.deleteEntry(i);
+        }
+        size--;
+        modCount++;
 
-            if (parent.numberOfKeys() > maxKeySize) split(parent);
-            // mark dirty from parent up...
+        for (int d = depth - 1; d >= 0 && node.numberOfKeys() < minKeySize; d--) {
+            rebalance(path[d], at[d]);
+            node = path[d];
         }
+        if (root.numberOfKeys() == 0)
+            root = (root.numberOfChildren() > 0) ? root.children[0] : null;
+        return removed;
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public K remove(K key) {
-        K removed = null;
-        Node<K, V> node = this.getNode(key);
-        removed = remove(key, node);
-        return removed;
+    // =================================
+    // The write path never needs parent pointers, so any node can be shared
+    // between trees. descend() records the way down in path & at, which are
+    // allocated once per tree and reused by every write; ownPath() then makes
+    // the nodes on it writable - copying those this epoch doesn't own, which
+    // in a mutable tree is none of them.
+
+    // every node but the root has at least 2 children, so 2^31 entries
+    // stand at most 32 deep
+    private static final int HEIGHT_MAX = 33;
+    private Node<K, V>[] path;
+    // at[d] is the child taken below path[d]; at the bottom, key's index
+    // there, as from binarySearch
+    private int[] at;
+
+    // root to the node holding key, or the leaf where it would go; returns
+    // the depth of that last node
+    private int descend(K key) {
+        if (path == null) {
+            // a snapshot that's never written to never pays for these
+            path = new Node[HEIGHT_MAX];
+            at = new int[HEIGHT_MAX];
+        }
+        Node<K, V> node = root;
+        for (int depth = 0; ; depth++) {
+            int i = node.indexOf(key);
+            path[depth] = node;
+            if (i >= 0 || node.numberOfChildren() == 0) {
+                at[depth] = i;
+                return depth;
+            }
+            at[depth] = -(i + 1);
+            node = node.children[-(i + 1)];
+        }
     }
 
-    /**
-     * Remove the value from the Node and check invariants
-     *
-     * @param key  K to remove from the tree
-     * @param node Node to remove value from
-     * @return True if value was removed from the tree.
-     */
-    private K remove(K key, Node<K, V> node) {
-        if (node == null) return null;
-
-        K removed = null;
-        int index = node.indexOf(key);
-        removed = node.removeKey(key);
-        if (node.numberOfChildren() == 0) {
-            // leaf node
-            if (node.parent != null && node.numberOfKeys() < minKeySize) {
-                this.combined(node);
-            } else if (node.parent == null && node.numberOfKeys() == 0) {
-                // Removing root node with no keys or children
-                root = null;
+    // make path[0..depth] writable, relinking any copies; returns path[depth]
+    private Node<K, V> ownPath(int depth) {
+        root = path[0] = own(path[0]);
+        for (int d = 1; d <= depth; d++)
+            path[d - 1].children[at[d - 1]] = path[d] = own(path[d]);
+        return path[depth];
+    }
+
+    private Node<K, V> own(Node<K, V> node) {
+        return (node.epoch == epoch) ? node : new Node<>(node, epoch);
+    }
+
+    // =================================
+    // Bulk load, bottom up in one pass: no descents & no splits. Each level
+    // keeps one open node, the rightmost. Entries fill the open leaf to the
+    // target; the entry after a full node becomes its separator, which goes
+    // up a level along with the node, & a fresh node opens in its place.
+    // Every node closes with exactly target keys; the last ones, down the
+    // right spine, are left open & topped up from their left siblings at
+    // the end.
+    private void load(Iterator<? extends Map.Entry<K, V>> sorted, double fill) {
+        checkNotNull(sorted);
+        checkArgument(fill > 0 && fill <= 1, "fill out of range: %s", fill);
+        int target = Math.max(minKeySize, Math.min(maxKeySize, (int)Math.round(fill * maxKeySize)));
+        Node<K, V>[] open = new Node[HEIGHT_MAX];
+        int height = 0;
+        K prev = null;
+        while (sorted.hasNext()) {
+            Map.Entry<K, V> e = sorted.next();
+            K key = checkNotNull(e.getKey());
+            checkArgument(prev == null || prev.compareTo(key) < 0, "keys out of order: %s, %s", prev, key);
+            prev = key;
+            size++;
+            if (open[0] == null) {
+                open[0] = newNode();
+                height = 1;
             }
-        } else {
-            // internal node
-            Node<K, V> lesser = node.getChild(index);
-            Node<K, V> greatest = this.getGreatestNode(lesser);
-            Map.Entry<K, V> replaceEntry = this.removeGreatestEntry(greatest);
-            node.addEntry(replaceEntry);
-            if (greatest.parent != null && greatest.numberOfKeys() < minKeySize) {
-                this.combined(greatest);
+            // climb past full nodes, closing each into the level above
+            int h = 0;
+            while (open[h].numberOfKeys() == target) {
+                if (open[h + 1] == null) {
+                    open[h + 1] = newNode();
+                    height = h + 2;
+                }
+                open[h + 1].insertChild(open[h + 1].numberOfChildren(), open[h]);
+                open[h] = newNode();
+                h++;
             }
-            if (greatest.numberOfChildren() > maxChildrenSize) {
-                this.split(greatest);
+            // the open nodes below h are empty; each gets its first child
+            // when the one below it closes
+            open[h].insertEntry(open[h].numberOfKeys(), key, e.getValue());
+        }
+        if (height == 0)
+            return;
+        // close the right spine
+        for (int h = 1; h < height; h++)
+            open[h].insertChild(open[h].numberOfChildren(), open[h - 1]);
+        root = open[height - 1];
+        // top up the spine, top down, so each parent has a key (and so a
+        // left sibling for its last child) before its children borrow. A
+        // merge takes a key from the parent, so go round again until none
+        // is needed; with fill at 1, borrowing always suffices.
+        for (boolean again = true; again; ) {
+            again = false;
+            while (root.numberOfKeys() == 0 && root.numberOfChildren() > 0)
+                root = open[--height - 1];
+            for (int h = height - 1; h > 0; h--) {
+                Node<K, V> parent = open[h];
+                while (parent.getChild(parent.numberOfChildren() - 1).numberOfKeys() < minKeySize) {
+                    rebalance(parent, parent.numberOfChildren() - 1);
+                    again = true;
+                }
             }
         }
-
-        size--;
-
-        return removed;
     }
 
-    /**
-     * Remove greatest valued key from node.
-     *
-     * @param node to remove greatest value from.
-     * @return value removed;
-     */
-    private Map.Entry<K, V> removeGreatestEntry(Node<K, V> node) {
-        Map.Entry<K, V> value = null;
-        if (node.numberOfKeys() > 0) {
-            value = node.removeEntry(node.numberOfKeys() - 1);
+    // child i of parent is short a key: rotate one in from a sibling that
+    // can spare it, or else merge with a sibling. Both are copied if they
+    // change; a merge folds the sibling into the (already owned) child.
+    private void rebalance(Node<K, V> parent, int i) {
+        Node<K, V> node = parent.children[i];
+        Node<K, V> left = (i > 0) ? parent.children[i - 1] : null;
+        Node<K, V> right = (i < parent.numberOfKeys()) ? parent.children[i + 1] : null;
+        if (left != null && left.numberOfKeys() > minKeySize) {
+            left = own(left);
+            parent.children[i - 1] = left;
+            int last = left.numberOfKeys() - 1;
+            node.insertEntry(0, parent.keys[i - 1], parent.values[i - 1]);
+            parent.keys[i - 1] = left.keys[last];
+            parent.values[i - 1] = left.values[last];
+            left.deleteEntry(last);
+            if (left.numberOfChildren() > 0)
+                node.insertChild(0, left.deleteChild(left.numberOfChildren() - 1));
+        } else if (right != null && right.numberOfKeys() > minKeySize) {
+            right = own(right);
+            parent.children[i + 1] = right;
+            node.insertEntry(node.numberOfKeys(), parent.keys[i], parent.values[i]);
+            parent.keys[i] = right.keys[0];
+            parent.values[i] = right.values[0];
+            right.deleteEntry(0);
+            if (right.numberOfChildren() > 0)
+                node.insertChild(node.numberOfChildren(), right.deleteChild(0));
+        } else if (left != null) {
+            node.absorb(left, parent.keys[i - 1], parent.values[i - 1], true);
+            parent.deleteEntry(i - 1);
+            parent.deleteChild(i - 1);
+        } else {
+            node.absorb(right, parent.keys[i], parent.values[i], false);
+            parent.deleteEntry(i);
+            parent.deleteChild(i + 1);
         }
-        return value;
     }
 
     /**
@@ -266,6 +422,7 @@ public class BTree<K extends Comparable<K>, V> implements ITree<K, V>, Iterable<
     public void clear() {
         root = null;
         size = 0;
+        modCount++;
     }
 
     /**
@@ -273,7 +430,7 @@ public class BTree<K extends Comparable<K>, V> implements ITree<K, V>, Iterable<
      */
     public V get(K key) {
         Node<K, V> node = getNode(key);
-        return node.getValue(key);
+        return (node == null) ? null : node.getValue(key);
     }
     @Override
     public boolean contains(K key) {
@@ -281,225 +438,65 @@ public class BTree<K extends Comparable<K>, V> implements ITree<K, V>, Iterable<
         return (node != null);
     }
 
-    private Comparator<Node<K, V>> C = new Comparator<Node<K, V>>() {
-        @Override
-        public int compare(Node<K, V> kvNode, Node<K, V> t1) {
-            return 0;
-        }
-    };
-
-    private Node<K, V> getNode(Node<K, V> start, K key) {
-        int i = start.find(key);
-//        K[] keys = (K[])new Comparable[start.keysSize];
-//        Arrays.setAll(keys, i->start.entries[i].getKey());
-//        Arrays.binarySearch(start.entries, 0, start.keysSize, key);
-        return null;
-    }
-    private Comparator<Node<K, V>> C2 = (arg0, arg1) -> arg0.getKey(0).compareTo(arg1.getKey(0));
-
-
     /**
-     * Get the node with key.
-     *
-     * @param key to find in the tree.
-     * @return Node<K, V> with value.
+     * @return the entry with the greatest key less than or equal to key, or
+     * null if there's none; one descent.
      */
-    private Node<K, V> getNode(K key) {
-        Node<K, V> node = root;
-        while (node != null) {
-            K lesser = node.getKey(0);
-            if (key.compareTo(lesser) < 0) {
-                if (node.numberOfChildren() > 0)
-                    node = node.getChild(0);
-                else
-                    node = null;
-                continue;
-            }
-
-            int numberOfKeys = node.numberOfKeys();
-            int last = numberOfKeys - 1;
-            K greater = node.getKey(last);
-            if (key.compareTo(greater) > 0) {
-                if (node.numberOfChildren() > numberOfKeys)
-                    node = node.getChild(numberOfKeys);
-                else
-                    node = null;
-                continue;
-            }
-
-            for (int i = 0; i < numberOfKeys; i++) {
-                K currentValue = node.getKey(i);
-                if (currentValue.compareTo(key) == 0) {
-                    return node;
-                }
-
-                int next = i + 1;
-                if (next <= last) {
-                    K nextValue = node.getKey(next);
-                    if (currentValue.compareTo(key) < 0 && nextValue.compareTo(key) > 0) {
-                        if (next < node.numberOfChildren()) {
-                            node = node.getChild(next);
-                            break;
-                        }
-                        return null;
-                    }
-                }
+    public Map.Entry<K, V> floor(K key) {
+        checkNotNull(key);
+        Node<K, V> best = null;
+        int at = 0;
+        for (Node<K, V> node = root; node != null; ) {
+            int i = node.indexOf(key);
+            if (i >= 0)
+                return node.getEntry(i);
+            i = -(i + 1);
+            if (i > 0) {
+                best = node;
+                at = i - 1;
             }
+            node = node.getChild(i);
         }
-        return null;
-    }
-
-    /**
-     * Get the greatest valued child from node.
-     *
-     * @param nodeToGet child with the greatest value.
-     * @return Node<K, V> child with greatest value.
-     */
-    private Node<K, V> getGreatestNode(Node<K, V> nodeToGet) {
-        Node<K, V> node = nodeToGet;
-        while (node.numberOfChildren() > 0) {
-            node = node.getChild(node.numberOfChildren() - 1);
-        }
-        return node;
+        return (best == null) ? null : best.getEntry(at);
     }
 
     /**
-     * Combined children keys with parent when size is less than minKeySize.
-     *
-     * @param node with children to combined.
-     * @return True if combined successfully.
+     * @return the entry with the least key greater than or equal to key, or
+     * null if there's none; one descent.
      */
-    private boolean combined(Node<K, V> node) {
-        Node<K, V> parent = node.parent;
-        int index = parent.indexOf(node);
-        int indexOfLeftNeighbor = index - 1;
-        int indexOfRightNeighbor = index + 1;
-
-        Node<K, V> rightNeighbor = null;
-        int rightNeighborSize = -minChildrenSize;
-        if (indexOfRightNeighbor < parent.numberOfChildren()) {
-            rightNeighbor = parent.getChild(indexOfRightNeighbor);
-            rightNeighborSize = rightNeighbor.numberOfKeys();
-        }
-
-        // Try to borrow neighbor
-        if (rightNeighbor != null && rightNeighborSize > minKeySize) {
-            // Try to borrow from right neighbor
-            K removeValue = rightNeighbor.getKey(0);
-            int prev = getIndexOfPreviousValue(parent, removeValue);
-            Map.Entry<K, V> parentEntry = parent.removeEntry(prev);
-            Map.Entry<K, V> neighborEntry = rightNeighbor.removeEntry(prev);
-            node.addEntry(parentEntry);
-            parent.addEntry(neighborEntry);
-            if (rightNeighbor.numberOfChildren() > 0) {
-                node.addChild(rightNeighbor.removeChild(0));
-            }
-        } else {
-            Node<K, V> leftNeighbor = null;
-            int leftNeighborSize = -minChildrenSize;
-            if (indexOfLeftNeighbor >= 0) {
-                leftNeighbor = parent.getChild(indexOfLeftNeighbor);
-                leftNeighborSize = leftNeighbor.numberOfKeys();
-            }
-
-            if (leftNeighbor != null && leftNeighborSize > minKeySize) {
-                // Try to borrow from left neighbor
-                K removeValue = leftNeighbor.getKey(leftNeighbor.numberOfKeys() - 1);
-                int prev = getIndexOfNextValue(parent, removeValue);
-                Map.Entry<K, V> parentEntry = parent.removeEntry(prev);
-                Map.Entry<K, V> neighborEntry = leftNeighbor.removeEntry(leftNeighbor.numberOfKeys() - 1);
-                node.addEntry(parentEntry);
-                parent.addEntry(neighborEntry);
-                if (leftNeighbor.numberOfChildren() > 0) {
-                    node.addChild(leftNeighbor.removeChild(leftNeighbor.numberOfChildren() - 1));
-                }
-            } else if (rightNeighbor != null && parent.numberOfKeys() > 0) {
-                // Can't borrow from neighbors, try to combined with right neighbor
-                K removeValue = rightNeighbor.getKey(0);
-                int prev = getIndexOfPreviousValue(parent, removeValue);
-
-                Map.Entry<K, V> parentEntry = parent.removeEntry(prev);
-                parent.removeChild(rightNeighbor);
-                node.addEntry(parentEntry);
-                for (int i = 0; i < rightNeighbor.keysSize; i++) {
-                    Map.Entry<K, V> e = rightNeighbor.getEntry(i);
-                    node.addEntry(e);
-                }
-                for (int i = 0; i < rightNeighbor.childrenSize; i++) {
-                    Node<K, V> c = rightNeighbor.getChild(i);
-                    node.addChild(c);
-                }
-
-                if (parent.parent != null && parent.numberOfKeys() < minKeySize) {
-                    // removing key made parent too small, combined up tree
-                    this.combined(parent);
-                } else if (parent.numberOfKeys() == 0) {
-                    // parent no longer has keys, make this node the new root
-                    // which decreases the height of the tree
-                    node.parent = null;
-                    root = node;
-                }
-            } else if (leftNeighbor != null && parent.numberOfKeys() > 0) {
-                // Can't borrow from neighbors, try to combined with left neighbor
-                K removeValue = leftNeighbor.getKey(leftNeighbor.numberOfKeys() - 1);
-                int prev = getIndexOfNextValue(parent, removeValue);
-                Map.Entry<K, V> parentEntry = parent.removeEntry(prev);
-                parent.removeChild(leftNeighbor);
-                node.addEntry(parentEntry);
-                for (int i = 0; i < leftNeighbor.keysSize; i++) {
-                    Map.Entry<K, V> e = leftNeighbor.getEntry(i);
-                    node.addEntry(e);
-                }
-                for (int i = 0; i < leftNeighbor.childrenSize; i++) {
-                    Node<K, V> c = leftNeighbor.getChild(i);
-                    node.addChild(c);
-                }
-
-                if (parent.parent != null && parent.numberOfKeys() < minKeySize) {
-                    // removing key made parent too small, combined up tree
-                    this.combined(parent);
-                } else if (parent.numberOfKeys() == 0) {
-                    // parent no longer has keys, make this node the new root
-                    // which decreases the height of the tree
-                    node.parent = null;
-                    root = node;
-                }
+    public Map.Entry<K, V> ceiling(K key) {
+        checkNotNull(key);
+        Node<K, V> best = null;
+        int at = 0;
+        for (Node<K, V> node = root; node != null; ) {
+            int i = node.indexOf(key);
+            if (i >= 0)
+                return node.getEntry(i);
+            i = -(i + 1);
+            if (i < node.numberOfKeys()) {
+                best = node;
+                at = i;
             }
+            node = node.getChild(i);
         }
-
-        return true;
-    }
-
-    /**
-     * Get the index of previous key in node.
-     *
-     * @param node  to find the previous key in.
-     * @param value to find a previous value for.
-     * @return index of previous key or -1 if not found.
-     */
-    private int getIndexOfPreviousValue(Node<K, V> node, K value) {
-        for (int i = 1; i < node.numberOfKeys(); i++) {
-            K k = node.getKey(i);
-            if (k.compareTo(value) >= 0)
-                return i - 1;
-        }
-        return node.numberOfKeys() - 1;
+        return (best == null) ? null : best.getEntry(at);
     }
 
     /**
-     * Get the index of next key in node.
+     * Get the node with key.
      *
-     * @param node  to find the next key in.
-     * @param value to find a next value for.
-     * @return index of next key or -1 if not found.
+     * @param key to find in the tree.
+     * @return Node<K, V> with value.
      */
-    private int getIndexOfNextValue(Node<K, V> node, K value) {
-        for (int i = 0; i < node.numberOfKeys(); i++) {
-            K k = node.getKey(i);
-            if (k.compareTo(value) >= 0)
-                return i;
+    private Node<K, V> getNode(K key) {
+        Node<K, V> node = root;
+        while (node != null) {
+            int i = node.indexOf(key);
+            if (i >= 0)
+                return node;
+            node = node.getChild(-(i + 1));
         }
-        return node.numberOfKeys() - 1;
+        return null;
     }
 
     /**
@@ -516,7 +513,23 @@ public class BTree<K extends Comparable<K>, V> implements ITree<K, V>, Iterable<
     @Override
     public boolean validate() {
         if (root == null) return true;
-        return validateNode(root);
+        int height = 1;
+        for (Node<K, V> n = root; n.numberOfChildren() > 0; n = n.getChild(0))
+            height++;
+        return validateNode(root) && leavesAt(root, height);
+    }
+
+    /**
+     * @return True if every leaf under node is height levels down, counting
+     * node as 1.
+     */
+    private boolean leavesAt(Node<K, V> node, int height) {
+        if (node.numberOfChildren() == 0)
+            return height == 1;
+        for (int i = 0; i < node.numberOfChildren(); i++)
+            if (!leavesAt(node.getChild(i), height - 1))
+                return false;
+        return true;
     }
 
     /**
@@ -526,6 +539,9 @@ public class BTree<K extends Comparable<K>, V> implements ITree<K, V>, Iterable<
      * @return True if valid.
      */
     private boolean validateNode(Node<K, V> node) {
+        return validateNode(node, node == root);
+    }
+    private boolean validateNode(Node<K, V> node, boolean isRoot) {
         int keySize = node.numberOfKeys();
         if (keySize > 1) {
             // Make sure the keys are sorted
@@ -537,7 +553,7 @@ public class BTree<K extends Comparable<K>, V> implements ITree<K, V>, Iterable<
             }
         }
         int childrenSize = node.numberOfChildren();
-        if (node.parent == null) {
+        if (isRoot) {
             // root
             if (keySize > maxKeySize) {
                 // check max key size. root does not have a min key size
@@ -593,7 +609,7 @@ public class BTree<K extends Comparable<K>, V> implements ITree<K, V>, Iterable<
 
         for (int i = 0; i < node.childrenSize; i++) {
             Node<K, V> c = node.getChild(i);
-            boolean valid = this.validateNode(c);
+            boolean valid = this.validateNode(c, false);
             if (!valid)
                 return false;
         }
@@ -619,16 +635,13 @@ public class BTree<K extends Comparable<K>, V> implements ITree<K, V>, Iterable<
 
         private Node<T, U>[] children = null;
         private int childrenSize = 0;
-        private boolean dirty = true;
+        // the writer epoch that owns this node
+        private int epoch = 0;
 
-        private Comparator<Node<T, U>> comparator = (arg0, arg1) -> arg0.getKey(0).compareTo(arg1.getKey(0));
-
-        protected Node<T, U> parent = null;
-
-        private Node(Node<T, U> parent, int maxKeySize, int maxChildSize) {
+        private Node(int epoch, int maxKeySize, int maxChildSize) {
             id = ID++;
 //            log.info("new node {}", id);
-            this.parent = parent;
+            this.epoch = epoch;
             this.keysSize = 0;
             this.keys = (T[])new Comparable[maxKeySize + 1];
             this.values = (U[])new Object[maxKeySize + 1];
@@ -638,13 +651,15 @@ public class BTree<K extends Comparable<K>, V> implements ITree<K, V>, Iterable<
         }
 
 
-        private int find(T key) {
-            return Arrays.binarySearch(keys, 0, keysSize, key, null);
-//            for (int i=0; i<keysSize; i++) {
-//                if (getKey(i).equals(key))
-//                    return i;
-//            }
-//            return -1;
+        // a private, writable copy of from
+        private Node(Node<T, U> from, int epoch) {
+            id = ID++;
+            this.epoch = epoch;
+            this.keysSize = from.keysSize;
+            this.keys = from.keys.clone();
+            this.values = from.values.clone();
+            this.children = from.children.clone();
+            this.childrenSize = from.childrenSize;
         }
 
         private Map.Entry<T, U> getEntry(int i) {
@@ -682,163 +697,85 @@ public class BTree<K extends Comparable<K>, V> implements ITree<K, V>, Iterable<
 //            return -1;
         }
 
-        private Node<T, U> put(T key, U value) {
-            // make dirty copy
-            // if contains key
-            //    replace entry
-            // else
-            int i = indexOf(key);
-            if (i < 0) {
-                i = -(i + 1);
-                log.info("Not contained {}:{}, entry point {}", key, value, i);
-                // move over
-                for (int k = keysSize - 1; k >= i; k--) {
-                    keys[k + 1] = keys[k];
-                    values[k + 1] = values[k];
-                }
-                keys[i] = key;
-                values[i] = value;
-                keysSize++;
-            } else { // already has, replace
-                // mark dirty
-                values[i] = value;
-            }
-            log.info("put {}=>{}", key, value);
-//            addEntry(new SimpleImmutableEntry<>(key, value));
-            return this;
-        }
-        private void assignFrom(Node<T, U> from, int start, int end) {
-            for (int i = start; i < end; i++) {
-                keys[keysSize] = from.keys[i];
-                values[keysSize] = from.values[i];
-                keysSize++;
-//                entries[keysSize++] = from.entries[i];
-            }
-//            Arrays.sort(entries, 0, keysSize, Map.Entry.comparingByKey());
-
-            if (numberOfChildren() > 0) {
-                for (int j = start; j <= end; j++) {
-                    Node<T, U> c = getChild(j);
-                    addChild(c);
-                }
-            }
+        private int numberOfKeys() {
+            return keysSize;
         }
-        private Node<T, U> addEntry(Map.Entry<T, U> e) {
-            log.info("addEntry {}", e);
-//            keys[keysSize] = e.getKey();
-//            values[keysSize] = e.getValue();
-            put(e.getKey(), e.getValue());
-//            entries[keysSize++] = e;
-//            Arrays.sort(entries, 0, keysSize, Map.Entry.comparingByKey());
-            return this;
-        }
-        private T removeKey(T key) {
-            T removed = null;
-            boolean found = false;
-            if (keysSize == 0) return null;
-            int idx = find(key);
-            if (idx >= 0) {
-                log.info("remove {}=>{}", key, values[idx]);
-
-                removed = keys[idx];
-                for (int k = idx; k < keysSize - 1; k++) {
-                    keys[k] = keys[k + 1];
-                    values[k] = values[k + 1];
-                }
-                keysSize--;
-                keys[keysSize] = null;
-                values[keysSize] = null;
-            }
 
-//            for (int i = 0; i < keysSize; i++) {
-//                if (entries[i].getKey().equals(key)) {
-//                    found = true;
-//                    removed = entries[i].getKey();
-//                } else if (found) {
-//                    // TODO: System.arraycopy();
-//                    // shift the rest of the keys down
-//                    entries[i - 1] = entries[i];
-//                }
-//            }
-//            if (found) {
-//                keysSize--;
-//                entries[keysSize] = null;
-//            }
-            return removed;
+        // positional edits for the write path
+        private void insertEntry(int i, T key, U value) {
+            System.arraycopy(keys, i, keys, i + 1, keysSize - i);
+            System.arraycopy(values, i, values, i + 1, keysSize - i);
+            keys[i] = key;
+            values[i] = value;
+            keysSize++;
         }
-        private Map.Entry<T, U> removeEntry(int index) {
-            if (index >= keysSize)
-                return null;
-//            Map.Entry<T, U> removed = entries[index];
-            Map.Entry<T, U> removed = new AbstractMap.SimpleImmutableEntry(keys[index], values[index]);
-            // shift the rest of the keys down
-            for (int i = index + 1; i < keysSize; i++) {
-//                entries[i - 1] = entries[i];
-                keys[i - 1] = keys[i];
-                values[i - 1] = values[i];
-            }
+        private void deleteEntry(int i) {
+            System.arraycopy(keys, i + 1, keys, i, keysSize - i - 1);
+            System.arraycopy(values, i + 1, values, i, keysSize - i - 1);
             keysSize--;
             keys[keysSize] = null;
             values[keysSize] = null;
-            return removed;
         }
-
-        private int numberOfKeys() {
-            return keysSize;
+        private void insertChild(int i, Node<T, U> child) {
+            System.arraycopy(children, i, children, i + 1, childrenSize - i);
+            children[i] = child;
+            childrenSize++;
         }
-        // =================================
-        private Node<T, U> getChild(int index) {
-            if (index >= childrenSize)
-                return null;
-            return children[index];
+        private Node<T, U> deleteChild(int i) {
+            Node<T, U> c = children[i];
+            System.arraycopy(children, i + 1, children, i, childrenSize - i - 1);
+            childrenSize--;
+            children[childrenSize] = null;
+            return c;
         }
-
-        private int indexOf(Node<T, U> child) {
-            for (int i = 0; i < childrenSize; i++) {
-                if (children[i].equals(child))
-                    return i;
+        // move the entries after median, & the children right of it, into
+        // right; the median entry itself is left for the caller to push up
+        private Node<T, U> splitOff(int median, Node<T, U> right) {
+            int n = keysSize - median - 1;
+            System.arraycopy(keys, median + 1, right.keys, 0, n);
+            System.arraycopy(values, median + 1, right.values, 0, n);
+            right.keysSize = n;
+            Arrays.fill(keys, median, keysSize, null);
+            Arrays.fill(values, median, keysSize, null);
+            keysSize = median;
+            if (childrenSize > 0) {
+                int c = childrenSize - (median + 1);
+                System.arraycopy(children, median + 1, right.children, 0, c);
+                right.childrenSize = c;
+                Arrays.fill(children, median + 1, childrenSize, null);
+                childrenSize = median + 1;
             }
-            return -1;
-        }
-
-        private boolean addChild(Node<T, U> child) {
-            child.parent = this;
-            children[childrenSize++] = child;
-            Arrays.sort(children, 0, childrenSize, comparator);
-            return true;
+            return right;
         }
-
-        private boolean removeChild(Node<T, U> child) {
-            boolean found = false;
-            if (childrenSize == 0)
-                return found;
-            for (int i = 0; i < childrenSize; i++) {
-                if (children[i].equals(child)) {
-                    found = true;
-                } else if (found) {
-                    // shift the rest of the keys down
-                    children[i - 1] = children[i];
-                }
+        // merge sibling & the separator between them into this node; sibling
+        // is only read, so it may be shared
+        private void absorb(Node<T, U> sibling, T key, U value, boolean fromLeft) {
+            int n = sibling.keysSize;
+            int c = sibling.childrenSize;
+            if (fromLeft) {
+                System.arraycopy(keys, 0, keys, n + 1, keysSize);
+                System.arraycopy(values, 0, values, n + 1, keysSize);
+                System.arraycopy(sibling.keys, 0, keys, 0, n);
+                System.arraycopy(sibling.values, 0, values, 0, n);
+                keys[n] = key;
+                values[n] = value;
+                System.arraycopy(children, 0, children, c, childrenSize);
+                System.arraycopy(sibling.children, 0, children, 0, c);
+            } else {
+                keys[keysSize] = key;
+                values[keysSize] = value;
+                System.arraycopy(sibling.keys, 0, keys, keysSize + 1, n);
+                System.arraycopy(sibling.values, 0, values, keysSize + 1, n);
+                System.arraycopy(sibling.children, 0, children, childrenSize, c);
             }
-            if (found) {
-                childrenSize--;
-                children[childrenSize] = null;
-            }
-            return found;
+            keysSize += n + 1;
+            childrenSize += c;
         }
-
-        private Node<T, U> removeChild(int index) {
+        // =================================
+        private Node<T, U> getChild(int index) {
             if (index >= childrenSize)
                 return null;
-            Node<T, U> value = children[index];
-            children[index] = null;
-            for (int i = index + 1; i < childrenSize; i++) {
-                // shift the rest of the keys down
-                children[i - 1] = children[i];
-            }
-            childrenSize--;
-            children[childrenSize] = null;
-            return value;
+            return children[index];
         }
 
         private int numberOfChildren() {
@@ -865,10 +802,6 @@ public class BTree<K extends Comparable<K>, V> implements ITree<K, V>, Iterable<
                    .append("entries=[").append(kvString())
                    .append("]\n");
 
-            if (parent != null) {
-                builder.append("parent=[").append(parent.kvString()).append("]\n");
-            }
-
             if (children != null) {
                 builder.append("keySize=").append(numberOfKeys()).append(" children=").append(numberOfChildren()).append("\n");
             }
@@ -881,10 +814,12 @@ public class BTree<K extends Comparable<K>, V> implements ITree<K, V>, Iterable<
 
         public static <K extends Comparable<K>, V> String getString(BTree<K, V> tree) {
             if (tree.root == null) return "Tree has no nodes.";
-            return getString(tree.root, "", true);
+            return getString(tree.root, tree.epoch, "", true);
         }
 
-        private static <T extends Comparable<T>, U> String getString(Node<T, U> node, String prefix, boolean isTail) {
+        // nodes the tree's current epoch owns are marked X: in persistent mode,
+        // the ones no snapshot shares
+        private static <T extends Comparable<T>, U> String getString(Node<T, U> node, int epoch, String prefix, boolean isTail) {
             StringBuilder builder = new StringBuilder();
 
             builder.append(prefix).append((isTail ? "└── " : "├── "));
@@ -896,16 +831,16 @@ public class BTree<K extends Comparable<K>, V> implements ITree<K, V>, Iterable<
             builder.append(s);
 
 
-            builder.append(" (" + node.id + (node.dirty ? "X" : "") + ")\n");
+            builder.append(" (" + node.id + (node.epoch == epoch ? "X" : "") + ")\n");
 
             if (node.children != null) {
                 for (int i = 0; i < node.numberOfChildren() - 1; i++) {
                     Node<T, U> obj = node.getChild(i);
-                    builder.append(getString(obj, prefix + (isTail ? "    " : "│   "), false));
+                    builder.append(getString(obj, epoch, prefix + (isTail ? "    " : "│   "), false));
                 }
                 if (node.numberOfChildren() >= 1) {
                     Node<T, U> obj = node.getChild(node.numberOfChildren() - 1);
-                    builder.append(getString(obj, prefix + (isTail ? "    " : "│   "), true));
+                    builder.append(getString(obj, epoch, prefix + (isTail ? "    " : "│   "), true));
                 }
             }
 
@@ -917,78 +852,234 @@ public class BTree<K extends Comparable<K>, V> implements ITree<K, V>, Iterable<
         return Streams.stream(this);
     }
 
+    /**
+     * In key order. The entries returned are copies; cursor() walks the
+     * same entries without allocating.
+     */
     public Iterator<Map.Entry<K, V>> iterator() {
-        return new BTreeIterator<>(this);
+        return new BTreeIterator<>(new Cursor<>(this, null, false, null, false));
     }
 
-    private static class BTreeIterator<K extends Comparable<K>, V> implements Iterator<Map.Entry<K, V>> {
+    /**
+     * A cursor over the whole tree, in key order.
+     */
+    public Cursor<K, V> cursor() {
+        return new Cursor<>(this, null, false, null, false);
+    }
 
-        private BTree<K, V> tree = null;
-        private Node<K, V> lastNode = null;
-        private Map.Entry<K, V> lastValue = null;
-        private int index = 0;
-        private Deque<Node<K, V>> toVisit = new ArrayDeque<>();
+    // =================================
+    // ranges, in the SortedMap/NavigableMap sense: from inclusive & to
+    // exclusive unless said otherwise
 
-        protected BTreeIterator(BTree<K, V> tree) {
+    public Range<K, V> subMap(K from, K to) {
+        return subMap(from, true, to, false);
+    }
+    public Range<K, V> subMap(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        checkNotNull(from);
+        checkNotNull(to);
+        checkArgument(from.compareTo(to) <= 0, "from %s > to %s", from, to);
+        return new Range<>(this, from, fromInclusive, to, toInclusive);
+    }
+    public Range<K, V> headMap(K to) {
+        return headMap(to, false);
+    }
+    public Range<K, V> headMap(K to, boolean inclusive) {
+        return new Range<>(this, null, false, checkNotNull(to), inclusive);
+    }
+    public Range<K, V> tailMap(K from) {
+        return tailMap(from, true);
+    }
+    public Range<K, V> tailMap(K from, boolean inclusive) {
+        return new Range<>(this, checkNotNull(from), inclusive, null, false);
+    }
+
+    /**
+     * A key range of the tree: a view, read through to the tree each time
+     * it's walked. Null bounds are open.
+     */
+    public static final class Range<K extends Comparable<K>, V> implements Iterable<Map.Entry<K, V>> {
+        private final BTree<K, V> tree;
+        private final K from;
+        private final boolean fromInclusive;
+        private final K to;
+        private final boolean toInclusive;
+
+        private Range(BTree<K, V> tree, K from, boolean fromInclusive, K to, boolean toInclusive) {
             this.tree = tree;
-            if (tree.root != null && tree.root.keysSize > 0) {
-                toVisit.add(tree.root);
-            }
+            this.from = from;
+            this.fromInclusive = fromInclusive;
+            this.to = to;
+            this.toInclusive = toInclusive;
         }
 
-        /**
-         * {@inheritDoc}
-         */
+        public Cursor<K, V> cursor() {
+            return new Cursor<>(tree, from, fromInclusive, to, toInclusive);
+        }
         @Override
-        public boolean hasNext() {
-            if ((lastNode != null && index < lastNode.keysSize) || (toVisit.size() > 0)) return true;
-            return false;
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new BTreeIterator<>(cursor());
+        }
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            checkNotNull(action);
+            for (Cursor<K, V> c = cursor(); c.advance(); )
+                action.accept(c.key(), c.value());
+        }
+        public Stream<Map.Entry<K, V>> stream() {
+            return Streams.stream(this);
+        }
+    }
+
+    /**
+     * A forward walk over a key range that allocates nothing per entry: the
+     * first advance() moves onto the first entry, each later one to the
+     * next, and key() & value() read where it stands.
+     * <pre>
+     *     for (BTree.Cursor&lt;K, V&gt; c = tree.cursor(); c.advance(); )
+     *         use(c.key(), c.value());
+     * </pre>
+     * It starts with one descent, to the low bound, and keeps the path down
+     * to where it stands. Any write that adds or removes an entry fails it
+     * with ConcurrentModificationException.
+     */
+    public static final class Cursor<K extends Comparable<K>, V> {
+        private final BTree<K, V> tree;
+        private final int expectedModCount;
+        private final K to;
+        private final boolean toInclusive;
+        // path to the current entry, nodes[top].keys[at[top]]; above top,
+        // at[d] is the child taken, so keys[at[d]] comes once it's done
+        private final Node<K, V>[] nodes = new Node[HEIGHT_MAX];
+        private final int[] at = new int[HEIGHT_MAX];
+        private int top = -1;
+        private boolean started = false;
+
+        private Cursor(BTree<K, V> tree, K from, boolean fromInclusive, K to, boolean toInclusive) {
+            this.tree = tree;
+            this.expectedModCount = tree.modCount;
+            this.to = to;
+            this.toInclusive = toInclusive;
+            if (tree.root == null)
+                return;
+            if (from == null) {
+                descendLeftmost(tree.root);
+                return;
+            }
+            for (Node<K, V> node = tree.root; ; ) {
+                int i = node.indexOf(from);
+                nodes[++top] = node;
+                if (i >= 0) {
+                    at[top] = i;
+                    if (!fromInclusive)
+                        step();
+                    return;
+                }
+                i = -(i + 1);
+                at[top] = i;
+                if (node.numberOfChildren() == 0) {
+                    settle();
+                    return;
+                }
+                node = node.getChild(i);
+            }
         }
 
         /**
-         * {@inheritDoc}
+         * @return True if the cursor is on an entry, false once it has run
+         * off the end of its range.
          */
-        @Override
-        public Map.Entry<K, V> next() {
-            if (lastNode != null && (index < lastNode.keysSize)) {
-                lastValue = lastNode.getEntry(index++);
-                return lastValue;
+        public boolean advance() {
+            if (tree.modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (top < 0 && started)
+                return false;
+            if (started)
+                step();
+            started = true;
+            if (top >= 0 && to != null) {
+                int c = nodes[top].keys[at[top]].compareTo(to);
+                if (c > 0 || (c == 0 && !toInclusive))
+                    top = -1;
             }
-            while (toVisit.size() > 0) {
-                // Go thru the current nodes
-                Node<K, V> n = toVisit.pop();
+            return top >= 0;
+        }
+        public K key() {
+            check();
+            return nodes[top].keys[at[top]];
+        }
+        public V value() {
+            check();
+            return nodes[top].values[at[top]];
+        }
 
-                // Add non-null children
-                for (int i = 0; i < n.childrenSize; i++) {
-                    toVisit.add(n.getChild(i));
-                }
+        private void check() {
+            if (!started || top < 0)
+                throw new NoSuchElementException();
+        }
+        // in order, the entry after the current one
+        private void step() {
+            Node<K, V> node = nodes[top];
+            if (node.numberOfChildren() > 0) {
+                // the leftmost entry of the subtree right of this key
+                at[top]++;
+                descendLeftmost(node.getChild(at[top]));
+            } else {
+                at[top]++;
+                settle();
+            }
+        }
+        private void descendLeftmost(Node<K, V> node) {
+            while (true) {
+                nodes[++top] = node;
+                at[top] = 0;
+                if (node.numberOfChildren() == 0)
+                    return;
+                node = node.getChild(0);
+            }
+        }
+        // climb out of nodes we've run off the end of
+        private void settle() {
+            while (top >= 0 && at[top] >= nodes[top].numberOfKeys())
+                nodes[top--] = null;
+        }
+    }
+
+    // a Cursor as an Iterator; remove() goes through the tree, then seeks a
+    // new cursor past the removed key
+    private static final class BTreeIterator<K extends Comparable<K>, V> implements Iterator<Map.Entry<K, V>> {
+        private Cursor<K, V> cursor;
+        private boolean peeked = false;
+        private boolean hasNext;
+        private K last = null;
+
+        private BTreeIterator(Cursor<K, V> cursor) {
+            this.cursor = cursor;
+        }
 
-                // Update last node (used in remove method)
-                index = 0;
-                lastNode = n;
-                lastValue = lastNode.getEntry(index++);
-                return lastValue;
+        @Override
+        public boolean hasNext() {
+            if (!peeked) {
+                hasNext = cursor.advance();
+                peeked = true;
             }
-            return null;
+            return hasNext;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            peeked = false;
+            last = cursor.key();
+            return new SimpleImmutableEntry<>(last, cursor.value());
         }
 
-        /**
-         * {@inheritDoc}
-         */
         @Override
         public void remove() {
-            if (lastNode != null && lastValue != null) {
-                // On remove, reset the iterator (very inefficient, I know)
-                tree.remove(lastValue.getKey(), lastNode);
-
-                lastNode = null;
-                lastValue = null;
-                index = 0;
-                toVisit.clear();
-                if (tree.root != null && tree.root.keysSize > 0) {
-                    toVisit.add(tree.root);
-                }
-            }
+            checkState(last != null, "no entry to remove");
+            cursor.tree.remove(last);
+            cursor = new Cursor<>(cursor.tree, last, false, cursor.to, cursor.toInclusive);
+            peeked = false;
+            last = null;
         }
     }
-}
\ No newline at end of file
+}
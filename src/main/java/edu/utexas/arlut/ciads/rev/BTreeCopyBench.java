@@ -0,0 +1,64 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.rev;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bytes copied per write to a persistent BTree, by order, with a snapshot
+ * before every write so each write copies its whole path. Writes are a mix
+ * of replacing puts, inserts and removes over a fixed key range. The model
+ * column is the class comment's logB(n) * (3B+1)p, taking B as the mean
+ * fan-out and p as 4 (compressed oops); it leaves out object headers.
+ * BTreeCopyBench [entries [writes [maxOrder]]]
+ */
+@Slf4j
+public class BTreeCopyBench {
+    public static void main(String[] args) {
+        int entries = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        int writes = (args.length > 1) ? Integer.parseInt(args[1]) : 200_000;
+        int maxOrder = (args.length > 2) ? Integer.parseInt(args[2]) : 32;
+        Integer[] keys = new Integer[2 * entries];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = i;
+
+        for (int order = 1; order <= maxOrder; order = (order < 8) ? order + 1 : order * 2) {
+            BTree<Integer, Integer> t = BTree.persistent(order);
+            Random rnd = new Random(21);
+            for (int i = 0; i < entries; i++)
+                t.put(keys[rnd.nextInt(keys.length)], i);
+            // warm up, then measure
+            run(t, keys, rnd, writes / 4);
+            long bytes = allocated();
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            run(t, keys, rnd, writes);
+            long perWrite = (allocated() - bytes) / writes;
+
+            double fanout = order * 1.5 + 1;
+            double model = Math.log(t.size()) / Math.log(fanout) * (3 * fanout + 1) * 4;
+            log.info("order {}: {} bytes/write, model {}, {} us/write ({} entries)",
+                     order, perWrite, String.format("%.0f", model),
+                     String.format("%.2f", stopwatch.elapsed(TimeUnit.NANOSECONDS) / 1e3 / writes), t.size());
+        }
+    }
+
+    private static void run(BTree<Integer, Integer> t, Integer[] keys, Random rnd, int writes) {
+        for (int i = 0; i < writes; i++) {
+            t.snapshot();
+            Integer k = keys[rnd.nextInt(keys.length)];
+            if (rnd.nextBoolean())
+                t.put(k, i);
+            else
+                t.remove(k);
+        }
+    }
+
+    private static long allocated() {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,51 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.rev;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Time to build a rev.BTree from a sorted snapshot: put() in key order
+ * against the bulk loader, at a few orders and fills.
+ * java -Xmx4g ... BTreeLoadBench [entries]
+ */
+@Slf4j
+public class BTreeLoadBench {
+    public static void main(String[] args) {
+        int n = (args.length > 0) ? Integer.parseInt(args[0]) : 10_000_000;
+        Map.Entry<Integer, Integer>[] entries = new Map.Entry[n];
+        for (int i = 0; i < n; i++)
+            entries[i] = new SimpleImmutableEntry<>(i, i);
+
+        for (int round = 0; round < 2; round++) {
+            for (int order : new int[]{2, 8, 32}) {
+                System.gc();
+                Stopwatch stopwatch = Stopwatch.createStarted();
+                BTree<Integer, Integer> t = new BTree<>(order);
+                for (Map.Entry<Integer, Integer> e : entries)
+                    t.put(e.getKey(), e.getValue());
+                report("put", order, stopwatch, t);
+                t = null;
+
+                for (double fill : new double[]{0.75, 1.0}) {
+                    // don't bill one build for collecting the last
+                    System.gc();
+                    stopwatch = Stopwatch.createStarted();
+                    t = new BTree<>(order, Arrays.asList(entries).iterator(), fill);
+                    report("load " + fill, order, stopwatch, t);
+                    t = null;
+                }
+            }
+        }
+    }
+
+    private static void report(String name, int order, Stopwatch stopwatch, BTree<Integer, Integer> t) {
+        log.info("order {} {}: {} ms ({} entries, valid {})", order, name, stopwatch.elapsed(TimeUnit.MILLISECONDS),
+                 t.size(), t.validate());
+    }
+}
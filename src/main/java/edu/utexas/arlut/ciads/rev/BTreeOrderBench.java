@@ -0,0 +1,68 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.rev;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import com.google.common.base.Stopwatch;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * rev.BTree put and get rates as the order (minimum keys per node) sweeps
+ * from 2 to 256, for Integer keys and for String keys, whose compareTo is
+ * dearer. Keys go in in random order; gets are random hits.
+ * BTreeOrderBench [entries]
+ */
+@Slf4j
+public class BTreeOrderBench {
+    private static final int GETS = 2_000_000;
+
+    public static void main(String[] args) {
+        int n = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        Integer[] ints = shuffled(new Integer[n], i -> i);
+        String[] strings = shuffled(new String[n], i -> String.format("key-%09d", i));
+        for (int round = 0; round < 2; round++) {
+            for (int order = 2; order <= 256; order *= 2) {
+                run("Integer", order, ints);
+                run("String", order, strings);
+            }
+        }
+    }
+
+    private static <K extends Comparable<K>> void run(String name, int order, K[] keys) {
+        int n = keys.length;
+        BTree<K, K> t = new BTree<>(order);
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        for (K k : keys)
+            t.put(k, k);
+        double puts = n / micros(stopwatch);
+
+        Random rnd = new Random(1);
+        int hits = 0;
+        stopwatch = Stopwatch.createStarted();
+        for (int i = 0; i < GETS; i++)
+            if (null != t.get(keys[rnd.nextInt(n)]))
+                hits++;
+        double gets = GETS / micros(stopwatch);
+        log.info("{} order {}: put {} M/s, get {} M/s ({})", name, order,
+                 String.format("%.2f", puts), String.format("%.2f", gets), hits);
+    }
+
+    private static <K> K[] shuffled(K[] keys, IntFunction<K> key) {
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = key.apply(i);
+        Random rnd = new Random(23);
+        for (int i = keys.length - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            K t = keys[i];
+            keys[i] = keys[j];
+            keys[j] = t;
+        }
+        return keys;
+    }
+
+    private static double micros(Stopwatch stopwatch) {
+        return stopwatch.elapsed(TimeUnit.NANOSECONDS) / 1e3;
+    }
+}
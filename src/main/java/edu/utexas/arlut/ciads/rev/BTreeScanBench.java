@@ -0,0 +1,82 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.rev;
+
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import com.google.common.base.Stopwatch;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Range scans of SCAN consecutive keys from random starts: a rev.BTree
+ * Cursor against its entry Iterator and TreeMap.subMap, in entries per
+ * second and bytes allocated per entry scanned.
+ * BTreeScanBench [entries [order]]
+ */
+@Slf4j
+public class BTreeScanBench {
+    private static final int SCANS = 20_000;
+    private static final int SCAN = 1_000;
+
+    public static void main(String[] args) {
+        int n = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        int order = (args.length > 1) ? Integer.parseInt(args[1]) : 16;
+        BTree<Integer, Integer> t = new BTree<>(order, IntStream.range(0, n).mapToObj(i -> new SimpleImmutableEntry<>(i, i)));
+        TreeMap<Integer, Integer> tm = new TreeMap<>();
+        for (int i = 0; i < n; i++)
+            tm.put(i, i);
+
+        for (int round = 0; round < 3; round++) {
+            Random rnd = new Random(25);
+            long sum = 0;
+            long bytes = allocated();
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            for (int s = 0; s < SCANS; s++) {
+                int from = rnd.nextInt(n);
+                for (BTree.Cursor<Integer, Integer> c = t.subMap(from, from + SCAN).cursor(); c.advance(); )
+                    sum += c.value();
+            }
+            report("BTree cursor", bytes, stopwatch, sum);
+
+            rnd = new Random(25);
+            sum = 0;
+            bytes = allocated();
+            stopwatch = Stopwatch.createStarted();
+            for (int s = 0; s < SCANS; s++) {
+                int from = rnd.nextInt(n);
+                for (Map.Entry<Integer, Integer> e : t.subMap(from, from + SCAN))
+                    sum += e.getValue();
+            }
+            report("BTree iterator", bytes, stopwatch, sum);
+
+            rnd = new Random(25);
+            sum = 0;
+            bytes = allocated();
+            stopwatch = Stopwatch.createStarted();
+            for (int s = 0; s < SCANS; s++) {
+                int from = rnd.nextInt(n);
+                for (Map.Entry<Integer, Integer> e : tm.subMap(from, from + SCAN).entrySet())
+                    sum += e.getValue();
+            }
+            report("TreeMap", bytes, stopwatch, sum);
+        }
+    }
+
+    private static void report(String name, long before, Stopwatch stopwatch, long sum) {
+        long entries = (long)SCANS * SCAN;
+        long bytes = allocated() - before;
+        log.info("{}: {} M entries/s, {} bytes/entry ({})", name,
+                 String.format("%.1f", entries / (stopwatch.elapsed(TimeUnit.NANOSECONDS) / 1e3)),
+                 String.format("%.2f", (double)bytes / entries), sum);
+    }
+
+    private static long allocated() {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
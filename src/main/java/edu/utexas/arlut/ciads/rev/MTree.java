@@ -1,48 +1,302 @@
 // CLASSIFICATION NOTICE: This file is UNCLASSIFIED
 package edu.utexas.arlut.ciads.rev;
 
-import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.base.Preconditions.checkNotNull;
 
-import java.util.List;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
 
-import com.google.common.base.Strings;
-import lombok.extern.slf4j.Slf4j;
-
-@Slf4j
-public class MTree {
+/**
+ * A persistent radix-4 trie map keyed on hash digits. The 32-bit hash is
+ * eaten two bits ("bites") at a time from the low end, so a key sits at most
+ * 16 levels down. Each Node has 4 slots, each holding nothing, a child Node,
+ * or a Leaf: the bucket of entries whose keys share one full hash. A Leaf
+ * sits as high as its hash is unique; a second hash arriving in the same
+ * slot pushes both down to where their digits part.
+ * <p>
+ * Nodes are never modified. put() and remove() copy the Nodes on the path
+ * to the key and return a new MTree around the new root, so an update
+ * allocates at most 16 small Nodes and every earlier MTree stays valid.
+ * Null keys and values aren't allowed.
+ */
+public final class MTree<K, V> implements Iterable<Map.Entry<K, V>> {
     private static final int order = 4;
-    private static final Node root = new Node(order);
+    private static final int LEVELS = 16;
+    private static final MTree EMPTY = new MTree(null, 0);
+
+    public static <K, V> MTree<K, V> empty() {
+        return EMPTY;
+    }
+
+    private MTree(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    public V get(Object k) {
+        int hash = hash(k);
+        Node n = root;
+        for (int level = 0; null != n; level++) {
+            Object slot = n.children[bite(hash, level)];
+            if (slot instanceof Leaf)
+                return (V)((Leaf)slot).get(hash, k);
+            n = (Node)slot;
+        }
+        return null;
+    }
+    public boolean containsKey(Object k) {
+        return null != get(k);
+    }
+
+    public MTree<K, V> put(K k, V v) {
+        checkNotNull(k);
+        checkNotNull(v);
+        int[] added = {0};
+        Node r = put((null == root) ? EMPTY_NODE : root, 0, hash(k), k, v, added);
+        return (r == root) ? this : new MTree<>(r, size + added[0]);
+    }
+
+    public MTree<K, V> remove(Object k) {
+        if (null == root)
+            return this;
+        Object r = remove(root, 0, hash(k), k);
+        if (r == root)
+            return this;
+        // a lone Leaf left at the top goes back under a root Node
+        Node newRoot = (r instanceof Leaf) ? EMPTY_NODE.with(bite(((Leaf)r).hash, 0), r) : (Node)r;
+        return new MTree<>(newRoot, size - 1);
+    }
+
+    public int size() {
+        return size;
+    }
+    public boolean isEmpty() {
+        return 0 == size;
+    }
+
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        checkNotNull(action);
+        if (null != root)
+            forEach(root, action);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return new Iterator<Map.Entry<K, V>>() {
+            // the Nodes on the way down, & the next slot to look at in each
+            private final Node[] nodes = new Node[LEVELS];
+            private final int[] slots = new int[LEVELS];
+            private int depth = -1;
+            private Leaf leaf;
+            private int index;
+            {
+                if (null != root) {
+                    nodes[0] = root;
+                    depth = 0;
+                }
+                advance();
+            }
+            @Override
+            public boolean hasNext() {
+                return null != leaf;
+            }
+            @Override
+            public Map.Entry<K, V> next() {
+                if (null == leaf)
+                    throw new NoSuchElementException();
+                Map.Entry<K, V> e = new SimpleImmutableEntry<>((K)leaf.kv[index], (V)leaf.kv[index + 1]);
+                index += 2;
+                if (index == leaf.kv.length)
+                    advance();
+                return e;
+            }
+            private void advance() {
+                leaf = null;
+                index = 0;
+                while (depth >= 0) {
+                    if (slots[depth] == order) {
+                        slots[depth] = 0;
+                        depth--;
+                        continue;
+                    }
+                    Object slot = nodes[depth].children[slots[depth]++];
+                    if (slot instanceof Leaf) {
+                        leaf = (Leaf)slot;
+                        return;
+                    }
+                    if (null != slot) {
+                        nodes[++depth] = (Node)slot;
+                        slots[depth] = 0;
+                    }
+                }
+            }
+        };
+    }
 
-    public void put(String value) {
-        int hash = value.hashCode();
-        int bite = hash;
-        log.info("hashCode {}", hash);
-        log.info("hashCode binary: {}", Integer.toBinaryString(hash));
-        log.info("length: {}", Integer.toBinaryString(hash).length());
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((k, v) -> {
+            if (sb.length() > 1)
+                sb.append(", ");
+            sb.append(k).append('=').append(v);
+        });
+        return sb.append('}').toString();
+    }
 
-        StringBuffer b = new StringBuffer();
-        List<Integer> l = newArrayList();
-        for (int i=0; i<16; i++) {
-            String s = Strings.padStart(Integer.toBinaryString(bite & 3), 2, '0');
-            log.info("bite: {}", s);
-            b.append(s);
-//            l.
+    // =================================
+    private static int hash(Object k) {
+        // the low bites route first; fold the high bits into them
+        int h = k.hashCode();
+        return h ^ (h >>> 16);
+    }
+    private static int bite(int hash, int level) {
+        return (hash >>> (2 * level)) & 3;
+    }
+
+    private static Node put(Node n, int level, int hash, Object k, Object v, int[] added) {
+        int b = bite(hash, level);
+        Object slot = n.children[b];
+        if (null == slot) {
+            added[0] = 1;
+            return n.with(b, new Leaf(hash, new Object[]{k, v}));
+        }
+        if (slot instanceof Node) {
+            Node child = put((Node)slot, level + 1, hash, k, v, added);
+            return (child == slot) ? n : n.with(b, child);
+        }
+        Leaf lf = (Leaf)slot;
+        if (hash == lf.hash) {
+            Leaf l = lf.put(k, v, added);
+            return (l == lf) ? n : n.with(b, l);
+        }
+        added[0] = 1;
+        return n.with(b, fork(level + 1, lf, new Leaf(hash, new Object[]{k, v})));
+    }
+    // a Node (chain) at level holding two Leafs of different hashes
+    private static Node fork(int level, Leaf a, Leaf b) {
+        int ba = bite(a.hash, level);
+        int bb = bite(b.hash, level);
+        if (ba == bb)
+            return EMPTY_NODE.with(ba, fork(level + 1, a, b));
+        Object[] children = new Object[order];
+        children[ba] = a;
+        children[bb] = b;
+        return new Node(children);
+    }
 
-            log.info("");
-            bite >>= 2;
+    // returns the replacement for n: n itself if k isn't there, null if
+    // n ends up empty, or a Leaf if that's all n would hold
+    private static Object remove(Node n, int level, int hash, Object k) {
+        int b = bite(hash, level);
+        Object slot = n.children[b];
+        Object replacement;
+        if (null == slot) {
+            return n;
+        } else if (slot instanceof Node) {
+            replacement = remove((Node)slot, level + 1, hash, k);
+        } else {
+            Leaf lf = (Leaf)slot;
+            replacement = (hash == lf.hash) ? lf.remove(k) : lf;
         }
-//        log.info("hashCode binary: {}", b);
-        log.info("hashCode binary: {}", Integer.toBinaryString(hash));
+        if (replacement == slot)
+            return n;
 
+        // what would be left here?
+        Object only = replacement;
+        int count = (null == replacement) ? 0 : 1;
+        for (int i = 0; i < order; i++) {
+            if (i != b && null != n.children[i]) {
+                only = n.children[i];
+                count++;
+            }
+        }
+        if (0 == count)
+            return null;
+        if (1 == count && only instanceof Leaf)
+            return only;
+        return n.with(b, replacement);
+    }
 
-        log.info("");
+    private static <K, V> void forEach(Node n, BiConsumer<? super K, ? super V> action) {
+        for (Object slot : n.children) {
+            if (slot instanceof Node) {
+                forEach((Node)slot, action);
+            } else if (null != slot) {
+                Object[] kv = ((Leaf)slot).kv;
+                for (int i = 0; i < kv.length; i += 2)
+                    action.accept((K)kv[i], (V)kv[i + 1]);
+            }
+        }
     }
 
+    private static final Node EMPTY_NODE = new Node(new Object[order]);
+
+    private static final class Node {
+        private final Object[] children;
+        private Node(Object[] children) {
+            this.children = children;
+        }
+        // a copy with slot b replaced
+        private Node with(int b, Object child) {
+            Object[] c = children.clone();
+            c[b] = child;
+            return new Node(c);
+        }
+    }
 
-    private static class Node {
-        private final Node[] children;
-        Node(int sz) {
-            children = new Node[sz];
+    // entries whose keys share one hash, as key, value, key, value...
+    private static final class Leaf {
+        private final int hash;
+        private final Object[] kv;
+        private Leaf(int hash, Object[] kv) {
+            this.hash = hash;
+            this.kv = kv;
+        }
+        private Object get(int h, Object k) {
+            if (h != hash)
+                return null;
+            for (int i = 0; i < kv.length; i += 2)
+                if (k.equals(kv[i]))
+                    return kv[i + 1];
+            return null;
+        }
+        private Leaf put(Object k, Object v, int[] added) {
+            for (int i = 0; i < kv.length; i += 2) {
+                if (k.equals(kv[i])) {
+                    if (v == kv[i + 1])
+                        return this;
+                    Object[] c = kv.clone();
+                    c[i + 1] = v;
+                    return new Leaf(hash, c);
+                }
+            }
+            added[0] = 1;
+            Object[] c = Arrays.copyOf(kv, kv.length + 2);
+            c[kv.length] = k;
+            c[kv.length + 1] = v;
+            return new Leaf(hash, c);
+        }
+        // this if k isn't here, null if it was the only entry
+        private Leaf remove(Object k) {
+            for (int i = 0; i < kv.length; i += 2) {
+                if (k.equals(kv[i])) {
+                    if (2 == kv.length)
+                        return null;
+                    Object[] c = new Object[kv.length - 2];
+                    System.arraycopy(kv, 0, c, 0, i);
+                    System.arraycopy(kv, i + 2, c, i, kv.length - i - 2);
+                    return new Leaf(hash, c);
+                }
+            }
+            return this;
         }
     }
+
+    private final Node root;
+    private final int size;
 }
@@ -0,0 +1,65 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.rev;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+import edu.utexas.arlut.ciads.shadowMap.ShadowMap;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bytes allocated per versioned update: an MTree put, each producing a new
+ * root, against a ShadowMap put + commit, each producing a new revision.
+ * Allocation is read from the HotSpot per-thread counter.
+ * MTreeAllocBench [baseEntries [updates]]
+ */
+@Slf4j
+public class MTreeAllocBench {
+    public static void main(String[] args) {
+        int base = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        int updates = (args.length > 1) ? Integer.parseInt(args[1]) : 100_000;
+        Integer[] keys = new Integer[base];
+        for (int i = 0; i < base; i++)
+            keys[i] = i;
+
+        for (int round = 0; round < 2; round++) {
+            MTree<Integer, Integer> mt = MTree.empty();
+            for (Integer k : keys)
+                mt = mt.put(k, k);
+            Random rnd = new Random(20);
+            long bytes = allocated();
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            for (int i = 0; i < updates; i++)
+                mt = mt.put(keys[rnd.nextInt(base)], i);
+            report("MTree", bytes, stopwatch, updates, mt.size());
+
+            for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+                ShadowMap<Integer, Integer> sm = new ShadowMap<>(mode);
+                for (Integer k : keys)
+                    sm.put(k, k);
+                sm.commit();
+                rnd = new Random(20);
+                bytes = allocated();
+                stopwatch = Stopwatch.createStarted();
+                for (int i = 0; i < updates; i++) {
+                    sm.put(keys[rnd.nextInt(base)], i);
+                    sm.commit();
+                }
+                report("ShadowMap " + mode, bytes, stopwatch, updates, sm.size());
+            }
+        }
+    }
+
+    private static void report(String name, long before, Stopwatch stopwatch, int updates, int size) {
+        long bytes = allocated() - before;
+        log.info("{}: {} bytes/update, {} us/update ({} entries)", name, bytes / updates,
+                 String.format("%.2f", stopwatch.elapsed(TimeUnit.NANOSECONDS) / 1e3 / updates), size);
+    }
+
+    private static long allocated() {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -56,19 +56,7 @@ public class BTree2<T extends Comparable<T>> {
                     break;
                 }
                 // else, find child...
-                T least = n.values[0];
-                if (t.compareTo(least) <= 0) {
-                    n = n.children[0];
-                    continue;
-                }
-                T greatest = n.values[n.valueCnt-1];
-                if (t.compareTo(greatest) > 0) {
-                    n = n.children[n.childCnt-1];
-                    continue;
-                }
-                // else, somewhere in the middle...
-
-
+                n = n.children[n.childFor(t)];
             }
         }
     }
@@ -101,17 +89,7 @@ public class BTree2<T extends Comparable<T>> {
                 return path;
             }
             // else, find child...
-            T least = n.values[0];
-            if (t.compareTo(least) <= 0) {
-                n = n.children[0];
-                continue;
-            }
-            T greatest = n.values[n.valueCnt-1];
-            if (t.compareTo(greatest) > 0) {
-                n = n.children[n.childCnt-1];
-                continue;
-            }
-            // else, somewhere in the middle...
+            n = n.children[n.childFor(t)];
         }
         log.error("Didn't find path to {}...?", t);
         return Collections.emptyList();
@@ -186,6 +164,11 @@ public class BTree2<T extends Comparable<T>> {
         private int indexOf(T t) {
             return Arrays.binarySearch(values, 0, valueCnt, t);
         }
+        // the child to descend into for t, equal values going left
+        private int childFor(T t) {
+            int i = indexOf(t);
+            return (i < 0) ? -(i + 1) : i;
+        }
         private void add(T t) {
             values[valueCnt++] = t;
             Arrays.sort(values, 0, valueCnt);
@@ -133,30 +133,7 @@ public class BTree3<T extends Comparable<T>> {
             if (node.isLeaf()) {
                 break;
             }
-            // Lesser or equal
-            T least = node.getValue(0);
-            if (t.compareTo(least) < 0) {
-                node = node.getChild(0);
-                continue;
-            }
-
-            // Greater
-            T greatest = node.getValue(node.valueCnt - 1);
-            if (t.compareTo(greatest) > 0) {
-                node = node.getChild(node.childCnt - 1);
-                continue;
-            }
-
-            // Search internal nodes
-            // TODO: try binarySearch...
-            for (int i = 1; i < node.valueCnt; i++) {
-                T prev = node.getValue(i - 1);
-                T next = node.getValue(i);
-                if (t.compareTo(prev) > 0 && t.compareTo(next) <= 0) {
-                    node = node.getChild(i);
-                    break;
-                }
-            }
+            node = node.getChild(node.childFor(t));
         }
         return path;
     }
@@ -227,6 +204,11 @@ public class BTree3<T extends Comparable<T>> {
             values[valueCnt++] = t;
             Arrays.sort(values, 0, valueCnt);
         }
+        // the child to descend into for t, equal values going left
+        private int childFor(T t) {
+            int i = Arrays.binarySearch(values, 0, valueCnt, t);
+            return (i < 0) ? -(i + 1) : i;
+        }
         T getValue(int i) {
             return values[i];
         }
@@ -94,32 +94,7 @@ public class BTreeSansParent<T extends Comparable<T>> implements ITree<T> {
             if (node.isLeaf()) {
                 break;
             }
-            // Lesser or equal
-            T least = node.getKey(0);
-            if (value.compareTo(least) < 0) {
-                node = node.getChild(0);
-                continue;
-            }
-
-            // Greater
-            int numberOfKeys = node.numberOfKeys();
-            int last = numberOfKeys - 1;
-            T greatest = node.getKey(last);
-            if (value.compareTo(greatest) > 0) {
-                node = node.getChild(numberOfKeys);
-                continue;
-            }
-
-            // Search internal nodes
-            // TODO: try binarySearch...
-            for (int i = 1; i < node.numberOfKeys(); i++) {
-                T prev = node.getKey(i - 1);
-                T next = node.getKey(i);
-                if (value.compareTo(prev) > 0 && value.compareTo(next) <= 0) {
-                    node = node.getChild(i);
-                    break;
-                }
-            }
+            node = node.getChild(node.childFor(value));
         }
         return path;
     }
@@ -269,44 +244,12 @@ public class BTreeSansParent<T extends Comparable<T>> implements ITree<T> {
     private Node<T> getNode(T value) {
         Node<T> node = root;
         while (node != null) {
-            T lesser = node.getKey(0);
-            if (value.compareTo(lesser) < 0) {
-                if (node.numberOfChildren() > 0)
-                    node = node.getChild(0);
-                else
-                    node = null;
-                continue;
-            }
-
-            int numberOfKeys = node.numberOfKeys();
-            int last = numberOfKeys - 1;
-            T greater = node.getKey(last);
-            if (value.compareTo(greater) > 0) {
-                if (node.numberOfChildren() > numberOfKeys)
-                    node = node.getChild(numberOfKeys);
-                else
-                    node = null;
-                continue;
-            }
-
-            for (int i = 0; i < numberOfKeys; i++) {
-                T currentValue = node.getKey(i);
-                if (currentValue.compareTo(value) == 0) {
-                    return node;
-                }
-
-                int next = i + 1;
-                if (next <= last) {
-                    T nextValue = node.getKey(next);
-                    if (currentValue.compareTo(value) < 0 && nextValue.compareTo(value) > 0) {
-                        if (next < node.numberOfChildren()) {
-                            node = node.getChild(next);
-                            break;
-                        }
-                        return null;
-                    }
-                }
-            }
+            int i = node.search(value);
+            if (i >= 0)
+                return node;
+            if (node.numberOfChildren() == 0)
+                return null;
+            node = node.getChild(-(i + 1));
         }
         return null;
     }
@@ -631,10 +574,17 @@ public class BTreeSansParent<T extends Comparable<T>> implements ITree<T> {
         }
 
         private int indexOf(T value) {
-            for (int i = 0; i < keysSize; i++) {
-                if (keys[i].equals(value)) return i;
-            }
-            return -1;
+            int i = search(value);
+            return (i < 0) ? -1 : i;
+        }
+        // as Arrays.binarySearch: the key's index, or -(insertion point) - 1
+        private int search(T value) {
+            return Arrays.binarySearch(keys, 0, keysSize, value);
+        }
+        // the child to descend into for value, equal keys going left
+        private int childFor(T value) {
+            int i = search(value);
+            return (i < 0) ? -(i + 1) : i;
         }
 
         private void addKey(T value) {
@@ -0,0 +1,53 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+
+import com.google.common.io.ByteArrayDataOutput;
+
+/**
+ * Binary form of keys or values in a DurableShadowMap log. read() gets the
+ * buffer positioned where write() started, and must leave it just past that
+ * value.
+ */
+public interface Codec<T> {
+    void write(T value, ByteArrayDataOutput out);
+    T read(ByteBuffer in);
+
+    Codec<String> STRINGS = new Codec<String>() {
+        @Override
+        public void write(String value, ByteArrayDataOutput out) {
+            byte[] b = value.getBytes(UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+        @Override
+        public String read(ByteBuffer in) {
+            byte[] b = new byte[in.getInt()];
+            in.get(b);
+            return new String(b, UTF_8);
+        }
+    };
+    Codec<Integer> INTEGERS = new Codec<Integer>() {
+        @Override
+        public void write(Integer value, ByteArrayDataOutput out) {
+            out.writeInt(value);
+        }
+        @Override
+        public Integer read(ByteBuffer in) {
+            return in.getInt();
+        }
+    };
+    Codec<Long> LONGS = new Codec<Long>() {
+        @Override
+        public void write(Long value, ByteArrayDataOutput out) {
+            out.writeLong(value);
+        }
+        @Override
+        public Long read(ByteBuffer in) {
+            return in.getLong();
+        }
+    };
+}
@@ -0,0 +1,69 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * When a ShadowMap should fold its old locked revisions into a single
+ * canonical base layer.
+ * <p>
+ * The newest {@code retain} committed revisions are never folded, so they
+ * stay reachable through rollback(). Past those, compaction triggers when
+ * any one of the limits is exceeded: the number of foldable revisions, the
+ * number of entries stored across all layers (shadowed values and tombstones
+ * included), or the fraction of those entries that are tombstones.
+ */
+public final class CompactionPolicy {
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    public CompactionPolicy(int retain, int maxRevisions, int maxKeys, double maxTombstoneRatio) {
+        checkArgument(retain >= 1, "must retain at least the current revision");
+        checkArgument(maxRevisions >= 1, "maxRevisions must be positive");
+        checkArgument(maxKeys >= 0, "maxKeys must not be negative");
+        checkArgument(maxTombstoneRatio >= 0.0, "maxTombstoneRatio must not be negative");
+        this.retain = retain;
+        this.maxRevisions = maxRevisions;
+        this.maxKeys = maxKeys;
+        this.maxTombstoneRatio = maxTombstoneRatio;
+    }
+
+    public static CompactionPolicy byRevisions(int retain, int maxRevisions) {
+        return new CompactionPolicy(retain, maxRevisions, UNBOUNDED, Double.MAX_VALUE);
+    }
+    public static CompactionPolicy byKeys(int retain, int maxKeys) {
+        return new CompactionPolicy(retain, UNBOUNDED, maxKeys, Double.MAX_VALUE);
+    }
+    public static CompactionPolicy byTombstones(int retain, double maxTombstoneRatio) {
+        return new CompactionPolicy(retain, UNBOUNDED, UNBOUNDED, maxTombstoneRatio);
+    }
+
+    public int retain() {
+        return retain;
+    }
+
+    /**
+     * @param revisions  locked revisions older than the retained ones
+     * @param keys       entries stored across every layer above the base
+     * @param tombstones how many of those entries are removals
+     */
+    boolean shouldCompact(int revisions, long keys, long tombstones) {
+        if (revisions < 1)
+            return false;
+        if (revisions > maxRevisions)
+            return true;
+        if (keys > maxKeys)
+            return true;
+        return keys > 0 && (double)tombstones / keys > maxTombstoneRatio;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("retain %d, revisions > %d, keys > %d, tombstones > %.2f",
+                             retain, maxRevisions, maxKeys, maxTombstoneRatio);
+    }
+
+    private final int retain;
+    private final int maxRevisions;
+    private final int maxKeys;
+    private final double maxTombstoneRatio;
+}
@@ -0,0 +1,289 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.Lists.newArrayList;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A ShadowMap whose commits survive a restart. Each commit() first appends
+ * the working revision's delta (puts, and TOMBSTONE removals) to a
+ * write-ahead log; rolling back a committed revision appends a ROLLBACK.
+ * open() replays the log, so the recovered map has the same revisions, and
+ * the same rollback history, as the one that wrote it.
+ * <p>
+ * The log is a directory of segment files, wal-NNNNNNNN.log, each a run of
+ * records: payload length, CRC32 of the payload, payload. A torn or corrupt
+ * record ends the log; recovery truncates it away and appends after the last
+ * good commit.
+ * <p>
+ * fsync is grouped: the channel is forced every groupSize commits (and on
+ * sync() and close()), so a crash can lose at most the last groupSize - 1
+ * commits, never part of one. groupSize 1 forces on every commit.
+ */
+@Slf4j
+public class DurableShadowMap<K extends Comparable<K>, V> extends ShadowMap<K, V> implements Closeable {
+    public static final int DEFAULT_GROUP_SIZE = 1;
+    public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+
+    public static <K extends Comparable<K>, V> DurableShadowMap<K, V> open(Path dir, Codec<K> keys, Codec<V> values)
+            throws IOException {
+        return open(dir, Lookup.LAYERED, keys, values, DEFAULT_GROUP_SIZE, DEFAULT_SEGMENT_BYTES);
+    }
+    public static <K extends Comparable<K>, V> DurableShadowMap<K, V> open(Path dir, Lookup lookup,
+                                                                           Codec<K> keys, Codec<V> values,
+                                                                           int groupSize, long segmentBytes)
+            throws IOException {
+        checkArgument(groupSize >= 1, "groupSize must be positive");
+        checkArgument(segmentBytes > HEADER, "segmentBytes too small");
+        // replay maps a whole segment into one buffer
+        checkArgument(segmentBytes <= Integer.MAX_VALUE, "segmentBytes too large: %s", segmentBytes);
+        Files.createDirectories(dir);
+        DurableShadowMap<K, V> m = new DurableShadowMap<>(dir, lookup, keys, values, groupSize, segmentBytes);
+        m.recover();
+        return m;
+    }
+
+    private DurableShadowMap(Path dir, Lookup lookup, Codec<K> keys, Codec<V> values,
+                             int groupSize, long segmentBytes) {
+        super(lookup);
+        this.dir = dir;
+        this.keys = keys;
+        this.values = values;
+        this.groupSize = groupSize;
+        this.segmentBytes = segmentBytes;
+    }
+
+    @Override
+    public Revision<K, V> commit() {
+        if (!replaying && hasUncommitted())
+            append(encodeCommit());
+        return super.commit();
+    }
+    @Override
+    public void rollback() {
+        // dropping uncommitted work needs no record
+        boolean committed = !hasUncommitted();
+        super.rollback();
+        if (!replaying && committed)
+            append(new byte[]{ROLLBACK});
+    }
+
+    /**
+     * Force everything appended so far to disk.
+     */
+    public void sync() {
+        checkState(null != channel, "closed");
+        try {
+            if (unsynced > 0)
+                channel.force(false);
+            unsynced = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (null == channel)
+            return;
+        sync();
+        channel.close();
+        channel = null;
+    }
+
+    // =======================================
+    private byte[] encodeCommit() {
+        Map<K, V> delta = uncommitted();
+        ByteArrayDataOutput out = ByteStreams.newDataOutput(16 + 16 * delta.size());
+        out.writeByte(uncommittedClear() ? COMMIT_CLEARED : COMMIT);
+        out.writeInt(delta.size());
+        for (Map.Entry<K, V> e : delta.entrySet()) {
+            if (isTombstone(e.getValue())) {
+                out.writeByte(REMOVE);
+                keys.write(e.getKey(), out);
+            } else {
+                out.writeByte(PUT);
+                keys.write(e.getKey(), out);
+                values.write(e.getValue(), out);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private void append(byte[] payload) {
+        checkState(null != channel, "closed");
+        try {
+            if (position > 0 && position + HEADER + payload.length > segmentBytes)
+                nextSegment();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(payload.length).putInt((int)crc.getValue()).flip();
+            ByteBuffer[] record = {header, ByteBuffer.wrap(payload)};
+            long n = HEADER + payload.length;
+            while (n > 0)
+                n -= channel.write(record);
+            position += HEADER + payload.length;
+            if (++unsynced >= groupSize)
+                sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void nextSegment() throws IOException {
+        sync();
+        channel.close();
+        segment++;
+        channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        syncDir();
+        position = 0;
+    }
+
+    // make created (or deleted) segment files durable: a file's own fsync
+    // doesn't cover its directory entry
+    private void syncDir() throws IOException {
+        try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+            d.force(true);
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> segments = segments();
+        replaying = true;
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                Path p = segments.get(i);
+                long end = replay(p);
+                if (end < Files.size(p)) {
+                    log.warn("{}: discarding {} bytes after the last good record",
+                             p.getFileName(), Files.size(p) - end);
+                    // anything after a bad record, here or in later segments,
+                    // was never acknowledged as durable
+                    try (FileChannel c = FileChannel.open(p, StandardOpenOption.WRITE)) {
+                        c.truncate(end);
+                    }
+                    for (Path later : segments.subList(i + 1, segments.size()))
+                        Files.delete(later);
+                    syncDir();
+                    segments = segments.subList(0, i + 1);
+                    break;
+                }
+            }
+        } finally {
+            replaying = false;
+        }
+        if (segments.isEmpty()) {
+            segment = 0;
+            channel = FileChannel.open(segmentPath(0), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            syncDir();
+        } else {
+            segment = segmentNumber(segments.get(segments.size() - 1));
+            channel = FileChannel.open(segmentPath(segment), StandardOpenOption.WRITE);
+        }
+        position = channel.size();
+        channel.position(position);
+    }
+
+    // apply every good record in the segment; returns where they end
+    private long replay(Path p) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel c = FileChannel.open(p, StandardOpenOption.READ)) {
+            buf = c.map(FileChannel.MapMode.READ_ONLY, 0, c.size());
+        }
+        CRC32 crc = new CRC32();
+        while (buf.remaining() >= HEADER) {
+            int start = buf.position();
+            int length = buf.getInt();
+            int checksum = buf.getInt();
+            if (length <= 0 || length > buf.remaining())
+                return start;
+            ByteBuffer payload = buf.slice();
+            payload.limit(length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int)crc.getValue() != checksum)
+                return start;
+            apply(payload);
+            buf.position(start + HEADER + length);
+        }
+        return buf.position();
+    }
+
+    private void apply(ByteBuffer in) {
+        byte type = in.get();
+        if (ROLLBACK == type) {
+            rollback();
+            return;
+        }
+        beginRevision();
+        if (COMMIT_CLEARED == type)
+            clear();
+        for (int n = in.getInt(); n > 0; n--) {
+            byte op = in.get();
+            K k = keys.read(in);
+            if (PUT == op)
+                put(k, values.read(in));
+            else
+                remove(k);
+        }
+        commit();
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> l = newArrayList();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "wal-*.log")) {
+            for (Path p : ds)
+                l.add(p);
+        }
+        Collections.sort(l);
+        return l;
+    }
+    private Path segmentPath(int n) {
+        return dir.resolve(String.format("wal-%08d.log", n));
+    }
+    private static int segmentNumber(Path p) {
+        String name = p.getFileName().toString();
+        return Integer.parseInt(name.substring(4, name.length() - 4));
+    }
+
+    // record types, & ops within a commit
+    private static final byte COMMIT = 1;
+    private static final byte COMMIT_CLEARED = 2;
+    private static final byte ROLLBACK = 3;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    // length + crc
+    private static final int HEADER = 8;
+
+    private final Path dir;
+    private final Codec<K> keys;
+    private final Codec<V> values;
+    private final int groupSize;
+    private final long segmentBytes;
+    private FileChannel channel;
+    private int segment;
+    private long position;
+    private int unsynced = 0;
+    private boolean replaying = false;
+}
@@ -0,0 +1,81 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.common.base.Stopwatch;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Commit latency at several fsync group sizes, then recovery throughput
+ * reopening the log just written. Runs in a scratch directory under the
+ * first argument (default java.io.tmpdir), which should be on local disk.
+ */
+@Slf4j
+public class DurableShadowMapBench {
+    private static final int COMMITS = 20_000;
+    private static final int PUTS_PER_COMMIT = 10;
+    private static final int KEYS = 100_000;
+
+    public static void main(String[] args) throws IOException {
+        Path root = Paths.get(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+        int[] groups = {1, 16, 256};
+        for (int group : groups) {
+            Path dir = Files.createTempDirectory(root, "wal-bench");
+            try {
+                long[] nanos = new long[COMMITS];
+                Random rnd = new Random(5);
+                try (DurableShadowMap<Integer, String> cm = open(dir, group)) {
+                    for (int c = 0; c < COMMITS; c++) {
+                        for (int i = 0; i < PUTS_PER_COMMIT; i++)
+                            cm.put(rnd.nextInt(KEYS), "value-" + c);
+                        long t0 = System.nanoTime();
+                        cm.commit();
+                        nanos[c] = System.nanoTime() - t0;
+                    }
+                }
+                Arrays.sort(nanos);
+                log.info("group {}: commit p50 {} us, p99 {} us, max {} us", group,
+                         nanos[COMMITS / 2] / 1000, nanos[COMMITS * 99 / 100] / 1000, nanos[COMMITS - 1] / 1000);
+
+                long bytes = 0;
+                try (Stream<Path> s = Files.list(dir)) {
+                    for (Path p : s.collect(Collectors.toList()))
+                        bytes += Files.size(p);
+                }
+                Stopwatch stopwatch = Stopwatch.createStarted();
+                int size;
+                try (DurableShadowMap<Integer, String> cm = open(dir, group)) {
+                    size = cm.size();
+                }
+                double seconds = stopwatch.elapsed(TimeUnit.NANOSECONDS) / 1e9;
+                log.info("group {}: recovered {} keys from {} KB in {} ms: {} commits/s, {} MB/s",
+                         group, size, bytes / 1024, String.format("%.1f", seconds * 1000),
+                         String.format("%.0f", COMMITS / seconds),
+                         String.format("%.1f", bytes / seconds / (1 << 20)));
+            } finally {
+                try (Stream<Path> s = Files.walk(dir)) {
+                    for (Path p : s.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                        Files.delete(p);
+                }
+            }
+        }
+    }
+
+    private static DurableShadowMap<Integer, String> open(Path dir, int group) throws IOException {
+        DurableShadowMap<Integer, String> cm = DurableShadowMap.open(dir, ShadowMap.Lookup.INDEXED,
+                                                                     Codec.INTEGERS, Codec.STRINGS,
+                                                                     group, DurableShadowMap.DEFAULT_SEGMENT_BYTES);
+        cm.setCompactionPolicy(CompactionPolicy.byRevisions(16, 1024));
+        return cm;
+    }
+}
@@ -0,0 +1,513 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Persistent hash array mapped trie, used as the merged index of a committed
+ * ShadowMap revision.
+ * <p>
+ * Same idea as com.jwetherell.algorithms.data_structures.HashArrayMappedTrie
+ * (32-bit hash, 5-bit steps, max height of 7), but immutable: every change
+ * copies only the root-to-leaf path, so each revision shares all untouched
+ * nodes with its predecessor. Inner nodes are bitmap-compressed, and a slot
+ * holds either a key/value pair or (key == null) a sub-node. Keys with equal
+ * hashes share a collision node.
+ * <p>
+ * merge() applies a whole revision delta under a private edit token, so a
+ * node is copied at most once per merge instead of once per changed key.
+ */
+@SuppressWarnings("unchecked")
+final class HashTrie<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final HashTrie EMPTY = new HashTrie(null, 0, false, null);
+
+    static <K, V> HashTrie<K, V> empty() {
+        return EMPTY;
+    }
+
+    private HashTrie(Node root, int size, boolean hasNull, Object nullValue) {
+        this.root = root;
+        this.size = size;
+        this.hasNull = hasNull;
+        this.nullValue = nullValue;
+    }
+
+    int size() {
+        return size;
+    }
+
+    V get(Object key) {
+        if (null == key)
+            return hasNull ? (V)nullValue : null;
+        return (null == root) ? null : (V)root.find(0, hash(key), key);
+    }
+
+    HashTrie<K, V> plus(K key, V value) {
+        return new Editor(null).put(key, value).done();
+    }
+
+    HashTrie<K, V> minus(Object key) {
+        return new Editor(null).remove(key).done();
+    }
+
+    /**
+     * Apply a revision delta: every value identical (==) to removed is a
+     * deletion, anything else is an upsert.
+     */
+    HashTrie<K, V> merge(Map<? extends K, ?> delta, Object removed) {
+        if (delta.isEmpty())
+            return this;
+        Editor e = new Editor(new Object());
+        for (Map.Entry<? extends K, ?> entry : delta.entrySet()) {
+            if (removed == entry.getValue())
+                e.remove(entry.getKey());
+            else
+                e.put(entry.getKey(), (V)entry.getValue());
+        }
+        return e.done();
+    }
+
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Splits on trie slots, so every piece knows exactly how many entries it
+     * holds (SIZED | SUBSIZED); a piece that is down to one sub-node descends
+     * into it.
+     */
+    <T> Spliterator<T> spliterator(BiFunction<? super K, ? super V, ? extends T> fn, int characteristics) {
+        Object[] a = (null == root) ? new Object[0] : root.array();
+        return new TrieSpliterator<>(fn, characteristics, a, 0, a.length, size, hasNull);
+    }
+
+    /**
+     * In-order walk of the trie that hands out keys and values without
+     * allocating anything per entry.
+     */
+    final class Cursor {
+        private Cursor() {
+            pendingNull = hasNull;
+            if (null != root)
+                push(root.array(), 0, root.array().length);
+        }
+        private Cursor(Object[] a, int from, int to, boolean withNull) {
+            pendingNull = withNull;
+            push(a, from, to);
+        }
+        boolean advance() {
+            if (pendingNull) {
+                pendingNull = false;
+                key = null;
+                value = (V)nullValue;
+                return true;
+            }
+            while (depth >= 0) {
+                Object[] a = arrays[depth];
+                int i = pos[depth];
+                if (i >= ends[depth]) {
+                    arrays[depth--] = null;
+                    continue;
+                }
+                pos[depth] = i + 2;
+                if (null == a[i]) {
+                    Object[] sub = ((Node)a[i + 1]).array();
+                    push(sub, 0, sub.length);
+                    continue;
+                }
+                key = (K)a[i];
+                value = (V)a[i + 1];
+                return true;
+            }
+            return false;
+        }
+        K key() {
+            return key;
+        }
+        V value() {
+            return value;
+        }
+        private void push(Object[] a, int from, int to) {
+            arrays[++depth] = a;
+            pos[depth] = from;
+            ends[depth] = to;
+        }
+        // 7 bitmap levels, then a collision node
+        private final Object[][] arrays = new Object[8][];
+        private final int[] pos = new int[8];
+        private final int[] ends = new int[8];
+        private int depth = -1;
+        private boolean pendingNull;
+        private K key;
+        private V value;
+    }
+
+    private final class TrieSpliterator<T> implements Spliterator<T> {
+        private TrieSpliterator(BiFunction<? super K, ? super V, ? extends T> fn, int characteristics,
+                                Object[] array, int from, int to, int size, boolean withNull) {
+            this.fn = fn;
+            this.characteristics = characteristics | SIZED | SUBSIZED | IMMUTABLE;
+            this.array = array;
+            this.from = from;
+            this.to = to;
+            this.size = size;
+            this.withNull = withNull;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (null == cursor)
+                cursor = new Cursor(array, from, to, withNull);
+            if (!cursor.advance())
+                return false;
+            size--;
+            action.accept(fn.apply(cursor.key(), cursor.value()));
+            return true;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            if (null != cursor)
+                return null;
+            // a single sub-node: split its children instead
+            while (to - from == 2 && null == array[from] && !withNull) {
+                array = ((Node)array[from + 1]).array();
+                from = 0;
+                to = array.length;
+            }
+            int slots = (to - from) / 2;
+            if (slots < 2)
+                return null;
+            int mid = from + 2 * (slots / 2);
+            int n = 0;
+            for (int i = from; i < mid; i += 2)
+                n += (null == array[i]) ? ((Node)array[i + 1]).size() : 1;
+            Spliterator<T> prefix = new TrieSpliterator<>(fn, characteristics, array, from, mid, n, false);
+            from = mid;
+            size -= n;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return size;
+        }
+
+        @Override
+        public int characteristics() {
+            return characteristics;
+        }
+
+        private final BiFunction<? super K, ? super V, ? extends T> fn;
+        private final int characteristics;
+        private Object[] array;
+        private int from;
+        private int to;
+        private int size;
+        private final boolean withNull;
+        private Cursor cursor = null;
+    }
+
+    // =================================
+    private final class Editor {
+        private Editor(Object edit) {
+            this.edit = edit;
+            this.root = HashTrie.this.root;
+            this.size = HashTrie.this.size;
+            this.hasNull = HashTrie.this.hasNull;
+            this.nullValue = HashTrie.this.nullValue;
+        }
+        private Editor put(K key, V value) {
+            if (null == key) {
+                if (!hasNull)
+                    size++;
+                hasNull = true;
+                nullValue = value;
+                return this;
+            }
+            leaf.changed = false;
+            Node r = (null == root) ? BitmapNode.EMPTY : root;
+            root = r.assoc(edit, 0, hash(key), key, value, leaf);
+            if (leaf.changed)
+                size++;
+            return this;
+        }
+        private Editor remove(Object key) {
+            if (null == key) {
+                if (hasNull)
+                    size--;
+                hasNull = false;
+                nullValue = null;
+                return this;
+            }
+            if (null == root)
+                return this;
+            leaf.changed = false;
+            root = root.without(edit, 0, hash(key), key, leaf);
+            if (leaf.changed)
+                size--;
+            return this;
+        }
+        private HashTrie<K, V> done() {
+            if (root == HashTrie.this.root && hasNull == HashTrie.this.hasNull && nullValue == HashTrie.this.nullValue)
+                return HashTrie.this;
+            if (0 == size)
+                return EMPTY;
+            return new HashTrie<>(root, size, hasNull, nullValue);
+        }
+        private final Object edit;
+        private final Box leaf = new Box();
+        private Node root;
+        private int size;
+        private boolean hasNull;
+        private Object nullValue;
+    }
+
+    // =================================
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+    private static int mask(int hash, int shift) {
+        return (hash >>> shift) & MASK;
+    }
+    private static int bitpos(int hash, int shift) {
+        return 1 << mask(hash, shift);
+    }
+
+    private static final class Box {
+        private boolean changed;
+    }
+
+    private static abstract class Node {
+        abstract Object find(int shift, int hash, Object key);
+        abstract Node assoc(Object edit, int shift, int hash, Object key, Object val, Box addedLeaf);
+        abstract Node without(Object edit, int shift, int hash, Object key, Box removedLeaf);
+        // key/value pairs, a null key marks a sub-node
+        abstract Object[] array();
+        // entries in this subtree
+        abstract int size();
+    }
+
+    // =================================
+    private static final class BitmapNode extends Node {
+        private static final BitmapNode EMPTY = new BitmapNode(null, 0, new Object[0], 0);
+
+        private BitmapNode(Object edit, int bitmap, Object[] array, int size) {
+            this.edit = edit;
+            this.bitmap = bitmap;
+            this.array = array;
+            this.size = size;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            int bit = bitpos(hash, shift);
+            if (0 == (bitmap & bit))
+                return null;
+            int idx = index(bit);
+            Object k = array[2 * idx];
+            Object v = array[2 * idx + 1];
+            if (null == k)
+                return ((Node)v).find(shift + BITS, hash, key);
+            return key.equals(k) ? v : null;
+        }
+
+        @Override
+        Node assoc(Object edit, int shift, int hash, Object key, Object val, Box addedLeaf) {
+            int bit = bitpos(hash, shift);
+            int idx = index(bit);
+            if (0 != (bitmap & bit)) {
+                Object k = array[2 * idx];
+                Object v = array[2 * idx + 1];
+                if (null == k) {
+                    Node n = ((Node)v).assoc(edit, shift + BITS, hash, key, val, addedLeaf);
+                    if (n == v) // untouched, or edited in place along with this node
+                        return grow(addedLeaf.changed ? 1 : 0);
+                    return editable(edit).set(2 * idx + 1, n).grow(addedLeaf.changed ? 1 : 0);
+                }
+                if (key.equals(k)) {
+                    if (val == v)
+                        return this;
+                    return editable(edit).set(2 * idx + 1, val);
+                }
+                addedLeaf.changed = true;
+                Node sub = pair(edit, shift + BITS, k, v, hash, key, val);
+                return editable(edit).set(2 * idx, null).set(2 * idx + 1, sub).grow(1);
+            }
+            int n = Integer.bitCount(bitmap);
+            Object[] a = new Object[2 * (n + 1)];
+            System.arraycopy(array, 0, a, 0, 2 * idx);
+            a[2 * idx] = key;
+            a[2 * idx + 1] = val;
+            System.arraycopy(array, 2 * idx, a, 2 * (idx + 1), 2 * (n - idx));
+            addedLeaf.changed = true;
+            if (null != edit && edit == this.edit) {
+                this.bitmap |= bit;
+                this.array = a;
+                this.size++;
+                return this;
+            }
+            return new BitmapNode(edit, bitmap | bit, a, size + 1);
+        }
+
+        @Override
+        Node without(Object edit, int shift, int hash, Object key, Box removedLeaf) {
+            int bit = bitpos(hash, shift);
+            if (0 == (bitmap & bit))
+                return this;
+            int idx = index(bit);
+            Object k = array[2 * idx];
+            Object v = array[2 * idx + 1];
+            if (null == k) {
+                Node n = ((Node)v).without(edit, shift + BITS, hash, key, removedLeaf);
+                if (n == v)
+                    return grow(removedLeaf.changed ? -1 : 0);
+                if (null != n)
+                    return editable(edit).set(2 * idx + 1, n).grow(removedLeaf.changed ? -1 : 0);
+            } else if (!key.equals(k)) {
+                return this;
+            } else {
+                removedLeaf.changed = true;
+            }
+            if (bitmap == bit)
+                return null;
+            int cnt = Integer.bitCount(bitmap);
+            Object[] a = new Object[2 * (cnt - 1)];
+            System.arraycopy(array, 0, a, 0, 2 * idx);
+            System.arraycopy(array, 2 * (idx + 1), a, 2 * idx, 2 * (cnt - idx - 1));
+            if (null != edit && edit == this.edit) {
+                this.bitmap ^= bit;
+                this.array = a;
+                this.size--;
+                return this;
+            }
+            return new BitmapNode(edit, bitmap ^ bit, a, size - 1);
+        }
+
+        @Override
+        Object[] array() {
+            return array;
+        }
+        @Override
+        int size() {
+            return size;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+        private BitmapNode editable(Object edit) {
+            if (null != edit && edit == this.edit)
+                return this;
+            return new BitmapNode(edit, bitmap, array.clone(), size);
+        }
+        private BitmapNode set(int i, Object o) {
+            array[i] = o;
+            return this;
+        }
+        private BitmapNode grow(int delta) {
+            size += delta;
+            return this;
+        }
+
+        private final Object edit;
+        private int bitmap;
+        private Object[] array;
+        private int size;
+    }
+
+    private static Node pair(Object edit, int shift, Object k1, Object v1, int h2, Object k2, Object v2) {
+        int h1 = hash(k1);
+        if (h1 == h2)
+            return new CollisionNode(edit, h1, new Object[]{k1, v1, k2, v2});
+        Box ignored = new Box();
+        return BitmapNode.EMPTY.assoc(edit, shift, h1, k1, v1, ignored)
+                               .assoc(edit, shift, h2, k2, v2, ignored);
+    }
+
+    // =================================
+    private static final class CollisionNode extends Node {
+        private CollisionNode(Object edit, int hash, Object[] array) {
+            this.edit = edit;
+            this.hash = hash;
+            this.array = array;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            int idx = indexOf(key);
+            return (idx < 0) ? null : array[idx + 1];
+        }
+
+        @Override
+        Node assoc(Object edit, int shift, int hash, Object key, Object val, Box addedLeaf) {
+            if (hash != this.hash) {
+                // nest this node one level down, and retry
+                return new BitmapNode(edit, bitpos(this.hash, shift), new Object[]{null, this}, size())
+                        .assoc(edit, shift, hash, key, val, addedLeaf);
+            }
+            int idx = indexOf(key);
+            if (idx >= 0) {
+                if (val == array[idx + 1])
+                    return this;
+                Object[] a = array.clone();
+                a[idx + 1] = val;
+                return new CollisionNode(edit, hash, a);
+            }
+            Object[] a = new Object[array.length + 2];
+            System.arraycopy(array, 0, a, 0, array.length);
+            a[array.length] = key;
+            a[array.length + 1] = val;
+            addedLeaf.changed = true;
+            return new CollisionNode(edit, hash, a);
+        }
+
+        @Override
+        Node without(Object edit, int shift, int hash, Object key, Box removedLeaf) {
+            int idx = indexOf(key);
+            if (idx < 0)
+                return this;
+            removedLeaf.changed = true;
+            if (2 == array.length)
+                return null;
+            Object[] a = new Object[array.length - 2];
+            System.arraycopy(array, 0, a, 0, idx);
+            System.arraycopy(array, idx + 2, a, idx, array.length - idx - 2);
+            return new CollisionNode(edit, hash, a);
+        }
+
+        @Override
+        Object[] array() {
+            return array;
+        }
+        @Override
+        int size() {
+            return array.length / 2;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i]))
+                    return i;
+            }
+            return -1;
+        }
+
+        private final Object edit;
+        private final int hash;
+        private final Object[] array;
+    }
+
+    // =================================
+    private final Node root;
+    private final int size;
+    private final boolean hasNull;
+    private final Object nullValue;
+}
@@ -0,0 +1,309 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * ShadowMap specialized for long keys. Each revision layer is an
+ * open-addressing table of primitive keys, so a mapping costs a slot in two
+ * arrays instead of an Entry and a boxed key. A removal is a key whose bit is
+ * set in the layer's removed bitset, not a TOMBSTONE value.
+ * <p>
+ * Same revision model as ShadowMap: put/remove/clear write to the working
+ * layer, commit() locks it, rollback() drops the newest layer. Lookups are
+ * LAYERED: newest to oldest, stopping at a canonical (cleared) layer.
+ */
+public class LongShadowMap<V> {
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    public LongShadowMap() {
+    }
+
+    public void commit() {
+        current.lock();
+    }
+    public void rollback() {
+        checkState(null != current.previous, "nothing to roll back");
+        current = current.previous;
+    }
+
+    public int size() {
+        return current.size;
+    }
+    public boolean isEmpty() {
+        return 0 == current.size;
+    }
+    public boolean containsKey(long key) {
+        return null != get(key);
+    }
+
+    public V get(long key) {
+        for (Layer<V> r = current; null != r; r = r.previous) {
+            int slot = r.find(key);
+            if (slot >= 0)
+                return r.isRemoved(slot) ? null : (V)r.values[slot];
+            if (r.canonical)
+                break;
+        }
+        return null;
+    }
+
+    public V put(long key, V value) {
+        checkNotNull(value);
+        if (current.locked)
+            rollForward();
+        V oldV = get(key);
+        current.put(key, value);
+        if (null == oldV)
+            current.size++;
+        return oldV;
+    }
+
+    public V remove(long key) {
+        V oldV = get(key);
+        if (null == oldV)
+            return null;
+        if (current.locked)
+            rollForward();
+        current.remove(key);
+        current.size--;
+        return oldV;
+    }
+
+    public void clear() {
+        if (current.locked)
+            rollForward();
+        current.reset();
+        current.canonical = true;
+        current.size = 0;
+    }
+
+    /**
+     * Visit the live mappings, each key once, in no particular order.
+     */
+    public void forEach(EntryConsumer<? super V> action) {
+        checkNotNull(action);
+        // keys already emitted or removed by a newer layer; a canonical
+        // working layer is the only one there is, so needs none
+        KeySet seen = current.canonical ? null : new KeySet();
+        for (Layer<V> r = current; null != r; r = r.previous) {
+            for (int i = 0; i < r.keys.length; i++) {
+                if (!r.isUsed(i))
+                    continue;
+                // the oldest layer's keys can't shadow anything, so needn't
+                // be remembered
+                if (null != seen && (r.canonical ? seen.contains(r.keys[i]) : !seen.add(r.keys[i])))
+                    continue;
+                if (r.isRemoved(i))
+                    continue;
+                action.accept(r.keys[i], (V)r.values[i]);
+            }
+            if (r.canonical)
+                break;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((k, v) -> sb.append(sb.length() > 1 ? ", " : "").append(k).append('=').append(v));
+        return sb.append('}').toString();
+    }
+
+    int depth() {
+        int n = 0;
+        for (Layer<V> r = current; null != r; r = r.previous)
+            n++;
+        return n;
+    }
+
+    // =======================================
+    private void rollForward() {
+        current = new Layer<>(current);
+    }
+
+    // =================================
+    private static final class Layer<V> {
+        private Layer() { // the initial root
+            locked = true;
+            canonical = true;
+            allocate(MIN_CAPACITY);
+        }
+        private Layer(Layer<V> previous) {
+            this.previous = previous;
+            size = previous.size;
+            allocate(MIN_CAPACITY);
+        }
+
+        private int find(long k) {
+            for (int i = mix(k) & mask; ; i = (i + 1) & mask) {
+                if (!isUsed(i))
+                    return -i - 1;
+                if (keys[i] == k)
+                    return i;
+            }
+        }
+        private void put(long k, Object v) {
+            int slot = find(k);
+            if (slot >= 0) {
+                values[slot] = v;
+                removed[slot >>> 6] &= ~(1L << slot);
+                return;
+            }
+            if ((count + 1) * 4 > keys.length * 3) {
+                grow();
+                slot = find(k);
+            }
+            slot = -slot - 1;
+            keys[slot] = k;
+            values[slot] = v;
+            used[slot >>> 6] |= 1L << slot;
+            count++;
+        }
+        // records the removal, even in a canonical layer; lock() drops those
+        private void remove(long k) {
+            int slot = find(k);
+            if (slot < 0) {
+                put(k, null);
+                slot = find(k);
+            }
+            values[slot] = null;
+            removed[slot >>> 6] |= 1L << slot;
+        }
+        private void reset() {
+            allocate(MIN_CAPACITY);
+            count = 0;
+        }
+        private void lock() {
+            if (locked)
+                return;
+            locked = true;
+            if (canonical)
+                rehash(keys.length);
+        }
+
+        private boolean isUsed(int slot) {
+            return 0 != (used[slot >>> 6] & (1L << slot));
+        }
+        private boolean isRemoved(int slot) {
+            return 0 != (removed[slot >>> 6] & (1L << slot));
+        }
+
+        private void grow() {
+            rehash(keys.length * 2);
+        }
+        // re-insert the live slots; removals only survive in non-canonical
+        // layers, where they shadow older ones
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            long[] oldUsed = used;
+            long[] oldRemoved = removed;
+            allocate(capacity);
+            count = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (0 == (oldUsed[i >>> 6] & (1L << i)))
+                    continue;
+                boolean gone = 0 != (oldRemoved[i >>> 6] & (1L << i));
+                if (gone && canonical)
+                    continue;
+                int slot = -find(oldKeys[i]) - 1;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                used[slot >>> 6] |= 1L << slot;
+                if (gone)
+                    removed[slot >>> 6] |= 1L << slot;
+                count++;
+            }
+        }
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+            used = new long[(capacity + 63) >>> 6];
+            removed = new long[used.length];
+            mask = capacity - 1;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d keys, %d slots %s %s", count, keys.length,
+                                 locked ? "locked" : "", canonical ? "canonical" : "");
+        }
+
+        private boolean locked = false;
+        private boolean canonical = false;
+        private int size = 0;
+        private Layer<V> previous = null;
+        private long[] keys;
+        private Object[] values;
+        private long[] used;
+        private long[] removed;
+        private int count;
+        private int mask;
+    }
+
+    // =================================
+    // open-addressing set of primitive keys, for forEach
+    private static final class KeySet {
+        private KeySet() {
+            allocate(MIN_CAPACITY);
+        }
+
+        private boolean contains(long k) {
+            return find(k) >= 0;
+        }
+        // true if k wasn't already there
+        private boolean add(long k) {
+            int slot = find(k);
+            if (slot >= 0)
+                return false;
+            if ((count + 1) * 4 > keys.length * 3) {
+                long[] oldKeys = keys;
+                long[] oldUsed = used;
+                allocate(keys.length * 2);
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (0 != (oldUsed[i >>> 6] & (1L << i)))
+                        insert(-find(oldKeys[i]) - 1, oldKeys[i]);
+                }
+                slot = find(k);
+            }
+            insert(-slot - 1, k);
+            count++;
+            return true;
+        }
+
+        private int find(long k) {
+            for (int i = mix(k) & mask; ; i = (i + 1) & mask) {
+                if (0 == (used[i >>> 6] & (1L << i)))
+                    return -i - 1;
+                if (keys[i] == k)
+                    return i;
+            }
+        }
+        private void insert(int slot, long k) {
+            keys[slot] = k;
+            used[slot >>> 6] |= 1L << slot;
+        }
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            used = new long[(capacity + 63) >>> 6];
+            mask = capacity - 1;
+        }
+
+        private long[] keys;
+        private long[] used;
+        private int count;
+        private int mask;
+    }
+
+    private static int mix(long k) {
+        int h = (int)(k ^ (k >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final int MIN_CAPACITY = 8;
+    private Layer<V> current = new Layer<>();
+}
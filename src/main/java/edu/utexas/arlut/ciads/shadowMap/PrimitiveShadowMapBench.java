@@ -0,0 +1,68 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import java.util.Random;
+
+import edu.utexas.arlut.ciads.ObjectSizeFetcher;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Retained bytes per mapping: ShadowMap with boxed Integer/Long keys against
+ * IntShadowMap and LongShadowMap. The same values are shared by all of them
+ * and left out of the count. Each revision writes REVISION_SIZE keys; an eighth
+ * overwrite an existing key, an eighth remove one, the rest are new.
+ * Needs the size agent, see ShadowMapForkBench.
+ */
+@Slf4j
+public class PrimitiveShadowMapBench {
+    private static final int REVISION_SIZE = 1_000;
+
+    public static void main(String[] args) {
+        int[] revisions = {1, 10, 100, 1_000};
+        for (int n : revisions) {
+            Object[] values = new Object[REVISION_SIZE];
+            for (int i = 0; i < values.length; i++)
+                values[i] = "V" + i;
+
+            ShadowMap<Integer, Object> boxedInt = new ShadowMap<>();
+            ShadowMap<Long, Object> boxedLong = new ShadowMap<>();
+            IntShadowMap<Object> ints = new IntShadowMap<>();
+            LongShadowMap<Object> longs = new LongShadowMap<>();
+            Random rnd = new Random(3);
+            int next = 0;
+            long writes = 0;
+            for (int r = 0; r < n; r++) {
+                for (int i = 0; i < REVISION_SIZE; i++, writes++) {
+                    int op = rnd.nextInt(8);
+                    int k = (op < 2 && next > 0) ? rnd.nextInt(next) : next++;
+                    Object v = values[i];
+                    if (0 == op && next > 0) {
+                        boxedInt.remove(k);
+                        boxedLong.remove((long)k);
+                        ints.remove(k);
+                        longs.remove(k);
+                    } else {
+                        boxedInt.put(k, v);
+                        boxedLong.put((long)k, v);
+                        ints.put(k, v);
+                        longs.put(k, v);
+                    }
+                }
+                boxedInt.commit();
+                boxedLong.commit();
+                ints.commit();
+                longs.commit();
+            }
+            log.info("{} revisions, {} live keys, {} writes:", n, ints.size(), writes);
+            report("ShadowMap<Integer>", ObjectSizeFetcher.getDeepSize(boxedInt, values), writes);
+            report("IntShadowMap", ObjectSizeFetcher.getDeepSize(ints, values), writes);
+            report("ShadowMap<Long>", ObjectSizeFetcher.getDeepSize(boxedLong, values), writes);
+            report("LongShadowMap", ObjectSizeFetcher.getDeepSize(longs, values), writes);
+        }
+    }
+
+    private static void report(String what, long bytes, long writes) {
+        log.info("  {}: {} KB, {} bytes/write",
+                 what, bytes / 1024, String.format("%.1f", (double)bytes / writes));
+    }
+}
@@ -1,17 +1,27 @@
 package edu.utexas.arlut.ciads.shadowMap;
 
 import com.google.common.collect.*;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Maps.newHashMap;
 import static com.google.common.collect.Queues.newArrayDeque;
+import static com.google.common.collect.Sets.newHashSet;
 
 @Slf4j
 public class ShadowMap<K extends Comparable<K>, V> implements Map<K, V> {
@@ -19,25 +29,270 @@ public class ShadowMap<K extends Comparable<K>, V> implements Map<K, V> {
     // toString()
     // test iterator
     // get history
-    // tag
     // test size
     // values()
-    // putAll size increment
     // test canonical short-cut
 
+    /**
+     * How a point lookup (get, containsKey, ...) finds its value.
+     * LAYERED walks the revision stack until it hits a canonical layer, so
+     * it costs O(depth). INDEXED gives each committed revision a persistent
+     * hash trie of the whole view, shared structurally with its predecessor,
+     * so a lookup is one probe of the working layer plus one trie descent,
+     * no matter how many commits came before it.
+     */
+    public enum Lookup {
+        LAYERED,
+        INDEXED
+    }
+
     public ShadowMap() {
-        history.add(current);
+        this(Lookup.LAYERED);
     }
-    public void commit() {
-        current.locked = true;
-        if (current.canonical) {
-            // yes, use ==
-            current.store.entrySet().removeIf(entry -> TOMBSTONE == entry.getValue());
+    public ShadowMap(Lookup lookup) {
+        this.indexed = (Lookup.INDEXED == lookup);
+        if (indexed)
+            current.index = HashTrie.empty();
+        published = current;
+    }
+    private ShadowMap(boolean indexed, Revision<K, V> from) {
+        this.indexed = indexed;
+        this.current = from;
+        this.published = from;
+    }
+
+    /**
+     * A new, independently writable map starting from the newest committed
+     * revision. Every locked ancestor is shared by reference, so a fork costs
+     * only what is later written to it, however large the common history.
+     * Tags and the compaction policy are not carried over.
+     */
+    public ShadowMap<K, V> fork() {
+        return new ShadowMap<>(indexed, published);
+    }
+    /**
+     * Fork from a tagged revision rather than the newest one.
+     */
+    public ShadowMap<K, V> fork(String tag) {
+        Revision<K, V> r = tags.get(tag);
+        checkArgument(null != r, "no tag %s", tag);
+        return new ShadowMap<>(indexed, r);
+    }
+    /**
+     * Lock the working revision and publish it: the returned handle is
+     * immutable and can be read from any thread while this map goes on to
+     * build the next revision.
+     */
+    public Revision<K, V> commit() {
+        if (!current.locked) {
+            if (current.canonical) {
+                // yes, use ==
+                current.store.entrySet().removeIf(entry -> TOMBSTONE == entry.getValue());
+            }
+            lock(current);
         }
+        installCompaction();
+        scheduleCompaction();
+        publish();
+        return current;
     }
     public void rollback() {
-        history.pop();
-        current = history.peek();
+        checkState(null != current.previous, "nothing to roll back");
+        if (null != valueCounts) {
+            if (null == current.valueDelta) {
+                // predates the index; recount when next asked
+                valueCounts = null;
+                valueIndexStale = true;
+            } else {
+                current.valueDelta.forEach((v, n) -> adjust(valueCounts, v, -n));
+            }
+        }
+        current = current.previous;
+        publish();
+    }
+
+    /**
+     * Keep a count of live keys per value, so that containsValue() and
+     * countValue() are O(1). put, remove, clear & rollback keep it current;
+     * each revision written from here on remembers its own change to the
+     * counts, so rolling it back is proportional to what it wrote. The
+     * first use after enabling, or after rolling back past that point,
+     * recounts in one pass. Forks don't inherit the index.
+     */
+    public void enableValueIndex() {
+        if (null != valueCounts || valueIndexStale)
+            return;
+        valueIndexStale = true;
+        if (!current.locked)
+            current.valueDelta = null;
+    }
+    /**
+     * How many live keys map to value.
+     */
+    public int countValue(Object value) {
+        Multiset<Object> counts = valueCounts();
+        if (null != counts)
+            return counts.count(value);
+        int n = 0;
+        for (Iterator<V> it = new ValueIterator(); it.hasNext(); ) {
+            if (it.next().equals(value))
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * The newest committed revision, safe to hand to reader threads.
+     */
+    public Revision<K, V> published() {
+        return published;
+    }
+
+    /**
+     * Name the newest committed revision. Tagged revisions stay readable
+     * through later commits, rollbacks and compactions; holding one costs
+     * only the layers it already shares with the live map. The name lives
+     * here, not on the revision, which forks may share.
+     */
+    public Revision<K, V> tag(String name) {
+        checkNotNull(name);
+        checkArgument(!tags.containsKey(name), "tag %s already exists", name);
+        Revision<K, V> r = published;
+        tags.put(name, r);
+        return r;
+    }
+    public void untag(String name) {
+        tags.remove(name);
+    }
+    public Set<String> tags() {
+        return Collections.unmodifiableSet(tags.keySet());
+    }
+    /**
+     * Read-only view of a tagged revision; no copying, whatever its size.
+     */
+    public Map<K, V> checkout(String name) {
+        Revision<K, V> r = tags.get(name);
+        checkArgument(null != r, "no tag %s", name);
+        return r.asMap();
+    }
+
+    /**
+     * What changed between two committed revisions: one Change per key whose
+     * value differs, in no particular order. Since each layer holds only its
+     * own delta, this walks the layers between the two revisions and their
+     * nearest common ancestor, noting each key's newest value on either side
+     * as it goes; only a key one side never touched costs a lookup, in the
+     * common ancestor. So the cost follows the size of the change, not the
+     * size of the map. Works in either direction and across forks.
+     * Revisions with no common layered history (different roots, or a
+     * compaction or clear() in between) fall back to comparing the full
+     * merged views entry by entry, which costs time proportional to the size
+     * of both maps, plus building either view's trie if it isn't yet cached.
+     */
+    public static <K, V> Stream<Change<K, V>> diff(Revision<K, V> from, Revision<K, V> to) {
+        checkArgument(from.locked && to.locked, "can only diff committed revisions");
+        Revision<K, V> common = commonAncestor(from, to);
+        Map<K, V> before = (null == common) ? null : newest(from, common);
+        Map<K, V> after = (null == common) ? null : newest(to, common);
+        if (null == before || null == after)
+            return fullDiff(from, to);
+        Set<K> keys = Sets.union(before.keySet(), after.keySet());
+        return keys.stream()
+                   .map(k -> new Change<>(k, valueAt(before, k, common), valueAt(after, k, common)))
+                   .filter(c -> !Objects.equals(c.before, c.after));
+    }
+
+    // the nearest revision both chains share, or null
+    private static <K, V> Revision<K, V> commonAncestor(Revision<K, V> from, Revision<K, V> to) {
+        // step both chains in turn, so only the layers up to the meeting
+        // point get visited, not the whole history
+        Set<Revision<K, V>> seenFrom = Sets.newIdentityHashSet();
+        Set<Revision<K, V>> seenTo = Sets.newIdentityHashSet();
+        Revision<K, V> a = from;
+        Revision<K, V> b = to;
+        while (null != a || null != b) {
+            if (null != a) {
+                if (seenTo.contains(a))
+                    return a;
+                seenFrom.add(a);
+                a = a.previous;
+            }
+            if (null != b) {
+                if (seenFrom.contains(b))
+                    return b;
+                seenTo.add(b);
+                b = b.previous;
+            }
+        }
+        return null;
+    }
+
+    // each key's newest value (TOMBSTONE included) in the layers from side
+    // down to common, or null if one of them was cleared
+    private static <K, V> Map<K, V> newest(Revision<K, V> side, Revision<K, V> common) {
+        Map<K, V> values = newHashMap();
+        for (Revision<K, V> r = side; r != common; r = r.previous) {
+            if (r.canonical)
+                return null;
+            r.store.forEach(values::putIfAbsent);
+        }
+        return values;
+    }
+
+    private static <K, V> V valueAt(Map<K, V> newest, K k, Revision<K, V> common) {
+        V v = newest.get(k);
+        if (null == v)
+            return common.get(k);
+        return (TOMBSTONE == v) ? null : v;
+    }
+
+    private static <K, V> Stream<Change<K, V>> fullDiff(Revision<K, V> from, Revision<K, V> to) {
+        HashTrie<K, V> a = from.trie();
+        HashTrie<K, V> b = to.trie();
+        List<Change<K, V>> changes = newArrayList();
+        HashTrie<K, V>.Cursor c = a.cursor();
+        while (c.advance()) {
+            V v = b.get(c.key());
+            if (!c.value().equals(v))
+                changes.add(new Change<>(c.key(), c.value(), v));
+        }
+        c = b.cursor();
+        while (c.advance()) {
+            if (null == a.get(c.key()))
+                changes.add(new Change<>(c.key(), null, c.value()));
+        }
+        return changes.stream();
+    }
+
+    /**
+     * One key's change in a diff. A null after means the key was removed, a
+     * null before that it was added.
+     */
+    public static final class Change<K, V> {
+        private Change(K key, V before, V after) {
+            this.key = key;
+            this.before = before;
+            this.after = after;
+        }
+        public K getKey() {
+            return key;
+        }
+        public V getBefore() {
+            return before;
+        }
+        public V getAfter() {
+            return after;
+        }
+        public boolean isRemove() {
+            return null == after;
+        }
+        @Override
+        public String toString() {
+            return isRemove() ? "-" + key : key + "=" + after;
+        }
+        private final K key;
+        private final V before;
+        private final V after;
     }
     @Override
     public int size() {
@@ -57,19 +312,12 @@ public class ShadowMap<K extends Comparable<K>, V> implements Map<K, V> {
 
     @Override
     public boolean containsValue(Object value) {
-        for (Revision<K, V> r : history) {
-            log.info("{}", r.store);
-            if (r.store.containsValue(value)) {
-                // make sure it hasn't been deleted later.
-                K k = null;
-                for (Map.Entry<K, V> e : r.store.entrySet()) {
-                    if (e.getValue().equals(value))
-                        k = e.getKey();
-                }
-                return containsKey(k);
-            }
-            if (r.canonical)
-                break;
+        Multiset<Object> counts = valueCounts();
+        if (null != counts)
+            return counts.contains(value);
+        for (Iterator<V> it = new ValueIterator(); it.hasNext(); ) {
+            if (it.next().equals(value))
+                return true;
         }
         return false;
     }
@@ -89,7 +337,12 @@ public class ShadowMap<K extends Comparable<K>, V> implements Map<K, V> {
         current.store.put(key, newV);
         if (null == oldV) {
             current.size++;
+        } else {
+            current.hash -= entryHash(key, oldV);
+            adjustValueCount(oldV, -1);
         }
+        current.hash += entryHash(key, newV);
+        adjustValueCount(newV, 1);
         return oldV;
     }
 
@@ -102,27 +355,81 @@ public class ShadowMap<K extends Comparable<K>, V> implements Map<K, V> {
             rollForward();
         current.store.put((K)key, (V)TOMBSTONE);
         current.size--;
+        current.hash -= entryHash(key, oldV);
+        adjustValueCount(oldV, -1);
         return oldV;
     }
 
+    /**
+     * Bulk put: resolves which keys are new in one pass over the layers,
+     * sizes the working store for the whole batch up front, and adjusts the
+     * size & hash once.
+     */
     @Override
     public void putAll(Map<? extends K, ? extends V> m) {
         if (current.locked)
             rollForward();
-//        current.store.putAll(m);
+        if (m.isEmpty())
+            return;
+        Map<Object, V> old = resolve(m.keySet());
+        if (m.size() > current.store.size()) {
+            Map<K, V> store = Maps.newHashMapWithExpectedSize(current.store.size() + m.size());
+            store.putAll(current.store);
+            current.store = store;
+        }
+        int hash = 0;
         for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
-            put(e.getKey(), e.getValue());
+            K k = e.getKey();
+            V v = e.getValue();
+            V oldV = old.get(k);
+            if (null != oldV) {
+                hash -= entryHash(k, oldV);
+                adjustValueCount(oldV, -1);
+            }
+            hash += entryHash(k, v);
+            adjustValueCount(v, 1);
+            current.store.put(k, v);
         }
-        // increment size...how?
+        current.size += m.size() - old.size();
+        current.hash += hash;
+    }
+
+    /**
+     * Bulk remove, resolved like putAll.
+     * @return how many of the keys were present
+     */
+    public int removeAll(Collection<?> keys) {
+        Map<Object, V> old = resolve(keys);
+        if (old.isEmpty())
+            return 0;
+        if (current.locked)
+            rollForward();
+        for (Map.Entry<Object, V> e : old.entrySet()) {
+            current.store.put((K)e.getKey(), (V)TOMBSTONE);
+            current.hash -= entryHash(e.getKey(), e.getValue());
+            adjustValueCount(e.getValue(), -1);
+        }
+        current.size -= old.size();
+        return old.size();
     }
 
     @Override
     public void clear() {
         if (current.locked)
             rollForward();
+        Multiset<Object> counts = valueCounts();
         current.store.clear();
         current.canonical = true;
         current.size = 0;
+        current.hash = 0;
+        if (null != counts) {
+            // this revision now takes away everything that was left
+            if (null != current.valueDelta) {
+                for (Multiset.Entry<Object> e : counts.entrySet())
+                    current.valueDelta.merge(e.getElement(), -e.getCount(), Integer::sum);
+            }
+            counts.clear();
+        }
     }
 
     @Override
@@ -137,7 +444,8 @@ public class ShadowMap<K extends Comparable<K>, V> implements Map<K, V> {
 
     @Override
     public Collection<V> values() {
-        return Collections2.transform(entrySet(), e->e.getValue());
+        Collection<V> vs = this.values;
+        return this.values == null ? (this.values = new Values()) : vs;
     }
 
     @Override
@@ -146,16 +454,58 @@ public class ShadowMap<K extends Comparable<K>, V> implements Map<K, V> {
         return this.entrySet == null ? (this.entrySet = new EntrySet()) : es;
     }
 
+    /**
+     * Iterate the live entries. With reuseEntry, every next() returns the
+     * same entry object, refilled, so a full scan allocates nothing per
+     * element; the entry is only good until the following next().
+     */
+    public Iterator<Entry<K, V>> entryIterator(boolean reuseEntry) {
+        return new EntryIterator(reuseEntry);
+    }
+
     @Override
     public void forEach(BiConsumer<? super K, ? super V> action) {
         checkNotNull(action);
-        for (Entry e : entrySet()) {
-            action.accept((K)e.getKey(), (V)e.getValue());
+        SMIterator it = new KeyIterator();
+        while (it.hasNext()) {
+            it.step();
+            action.accept(it.key, it.value);
         }
+    }
 
-        for (Revision<K,V> r: shortcutHistory()) {
-            log.info("TakeUntil Revision {}", r);
-        }
+    /**
+     * Compact in the background, from commit(), whenever the policy says so.
+     * A finished compaction is spliced in by the next commit(); readers of
+     * the current revision are never blocked. null turns it off.
+     */
+    public void setCompactionPolicy(CompactionPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Fold everything older than the newest retain committed revisions into
+     * one canonical base layer, on the calling thread. The retained
+     * revisions are re-laid over the base as copies, so forks and
+     * revisions already handed out keep the history they were built on.
+     */
+    public void compact(int retain) {
+        checkArgument(retain >= 1, "must retain at least one revision");
+        awaitCompaction();
+        Compaction<K, V> c = plan(retain);
+        if (null == c)
+            return;
+        c.run();
+        install(c);
+    }
+
+    /**
+     * Wait for a background compaction, if any, and splice it in.
+     */
+    public void awaitCompaction() {
+        if (null == pending)
+            return;
+        Futures.getUnchecked(pending.future);
+        install(pending);
     }
 
     public void dump() {
@@ -164,18 +514,64 @@ public class ShadowMap<K extends Comparable<K>, V> implements Map<K, V> {
         }
     }
     public void dumpAll() {
-        for (Revision r : history) {
+        for (Revision r : history()) {
             log.info("{}", r);
         }
     }
+    int depth() {
+        return Iterables.size(history());
+    }
+
+    // for subclasses that persist the working revision's delta: is there
+    // one, does it start with a clear(), and its raw store (with TOMBSTONEs)
+    boolean hasUncommitted() {
+        return !current.locked;
+    }
+    boolean uncommittedClear() {
+        return !current.locked && current.canonical;
+    }
+    Map<K, V> uncommitted() {
+        return Collections.unmodifiableMap(current.store);
+    }
+    // start a working revision even if nothing gets written to it
+    void beginRevision() {
+        if (current.locked)
+            rollForward();
+    }
+    static boolean isTombstone(Object v) {
+        return TOMBSTONE == v;
+    }
 
     @Override
     public int hashCode() {
-        int h = 0;
-        for (Revision<K, V> r : shortcutHistory()) {
-            h = 31 * h + (r == null ? 0 : r.hashCode());
+        return current.hash;
+    }
+    /**
+     * Map equality. Differing sizes or hashes settle it in O(1), as does
+     * sharing the same revision; otherwise it compares entries.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Map))
+            return false;
+        Map<?, ?> m = (Map)o;
+        if (m.size() != size())
+            return false;
+        if (o instanceof ShadowMap) {
+            ShadowMap<?, ?> sm = (ShadowMap)o;
+            if (sm.current.hash != current.hash)
+                return false;
+            if (sm.current == current)
+                return true;
         }
-        return h;
+        for (SMIterator it = new KeyIterator(); it.hasNext(); ) {
+            it.step();
+            if (!it.value.equals(m.get(it.key)))
+                return false;
+        }
+        return true;
     }
     @Override
     public String toString() {
@@ -184,8 +580,56 @@ public class ShadowMap<K extends Comparable<K>, V> implements Map<K, V> {
     }
 
     // =======================================
+    // the live value of each of keys that has one, found newest layer first.
+    // Each layer is probed with the keys still unresolved or scanned against
+    // them, whichever is smaller; a layer with a trie answers for the rest.
+    private Map<Object, V> resolve(Collection<?> keys) {
+        Map<Object, V> found = newHashMap();
+        Set<Object> pending = newHashSet(keys);
+        for (Revision<K, V> r : shortcutHistory()) {
+            if (pending.isEmpty())
+                break;
+            HashTrie<K, V> t = r.index;
+            if (null != t) {
+                for (Object k : pending) {
+                    V v = t.get(k);
+                    if (null != v)
+                        found.put(k, v);
+                }
+                break;
+            }
+            if (pending.size() <= r.store.size()) {
+                for (Iterator<Object> it = pending.iterator(); it.hasNext(); ) {
+                    Object k = it.next();
+                    V v = r.store.get(k);
+                    if (null == v)
+                        continue;
+                    if (TOMBSTONE != v)
+                        found.put(k, v);
+                    it.remove();
+                }
+            } else {
+                for (Map.Entry<K, V> e : r.store.entrySet()) {
+                    if (pending.remove(e.getKey()) && TOMBSTONE != e.getValue())
+                        found.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+        return found;
+    }
+
     private V lookup(Object k) {
+        if (indexed) {
+            if (current.locked)
+                return current.index.get(k);
+            V v = current.store.get(k);
+            if (null != v || current.canonical)
+                return v;
+            return current.previous.index.get(k);
+        }
         for (Revision<K, V> r : shortcutHistory()) {
+            if (null != r.index)
+                return r.index.get(k);
             V v = r.store.get(k);
             if (null != v)
                 return v;
@@ -193,10 +637,159 @@ public class ShadowMap<K extends Comparable<K>, V> implements Map<K, V> {
         return null;
     }
 
+    /**
+     * Once committed, split on the revision's trie so that parallel streams
+     * get exact, even pieces (SIZED | SUBSIZED). With uncommitted changes in
+     * the working layer, fall back to batches pulled from the iterator.
+     */
+    private <T> Spliterator<T> spliterator(Collection<T> c, BiFunction<K, V, T> fn, int characteristics) {
+        if (current.locked)
+            return current.trie().spliterator(fn, characteristics);
+        return Spliterators.spliterator(c, characteristics);
+    }
+
+    private void lock(Revision<K, V> r) {
+        if (r.locked)
+            return;
+        r.locked = true;
+        for (V v : r.store.values()) {
+            if (TOMBSTONE == v)
+                r.tombstones++;
+        }
+        if (indexed) {
+            HashTrie<K, V> base = r.canonical ? HashTrie.empty() : r.previous.index;
+            r.index = base.merge(r.store, TOMBSTONE);
+        }
+    }
+
+    private Compaction<K, V> plan(int retain) {
+        // history is newest first, & the oldest revision is always a base
+        //  (it has no previous)
+        Revision<K, V> boundary = null;
+        int skip = retain;
+        int revisions = 0;
+        long keys = 0;
+        long tombstones = 0;
+        for (Revision<K, V> r : history()) {
+            if (null == r.previous)
+                break;
+            if (!r.locked)
+                continue;
+            keys += r.store.size();
+            tombstones += r.tombstones;
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            if (null == boundary)
+                boundary = r;
+            revisions++;
+        }
+        if (null == boundary)
+            return null;
+
+        List<Revision<K, V>> layers = newArrayList();
+        for (Revision<K, V> r = boundary; null != r; r = r.previous) {
+            layers.add(r);
+            if (r.canonical)
+                break;
+        }
+        return new Compaction<>(boundary, layers, revisions, keys, tombstones);
+    }
+
+    private void scheduleCompaction() {
+        if (null == policy || null != pending)
+            return;
+        Compaction<K, V> c = plan(policy.retain());
+        if (null == c || !policy.shouldCompact(c.revisions, c.keys, c.tombstones))
+            return;
+        log.debug("compacting {} revisions, {} keys, {} tombstones", c.revisions, c.keys, c.tombstones);
+        c.future = COMPACTOR.submit(c);
+        pending = c;
+    }
+
+    private void installCompaction() {
+        if (null != pending && pending.future.isDone()) {
+            Futures.getUnchecked(pending.future);
+            install(pending);
+        }
+    }
+
+    private void install(Compaction<K, V> c) {
+        if (c == pending)
+            pending = null;
+        // a rollback may have popped the boundary since this was planned
+        List<Revision<K, V>> above = newArrayList();
+        boolean found = false;
+        for (Revision<K, V> r : history()) {
+            if (r == c.boundary) {
+                found = true;
+                break;
+            }
+            above.add(r);
+        }
+        if (!found)
+            return;
+        // the retained revisions may be shared with forks & handed-out
+        // handles, so they're copied onto the base rather than relinked; only
+        // an uncommitted working revision is ours alone to relink
+        Map<Revision<K, V>, Revision<K, V>> moved = Maps.newIdentityHashMap();
+        moved.put(c.boundary, c.base);
+        Revision<K, V> below = c.base;
+        for (Revision<K, V> r : Lists.reverse(above)) {
+            if (r.locked) {
+                Revision<K, V> copy = r.copyOnto(below);
+                moved.put(r, copy);
+                below = copy;
+            } else {
+                r.previous = below;
+                below = r;
+            }
+        }
+        current = below;
+        // tags follow their equivalents, letting the folded layers go
+        tags.replaceAll((name, r) -> moved.getOrDefault(r, r));
+        publish();
+    }
+
+    private void publish() {
+        published = current.locked ? current : current.previous;
+    }
+
     private void rollForward() {
         current.locked = true;
         current = new Revision<>(current);
-        history.push(current);
+        if (null != valueCounts || valueIndexStale)
+            current.valueDelta = newHashMap();
+    }
+
+    private void adjustValueCount(Object v, int n) {
+        if (null != current.valueDelta)
+            current.valueDelta.merge(v, n, Integer::sum);
+        if (null != valueCounts)
+            adjust(valueCounts, v, n);
+    }
+    private static void adjust(Multiset<Object> counts, Object v, int n) {
+        if (n > 0)
+            counts.add(v, n);
+        else
+            counts.remove(v, -n);
+    }
+    private Multiset<Object> valueCounts() {
+        if (valueIndexStale) {
+            Multiset<Object> counts = HashMultiset.create();
+            for (Iterator<V> it = new ValueIterator(); it.hasNext(); )
+                counts.add(it.next());
+            valueCounts = counts;
+            valueIndexStale = false;
+        }
+        return valueCounts;
+    }
+
+    // Map.Entry's hash; a map's is the sum over its entries, so it can be
+    // kept up to date by adding & subtracting
+    private static int entryHash(Object k, Object v) {
+        return Objects.hashCode(k) ^ Objects.hashCode(v);
     }
 
     private <V> V tombstoneToNull(V v) {
@@ -224,13 +817,44 @@ public class ShadowMap<K extends Comparable<K>, V> implements Map<K, V> {
         public final boolean remove(Object key) {
             return null != ShadowMap.this.remove(key);
         }
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            return ShadowMap.this.removeAll(c) > 0;
+        }
+        @Override
+        public Spliterator<K> spliterator() {
+            return ShadowMap.this.spliterator(this, (k, v) -> k, Spliterator.DISTINCT);
+        }
+    }
+
+    final class Values extends AbstractCollection<V> {
+        @Override
+        public Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+        @Override
+        public int size() {
+            return ShadowMap.this.size();
+        }
+        @Override
+        public void clear() {
+            ShadowMap.this.clear();
+        }
+        @Override
+        public final boolean contains(Object o) {
+            return ShadowMap.this.containsValue(o);
+        }
+        @Override
+        public Spliterator<V> spliterator() {
+            return ShadowMap.this.spliterator(this, (k, v) -> v, Spliterator.NONNULL);
+        }
     }
 
     final class EntrySet extends AbstractSet<Entry<K, V>> {
 
         @Override
         public Iterator<Entry<K, V>> iterator() {
-            return new EntryIterator();
+            return new EntryIterator(false);
         }
         @Override
         public int size() {
@@ -256,16 +880,28 @@ public class ShadowMap<K extends Comparable<K>, V> implements Map<K, V> {
             Object key = e.getKey();
             return ShadowMap.this.containsKey(key);
         }
+        @Override
+        public Spliterator<Entry<K, V>> spliterator() {
+            return ShadowMap.this.spliterator(this, AbstractMap.SimpleImmutableEntry::new,
+                                              Spliterator.DISTINCT | Spliterator.NONNULL);
+        }
     }
 
     // =================================
     final class EntryIterator extends SMIterator implements Iterator<Entry<K, V>> {
-        EntryIterator() {
+        EntryIterator(boolean reuseEntry) {
             super();
+            this.entry = reuseEntry ? new ReusedEntry<>() : null;
         }
         public final Entry<K, V> next() {
-            return this.nextNode();
+            step();
+            if (null == entry)
+                return new AbstractMap.SimpleImmutableEntry<>(key, value);
+            entry.key = key;
+            entry.value = value;
+            return entry;
         }
+        private final ReusedEntry<K, V> entry;
     }
 
     final class KeyIterator extends SMIterator implements Iterator<K> {
@@ -273,7 +909,8 @@ public class ShadowMap<K extends Comparable<K>, V> implements Map<K, V> {
             super();
         }
         public final K next() {
-            return this.nextNode().getKey();
+            step();
+            return key;
         }
     }
 
@@ -282,35 +919,157 @@ public class ShadowMap<K extends Comparable<K>, V> implements Map<K, V> {
             super();
         }
         public final V next() {
-            return this.nextNode().getValue();
+            step();
+            return value;
         }
     }
 
     // =================================
+    /**
+     * One pass over the layers visible from current, newest first. A key is
+     * emitted from the newest layer that holds it, unless that is a
+     * tombstone. Keys met in every layer but the oldest go into one seen
+     * set, so each entry costs a single probe however deep the stack: the
+     * walk is O(entries), and the set grows with the newer layers only, not
+     * with the (usually much larger) oldest one. In INDEXED mode the layers
+     * are just the working store and the committed trie.
+     */
     private abstract class SMIterator {
 
         SMIterator() {
-            for (Revision<K,V> r: history) {
-                Set<K> s = r.store.keySet();
-                keys = Sets.union(keys, r.store.keySet());
+            List<Map<K, V>> stores = newArrayList();
+            if (indexed) {
+                if (!current.locked)
+                    stores.add(current.store);
+                if (current.locked)
+                    trie = current.index.cursor();
+                else if (!current.canonical)
+                    trie = current.previous.index.cursor();
+            } else {
+                for (Revision<K, V> r : shortcutHistory())
+                    stores.add(r.store);
             }
-            it = keys.iterator();
+            layers = stores.toArray(new Map[stores.size()]);
+            sources = layers.length + ((null == trie) ? 0 : 1);
+            seen = (sources > 1) ? newHashSet() : null;
+            advance();
         }
-        Set<K> keys = Collections.emptySet();
-        Iterator<K> it;
         public boolean hasNext() {
-            return it.hasNext();
+            return hasNext;
+        }
+        final void step() {
+            if (!hasNext)
+                throw new NoSuchElementException();
+            key = nextKey;
+            value = nextValue;
+            advance();
         }
-        public Entry<K, V> nextNode() {
-            K k = it.next();
-            return new AbstractMap.SimpleImmutableEntry(k, get(k));
+        private void advance() {
+            for (; layer < layers.length; layer++, it = null) {
+                if (null == it)
+                    it = layers[layer].entrySet().iterator();
+                while (it.hasNext()) {
+                    Entry<K, V> e = it.next();
+                    // a tombstone still shadows the older layers
+                    if (shadowed(e.getKey(), layer) || TOMBSTONE == e.getValue())
+                        continue;
+                    found(e.getKey(), e.getValue());
+                    return;
+                }
+            }
+            if (null != trie) {
+                while (trie.advance()) {
+                    if (shadowed(trie.key(), layers.length))
+                        continue;
+                    found(trie.key(), trie.value());
+                    return;
+                }
+            }
+            hasNext = false;
+            nextKey = null;
+            nextValue = null;
         }
+        private void found(K k, V v) {
+            hasNext = true;
+            nextKey = k;
+            nextValue = v;
+        }
+        // true if a newer source already had k; otherwise marks k as seen,
+        // unless source is the oldest and nothing will look it up again
+        private boolean shadowed(Object k, int source) {
+            if (null == seen)
+                return false;
+            return (source == sources - 1) ? seen.contains(k) : !seen.add(k);
+        }
+
+        private final Map<K, V>[] layers;
+        private HashTrie<K, V>.Cursor trie = null;
+        // the layers, then the trie if any
+        private final int sources;
+        private final Set<Object> seen;
+        private int layer = 0;
+        private Iterator<Entry<K, V>> it = null;
+        private boolean hasNext;
+        private K nextKey;
+        private V nextValue;
+        K key;
+        V value;
+    }
+
+    /**
+     * Handed back by every next() of a reusing EntryIterator.
+     */
+    private static final class ReusedEntry<K, V> implements Entry<K, V> {
+        @Override
+        public K getKey() {
+            return key;
+        }
+        @Override
+        public V getValue() {
+            return value;
+        }
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<?, ?> e = (Entry)o;
+            return Objects.equals(key, e.getKey()) && Objects.equals(value, e.getValue());
+        }
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+        private K key;
+        private V value;
     }
     // =================================
     private final Predicate<Revision<K,V>> IS_CANONICAL = r -> r.canonical;
 
     private final Iterable<Revision<K,V>> shortcutHistory() {
-        return new TakeUntil(history, IS_CANONICAL);
+        return new TakeUntil(history(), IS_CANONICAL);
+    }
+    // newest first, following previous from the working revision
+    private Iterable<Revision<K, V>> history() {
+        final Revision<K, V> head = current;
+        return () -> new AbstractIterator<Revision<K, V>>() {
+            private Revision<K, V> next = head;
+            @Override
+            protected Revision<K, V> computeNext() {
+                if (null == next)
+                    return endOfData();
+                Revision<K, V> r = next;
+                next = r.previous;
+                return r;
+            }
+        };
     }
     private final class TakeUntil<T> implements Iterable<T> {
         private final Iterator<T> it;
@@ -342,6 +1101,53 @@ public class ShadowMap<K extends Comparable<K>, V> implements Map<K, V> {
         }
     }
 
+    // =======================================
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("shadowmap-compactor-%d").build());
+
+    /**
+     * Merge of the boundary revision and every layer below it, down to the
+     * nearest canonical one. Locked stores are never written again, so this
+     * can run off the owning thread.
+     */
+    private static final class Compaction<K, V> implements Runnable {
+        private Compaction(Revision<K, V> boundary, List<Revision<K, V>> layers,
+                           int revisions, long keys, long tombstones) {
+            this.boundary = boundary;
+            this.layers = layers;
+            this.revisions = revisions;
+            this.keys = keys;
+            this.tombstones = tombstones;
+        }
+
+        @Override
+        public void run() {
+            Map<K, V> merged = Maps.newHashMapWithExpectedSize(boundary.size);
+            for (Revision<K, V> r : Lists.reverse(layers)) {
+                for (Map.Entry<K, V> e : r.store.entrySet()) {
+                    if (TOMBSTONE == e.getValue())
+                        merged.remove(e.getKey());
+                    else
+                        merged.put(e.getKey(), e.getValue());
+                }
+            }
+            Revision<K, V> b = new Revision<>();
+            b.store = merged;
+            b.size = boundary.size;
+            b.index = boundary.index;
+            b.hash = boundary.hash;
+            base = b;
+        }
+
+        private final Revision<K, V> boundary;
+        private final List<Revision<K, V>> layers;
+        private final int revisions;
+        private final long keys;
+        private final long tombstones;
+        private Future<?> future;
+        private Revision<K, V> base;
+    }
+
     // =======================================
     // don't want this interned, (we compare with ==, & don't want false
     //  positives) so put it on the heap.
@@ -349,17 +1155,27 @@ public class ShadowMap<K extends Comparable<K>, V> implements Map<K, V> {
     private static java.util.function.Predicate<Object> NOT_TOMBSTONE = v -> v != TOMBSTONE;
 
 
+    private final boolean indexed;
+    private CompactionPolicy policy = null;
+    private Compaction<K, V> pending = null;
     private Revision<K, V> current = new Revision<>();
+    private volatile Revision<K, V> published;
+    private final Map<String, Revision<K, V>> tags = newHashMap();
+    // value -> live keys, when enabled; stale means recount before use
+    private Multiset<Object> valueCounts = null;
+    private boolean valueIndexStale = false;
 
-    // TODO
-    // need to make this a singly-linked list, so it can be stitched into
-    // other stacks
-    private final Deque<Revision<K, V>> history = newArrayDeque();
     private transient Set<K> keySet;
     private transient Set<Entry<K, V>> entrySet;
+    private transient Collection<V> values;
 
 
-    private static class Revision<K, V> {
+    /**
+     * One layer of the map. Once locked (committed), a revision never
+     * changes again, and the read methods here can be called from any number
+     * of threads, lock-free, while the owning ShadowMap builds the next one.
+     */
+    public static final class Revision<K, V> {
         private Revision() { // the initial root
             locked = true;
             canonical = true;
@@ -367,6 +1183,91 @@ public class ShadowMap<K extends Comparable<K>, V> implements Map<K, V> {
         private Revision(Revision<K, V> previous) {
             this.previous = previous;
             size = previous.size;
+            hash = previous.hash;
+        }
+
+        // an equivalent locked revision over below, sharing this one's store
+        private Revision<K, V> copyOnto(Revision<K, V> below) {
+            Revision<K, V> r = new Revision<>(below);
+            r.locked = true;
+            r.canonical = canonical;
+            r.size = size;
+            r.hash = hash;
+            r.tombstones = tombstones;
+            r.store = store;
+            r.index = index;
+            r.valueDelta = valueDelta;
+            return r;
+        }
+
+        public int getId() {
+            return id;
+        }
+        public int size() {
+            return size;
+        }
+        public boolean isEmpty() {
+            return 0 == size;
+        }
+        public V get(Object k) {
+            checkState(locked, "revision %s is not committed", id);
+            for (Revision<K, V> r = this; null != r; r = r.previous) {
+                HashTrie<K, V> t = r.index;
+                if (null != t)
+                    return t.get(k);
+                V v = r.store.get(k);
+                if (null != v)
+                    return (TOMBSTONE == v) ? null : v;
+                if (r.canonical)
+                    break;
+            }
+            return null;
+        }
+        public boolean containsKey(Object k) {
+            return null != get(k);
+        }
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            checkNotNull(action);
+            HashTrie<K, V>.Cursor c = trie().cursor();
+            while (c.advance())
+                action.accept(c.key(), c.value());
+        }
+
+        /**
+         * Read-only Map view of this revision, backed by its trie.
+         */
+        public Map<K, V> asMap() {
+            checkState(locked, "revision %s is not committed", id);
+            return new RevisionMap<>(this);
+        }
+
+        /**
+         * The merged trie of this (locked) revision. INDEXED revisions always
+         * have one; LAYERED ones build it on first use, from the nearest
+         * ancestor that has one (or from a canonical layer), and keep it.
+         * Concurrent builders just race to store equal tries.
+         */
+        private HashTrie<K, V> trie() {
+            HashTrie<K, V> t = index;
+            if (null != t)
+                return t;
+            Deque<Revision<K, V>> chain = newArrayDeque();
+            Revision<K, V> base = this;
+            while (null == base.index && !base.canonical) {
+                chain.push(base);
+                base = base.previous;
+            }
+            t = base.index;
+            if (null == t) {
+                t = HashTrie.<K, V>empty().merge(base.store, TOMBSTONE);
+                base.index = t;
+            }
+            while (!chain.isEmpty()) {
+                Revision<K, V> n = chain.pop();
+                t = t.merge(n.store, TOMBSTONE);
+                n.index = t;
+            }
+            return t;
         }
 
         @Override
@@ -375,24 +1276,86 @@ public class ShadowMap<K extends Comparable<K>, V> implements Map<K, V> {
         }
         @Override
         public int hashCode() {
-            return store.hashCode();
+            return hash;
         }
+        // committed revisions are equal when their views are
         @Override
         public boolean equals(Object that) {
             if (this == that) return true;
             if (null == that) return false;
             if (getClass() != that.getClass()) return false;
             Revision rev = (Revision)that;
-            return rev.store.equals(store);
+            if (!locked || !rev.locked || size != rev.size || hash != rev.hash)
+                return false;
+            return asMap().equals(rev.asMap());
         }
 
-        private String tag = "";
+        // everything but index is fixed by the time a revision is locked &
+        // published; index is only ever filled in with an equivalent trie
         private boolean locked = false;
         private boolean canonical = false;
         private int size = 0;
+        // the Map hash of the whole view, kept as entries come & go
+        private int hash = 0;
+        private int tombstones = 0;
         private Revision<K, V> previous = null;
         private Map<K, V> store = newHashMap();
+        // merged view as of this revision; set when locked in INDEXED mode,
+        // on first use otherwise
+        private volatile HashTrie<K, V> index = null;
+        // this revision's change to the value counts, when they're kept
+        private Map<Object, Integer> valueDelta = null;
         private static AtomicInteger ID = new AtomicInteger(0);
         private final int id = ID.getAndIncrement();
     }
+
+    private static final class RevisionMap<K, V> extends AbstractMap<K, V> {
+        private RevisionMap(Revision<K, V> r) {
+            this.r = r;
+        }
+        @Override
+        public int size() {
+            return r.size();
+        }
+        @Override
+        public V get(Object k) {
+            return r.get(k);
+        }
+        @Override
+        public int hashCode() {
+            return r.hash;
+        }
+        @Override
+        public boolean containsKey(Object k) {
+            return r.containsKey(k);
+        }
+        @Override
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            r.forEach(action);
+        }
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return new AbstractSet<Entry<K, V>>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    HashTrie<K, V>.Cursor c = r.trie().cursor();
+                    return new AbstractIterator<Entry<K, V>>() {
+                        @Override
+                        protected Entry<K, V> computeNext() {
+                            return c.advance() ? new SimpleImmutableEntry<>(c.key(), c.value()) : endOfData();
+                        }
+                    };
+                }
+                @Override
+                public int size() {
+                    return r.size();
+                }
+                @Override
+                public Spliterator<Entry<K, V>> spliterator() {
+                    return r.trie().spliterator(SimpleImmutableEntry::new, Spliterator.DISTINCT | Spliterator.NONNULL);
+                }
+            };
+        }
+        private final Revision<K, V> r;
+    }
 }
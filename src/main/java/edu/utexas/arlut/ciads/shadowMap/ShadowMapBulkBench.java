@@ -0,0 +1,69 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Loading BATCH-entry batches, one commit each, on top of HISTORY small
+ * revisions: putAll() against a put() per entry. Half of every batch
+ * overwrites existing keys.
+ */
+@Slf4j
+public class ShadowMapBulkBench {
+    private static final int BATCH = 100_000;
+    private static final int BATCHES = 10;
+    private static final int HISTORY = 50;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            for (boolean bulk : new boolean[]{false, true}) {
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < ROUNDS; round++)
+                    best = Math.min(best, load(mode, bulk));
+                log.info("{} {}: {} ns/entry", mode, bulk ? "putAll" : "put   ",
+                         String.format("%.1f", (double)best / (BATCH * BATCHES)));
+            }
+        }
+    }
+
+    private static long load(ShadowMap.Lookup mode, boolean bulk) {
+        ShadowMap<Integer, Integer> sm = new ShadowMap<>(mode);
+        Random rnd = new Random(9);
+        for (int r = 0; r < HISTORY; r++) {
+            for (int i = 0; i < 100; i++)
+                sm.put(rnd.nextInt(BATCH * BATCHES), r);
+            sm.commit();
+        }
+        Map<Integer, Integer>[] batches = new Map[BATCHES];
+        int next = 0;
+        for (int b = 0; b < BATCHES; b++) {
+            batches[b] = Maps.newHashMapWithExpectedSize(BATCH);
+            while (batches[b].size() < BATCH) {
+                int k = (rnd.nextBoolean() && next > 0) ? rnd.nextInt(next) : next++;
+                batches[b].put(k, b);
+            }
+        }
+
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        for (Map<Integer, Integer> batch : batches) {
+            if (bulk) {
+                sm.putAll(batch);
+            } else {
+                for (Map.Entry<Integer, Integer> e : batch.entrySet())
+                    sm.put(e.getKey(), e.getValue());
+            }
+            sm.commit();
+        }
+        stopwatch.stop();
+        if (sm.size() < BATCH)
+            log.error("lost entries: {}", sm.size());
+        return stopwatch.elapsed(TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,65 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import edu.utexas.arlut.ciads.ObjectSizeFetcher;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Retained memory of what-if scenarios over one large base: a fork per
+ * scenario against a full HashMap copy per scenario. Needs the size agent:
+ * java -javaagent:scratch.jar [--add-opens java.base/java.util=ALL-UNNAMED]
+ * ... ShadowMapForkBench [baseEntries [scenarios [writesPerScenario]]]
+ */
+@Slf4j
+public class ShadowMapForkBench {
+    public static void main(String[] args) {
+        int entries = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        int scenarios = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+        int writes = (args.length > 2) ? Integer.parseInt(args[2]) : 1_000;
+
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            ShadowMap<Integer, Integer> base = new ShadowMap<>(mode);
+            for (int i = 0; i < entries; i++)
+                base.put(i, i);
+            base.commit();
+            long baseBytes = ObjectSizeFetcher.getDeepSize(base);
+
+            List<ShadowMap<Integer, Integer>> forks = newArrayList();
+            Random rnd = new Random(1);
+            for (int s = 0; s < scenarios; s++) {
+                ShadowMap<Integer, Integer> f = base.fork();
+                for (int i = 0; i < writes; i++)
+                    f.put(rnd.nextInt(entries), -s);
+                f.commit();
+                forks.add(f);
+            }
+            long forkBytes = 0;
+            for (ShadowMap<Integer, Integer> f : forks)
+                forkBytes += ObjectSizeFetcher.getDeepSize(f, base);
+
+            log.info("{} base of {} entries: {} MB", mode, entries, mb(baseBytes));
+            log.info("{} {} forks x {} writes: {} MB total, {} bytes/write",
+                     mode, scenarios, writes, mb(forkBytes), forkBytes / ((long)scenarios * writes));
+        }
+
+        // the old way: a full copy per scenario
+        Map<Integer, Integer> base = new HashMap<>(entries * 2);
+        for (int i = 0; i < entries; i++)
+            base.put(i, i);
+        Map<Integer, Integer> copy = new HashMap<>(base);
+        long copyBytes = ObjectSizeFetcher.getDeepSize(copy, base);
+        log.info("HashMap copy: {} MB per scenario, {} MB for {}",
+                 mb(copyBytes), mb(copyBytes * scenarios), scenarios);
+    }
+
+    private static String mb(long bytes) {
+        return String.format("%.1f", bytes / (1024.0 * 1024.0));
+    }
+}
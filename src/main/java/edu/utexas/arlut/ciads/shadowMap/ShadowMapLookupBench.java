@@ -0,0 +1,65 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Point lookup latency against history depth, LAYERED vs INDEXED.
+ * Each revision commits KEYS_PER_REVISION fresh keys; lookups are spread
+ * uniformly over every key ever written, so most of them resolve deep in the
+ * history.
+ */
+@Slf4j
+public class ShadowMapLookupBench {
+    private static final int KEYS_PER_REVISION = 4;
+    private static final int LOOKUPS = 200_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int[] depths = {1, 10, 100, 1_000, 10_000};
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            for (int depth : depths) {
+                ShadowMap<String, String> sm = build(mode, depth);
+                double ns = measure(sm, depth * KEYS_PER_REVISION);
+                log.info("{} revisions {}: {} ns/get", mode, depth, String.format("%.1f", ns));
+            }
+        }
+    }
+
+    private static ShadowMap<String, String> build(ShadowMap.Lookup mode, int depth) {
+        ShadowMap<String, String> sm = new ShadowMap<>(mode);
+        int k = 0;
+        for (int r = 0; r < depth; r++) {
+            for (int i = 0; i < KEYS_PER_REVISION; i++, k++)
+                sm.put("K" + k, "V" + k);
+            sm.commit();
+        }
+        return sm;
+    }
+
+    private static double measure(ShadowMap<String, String> sm, int keyCount) {
+        String[] keys = new String[LOOKUPS];
+        Random rnd = new Random(42);
+        for (int i = 0; i < LOOKUPS; i++)
+            keys[i] = "K" + rnd.nextInt(keyCount);
+
+        long best = Long.MAX_VALUE;
+        int hits = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            for (String k : keys) {
+                if (null != sm.get(k))
+                    hits++;
+            }
+            stopwatch.stop();
+            best = Math.min(best, stopwatch.elapsed(TimeUnit.NANOSECONDS));
+        }
+        if (hits != LOOKUPS * ROUNDS)
+            log.error("missed {} lookups", LOOKUPS * ROUNDS - hits);
+        return (double)best / LOOKUPS;
+    }
+}
@@ -0,0 +1,100 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Aggregate read throughput on published revisions at 1..64 reader threads,
+ * with one writer committing new revisions the whole time. Readers re-fetch
+ * published() every READS_PER_SNAPSHOT gets.
+ */
+@Slf4j
+public class ShadowMapReaderBench {
+    private static final int KEYS = 100_000;
+    private static final int KEYS_PER_COMMIT = 16;
+    private static final int READS_PER_SNAPSHOT = 1_000;
+    private static final long MILLIS = 2_000;
+
+    public static void main(String[] args) throws Exception {
+        int[] threads = {1, 2, 4, 8, 16, 32, 64};
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            for (int n : threads) {
+                double rate = measure(mode, n);
+                log.info("{} {} readers: {} M reads/s", mode, n, String.format("%.2f", rate / 1e6));
+            }
+        }
+    }
+
+    private static double measure(ShadowMap.Lookup mode, int readers) throws Exception {
+        ShadowMap<String, String> sm = new ShadowMap<>(mode);
+        sm.setCompactionPolicy(CompactionPolicy.byRevisions(16, 64));
+        String[] keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "K" + i;
+            sm.put(keys[i], "V" + i);
+        }
+        sm.commit();
+
+        AtomicBoolean done = new AtomicBoolean(false);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(readers + 1);
+        Future<?> writer = pool.submit(() -> {
+            Random rnd = new Random(7);
+            awaitQuietly(start);
+            for (int c = 0; !done.get(); c++) {
+                for (int i = 0; i < KEYS_PER_COMMIT; i++)
+                    sm.put(keys[rnd.nextInt(KEYS)], "W" + c);
+                sm.commit();
+            }
+        });
+        List<Future<Long>> results = Lists.newArrayList();
+        for (int t = 0; t < readers; t++) {
+            final int seed = t;
+            results.add(pool.submit(() -> {
+                Random rnd = new Random(seed);
+                awaitQuietly(start);
+                long reads = 0;
+                while (!done.get()) {
+                    ShadowMap.Revision<String, String> r = sm.published();
+                    for (int i = 0; i < READS_PER_SNAPSHOT; i++) {
+                        if (null == r.get(keys[rnd.nextInt(KEYS)]))
+                            throw new IllegalStateException("lost a key");
+                    }
+                    reads += READS_PER_SNAPSHOT;
+                }
+                return reads;
+            }));
+        }
+
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        start.countDown();
+        Thread.sleep(MILLIS);
+        done.set(true);
+        long total = 0;
+        for (Future<Long> f : results)
+            total += f.get();
+        stopwatch.stop();
+        writer.get();
+        pool.shutdown();
+        return total / (stopwatch.elapsed(TimeUnit.NANOSECONDS) / 1e9);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
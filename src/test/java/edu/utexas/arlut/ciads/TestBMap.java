@@ -0,0 +1,155 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+@Slf4j
+public class TestBMap {
+    // =================================
+    @Test
+    public void basics() {
+        BMap<String, String> m = new BMap<>();
+        assertTrue(m.isEmpty());
+        assertNull(m.firstEntry());
+        assertNull(m.ceilingKey("A"));
+        assertNull(m.put("B", "1"));
+        assertNull(m.put("A", "1"));
+        assertEquals("1", m.put("B", "2"));
+        assertEquals(2, m.size());
+        assertEquals("2", m.get("B"));
+        assertTrue(m.containsValue("2"));
+        assertFalse(m.containsValue("3"));
+        assertEquals(ImmutableList.of("A", "B"), ImmutableList.copyOf(m.keySet()));
+        assertEquals("1", m.remove("A"));
+        assertNull(m.remove("A"));
+        assertEquals(1, m.size());
+        m.clear();
+        assertTrue(m.isEmpty());
+        assertTrue(m.validate());
+    }
+    // =================================
+    @Test
+    public void againstTreeMap() {
+        for (int window : new int[]{2, 3, 32}) {
+            Random rnd = new Random(window);
+            BMap<Integer, Integer> m = new BMap<>(window);
+            TreeMap<Integer, Integer> model = new TreeMap<>();
+            for (int step = 0; step < 40_000; step++) {
+                int k = rnd.nextInt(3_000);
+                if (rnd.nextInt(100) < 55)
+                    assertEquals(model.put(k, step), m.put(k, step));
+                else
+                    assertEquals(model.remove(k), m.remove(k));
+                assertEquals(model.size(), m.size());
+                if (0 == step % 1_000) {
+                    assertTrue(m.validate());
+                    assertEquals(model, m);
+                    assertEquals(Lists.newArrayList(model.entrySet()), Lists.newArrayList(m.entrySet()));
+                }
+            }
+            assertTrue(m.validate());
+            for (int k = -1; k <= 3_001; k++) {
+                assertEquals(model.lowerEntry(k), m.lowerEntry(k));
+                assertEquals(model.floorEntry(k), m.floorEntry(k));
+                assertEquals(model.ceilingEntry(k), m.ceilingEntry(k));
+                assertEquals(model.higherKey(k), m.higherKey(k));
+            }
+            assertEquals(model.firstEntry(), m.firstEntry());
+            assertEquals(model.lastKey(), m.lastKey());
+            // drain it
+            while (!model.isEmpty()) {
+                assertEquals(model.pollFirstEntry(), m.pollFirstEntry());
+                assertEquals(model.pollLastEntry(), m.pollLastEntry());
+            }
+            assertTrue(m.isEmpty());
+            assertTrue(m.validate());
+        }
+    }
+    // =================================
+    @Test
+    public void views() {
+        BMap<Integer, String> m = new BMap<>(2);
+        TreeMap<Integer, String> model = new TreeMap<>();
+        for (int i = 0; i < 200; i += 2) {
+            m.put(i, "V" + i);
+            model.put(i, "V" + i);
+        }
+        check(model.subMap(10, true, 50, false), m.subMap(10, true, 50, false));
+        check(model.subMap(11, false, 51, true), m.subMap(11, false, 51, true));
+        check(model.headMap(30, true), m.headMap(30, true));
+        check(model.tailMap(170, false), m.tailMap(170, false));
+        check(model.descendingMap(), m.descendingMap());
+        check(model.descendingMap().subMap(80, true, 40, true), m.descendingMap().subMap(80, true, 40, true));
+        check(model.descendingMap().headMap(20, false), m.descendingMap().headMap(20, false));
+        check(model.subMap(10, true, 100, false).tailMap(40, true).headMap(60, false),
+              m.subMap(10, true, 100, false).tailMap(40, true).headMap(60, false));
+        assertEquals(Lists.newArrayList(model.descendingKeySet()), Lists.newArrayList(m.descendingKeySet()));
+        assertEquals(model.navigableKeySet().subSet(3, 9), m.navigableKeySet().subSet(3, 9));
+
+        NavigableMap<Integer, String> sub = m.subMap(10, true, 50, false);
+        try {
+            sub.put(50, "x");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // out of range
+        }
+        try {
+            sub.subMap(0, 20);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // out of range
+        }
+        // writes through the views
+        sub.put(11, "V11");
+        model.put(11, "V11");
+        sub.remove(12);
+        model.remove(12);
+        assertNull(sub.remove(60));
+        for (Iterator<Map.Entry<Integer, String>> it = m.tailMap(100, true).entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, String> e = it.next();
+            if (0 == e.getKey() % 4)
+                it.remove();
+            else
+                e.setValue("W");
+        }
+        for (Iterator<Map.Entry<Integer, String>> it = model.tailMap(100, true).entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, String> e = it.next();
+            if (0 == e.getKey() % 4)
+                it.remove();
+            else
+                e.setValue("W");
+        }
+        m.descendingMap().headMap(190, true).clear();
+        model.descendingMap().headMap(190, true).clear();
+        assertEquals(model, m);
+        assertTrue(m.validate());
+    }
+    // =================================
+    @Test(expected = ConcurrentModificationException.class)
+    public void failFast() {
+        BMap<Integer, Integer> m = new BMap<>(2);
+        for (int i = 0; i < 10; i++)
+            m.put(i, i);
+        for (Integer k : m.keySet())
+            m.remove(k + 1);
+    }
+
+    private static <K, V> void check(NavigableMap<K, V> expected, NavigableMap<K, V> actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.size(), actual.size());
+        assertEquals(Lists.newArrayList(expected.entrySet()), Lists.newArrayList(actual.entrySet()));
+        assertEquals(expected.firstEntry(), actual.firstEntry());
+        assertEquals(expected.lastEntry(), actual.lastEntry());
+        for (K k : Lists.newArrayList(expected.keySet())) {
+            assertEquals(expected.lowerEntry(k), actual.lowerEntry(k));
+            assertEquals(expected.higherEntry(k), actual.higherEntry(k));
+        }
+    }
+}
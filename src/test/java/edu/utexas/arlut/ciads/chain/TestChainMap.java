@@ -0,0 +1,124 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.chain;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+@Slf4j
+public class TestChainMap {
+    // =================================
+    @Test
+    public void layerFilters() {
+        ChainMap<String, String> filtered = new ChainMap<>();
+        ChainMap<String, String> plain = new ChainMap<>(false);
+        for (ChainMap<String, String> cm : new ChainMap[]{filtered, plain}) {
+            for (int r = 0; r < 1000; r++) {
+                for (int i = 0; i < 4; i++)
+                    cm.put("K" + (4 * r + i), "V" + r);
+                cm.commit();
+            }
+            cm.remove("K5");
+            cm.resetStats();
+            for (int k = 0; k < 4000; k++)
+                assertEquals(5 == k ? null : "V" + (k / 4), cm.get("K" + k));
+            assertNull(cm.get("nope"));
+            assertEquals(4001, cm.lookups());
+        }
+        // the filters skip nearly every layer that can't hold the key
+        log.info("probes per lookup: {} filtered, {} plain", filtered.probesPerLookup(), plain.probesPerLookup());
+        assertTrue(filtered.probesPerLookup() < 20);
+        assertTrue(plain.probesPerLookup() > 400);
+    }
+    // =================================
+    @Test
+    public void writesNotCounted() {
+        ChainMap<String, String> cm = new ChainMap<>(false);
+        for (int r = 0; r < 10; r++) {
+            cm.put("K" + r, "V" + r);
+            cm.commit();
+        }
+        cm.resetStats();
+        cm.put("K0", "X");
+        cm.put("new", "X");
+        cm.remove("K3");
+        assertEquals(0, cm.lookups());
+        assertEquals(0, cm.probes());
+        assertEquals("X", cm.get("new"));
+        assertEquals(1, cm.lookups());
+        assertEquals(1, cm.probes());
+    }
+    // =================================
+    @Test
+    public void workingLayer() {
+        ChainMap<String, String> cm = new ChainMap<>();
+        cm.put("A", "1");
+        cm.commit();
+        cm.put("A", "2");
+        assertEquals("2", cm.get("A"));
+        cm.rollback();
+        assertEquals("1", cm.get("A"));
+        cm.remove("A");
+        assertFalse(cm.containsKey("A"));
+        cm.commit();
+        assertNull(cm.get("A"));
+    }
+    // =================================
+    @Test
+    public void entrySet() {
+        ChainMap<String, String> cm = new ChainMap<>();
+        cm.put("A", "1");
+        cm.put("B", "1");
+        cm.commit();
+        assertNull(cm.put("C", "2"));
+        assertEquals("1", cm.put("A", "2"));
+        assertEquals("1", cm.remove("B"));
+        assertNull(cm.remove("B"));
+        assertEquals(2, cm.size());
+        assertEquals(ImmutableMap.of("A", "2", "C", "2"), cm);
+        assertEquals(ImmutableMap.of("A", "2", "C", "2").hashCode(), cm.hashCode());
+        assertTrue(cm.entrySet().contains(Maps.immutableEntry("A", "2")));
+        assertFalse(cm.entrySet().contains(Maps.immutableEntry("A", "1")));
+        cm.rollback();
+        assertEquals(ImmutableMap.of("A", "1", "B", "1"), cm);
+        cm.clear();
+        assertTrue(cm.isEmpty());
+        assertTrue(cm.entrySet().isEmpty());
+        cm.commit();
+        assertNull(cm.get("A"));
+    }
+    // =================================
+    @Test
+    public void againstHashMap() {
+        for (boolean filtered : new boolean[]{true, false}) {
+            Random rnd = new Random(31);
+            ChainMap<Integer, Integer> cm = new ChainMap<>(filtered);
+            Map<Integer, Integer> committed = Maps.newHashMap();
+            Map<Integer, Integer> model = Maps.newHashMap();
+            for (int step = 0; step < 5_000; step++) {
+                int k = rnd.nextInt(300);
+                int op = rnd.nextInt(100);
+                if (op < 50) {
+                    assertEquals(model.put(k, step), cm.put(k, step));
+                } else if (op < 85) {
+                    assertEquals(model.remove(k), cm.remove(k));
+                } else if (op < 97) {
+                    cm.commit();
+                    committed = Maps.newHashMap(model);
+                } else {
+                    cm.rollback();
+                    model = Maps.newHashMap(committed);
+                }
+                assertEquals(model.size(), cm.size());
+            }
+            assertEquals(model, Maps.newHashMap(cm));
+            assertEquals(model.size(), cm.entrySet().stream().count());
+        }
+    }
+}
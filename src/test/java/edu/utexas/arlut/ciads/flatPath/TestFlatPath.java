@@ -0,0 +1,109 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.flatPath;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+@Slf4j
+public class TestFlatPath {
+    // =================================
+    @Test
+    public void persistentSet() {
+        FlatPath<String> s0 = FlatPath.empty();
+        FlatPath<String> s1 = s0.add("AAA").add("BBB");
+        FlatPath<String> s2 = s1.add("CCC").remove("AAA");
+        assertSame(s1, s1.add("BBB"));
+        assertSame(s1, s1.remove("ZZZ"));
+
+        assertEquals(0, s0.size());
+        assertFalse(s0.contains("AAA"));
+        assertEquals(2, s1.size());
+        assertTrue(s1.contains("AAA"));
+        assertFalse(s1.contains("CCC"));
+        assertEquals(ImmutableSet.of("BBB", "CCC"), ImmutableSet.copyOf(s2));
+        assertTrue(s2.remove("BBB").remove("CCC").isEmpty());
+    }
+    // =================================
+    // colliding keys, with equal hashes, exercise the buckets that can't split
+    private static final class Collider {
+        private Collider(int id, int hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof Collider) && id == ((Collider)o).id;
+        }
+        private final int id;
+        private final int hash;
+    }
+    @Test
+    public void collisions() {
+        FlatPath<Collider> s = FlatPath.empty();
+        for (int i = 0; i < 3 * FlatTrie.LEAF_MAX; i++)
+            s = s.add(new Collider(i, i % 2));
+        assertEquals(3 * FlatTrie.LEAF_MAX, s.size());
+        for (int i = 0; i < 3 * FlatTrie.LEAF_MAX; i++)
+            assertTrue(s.contains(new Collider(i, i % 2)));
+        assertFalse(s.contains(new Collider(-1, 0)));
+        for (int i = 0; i < 3 * FlatTrie.LEAF_MAX; i += 2)
+            s = s.remove(new Collider(i, 0));
+        assertEquals(3 * FlatTrie.LEAF_MAX / 2, s.size());
+        assertEquals(s.size(), Sets.newHashSet(s).size());
+    }
+    // =================================
+    @Test
+    public void againstHashMap() {
+        Random rnd = new Random(18);
+        FlatPathMap<Integer, Integer> fm = FlatPathMap.empty();
+        FlatPath<Integer> fs = FlatPath.empty();
+        Map<Integer, Integer> model = Maps.newHashMap();
+        FlatPathMap<Integer, Integer> snapshot = fm;
+        Map<Integer, Integer> snapshotModel = Maps.newHashMap();
+        for (int step = 0; step < 50_000; step++) {
+            int k = rnd.nextInt(5_000) << rnd.nextInt(16);
+            if (rnd.nextInt(100) < 60) {
+                fm = fm.put(k, step);
+                fs = fs.add(k);
+                model.put(k, step);
+            } else {
+                fm = fm.remove(k);
+                fs = fs.remove(k);
+                model.remove(k);
+            }
+            assertEquals(model.size(), fm.size());
+            assertEquals(model.size(), fs.size());
+            assertEquals(model.get(k), fm.get(k));
+            if (0 == step % 10_000) {
+                snapshot = fm;
+                snapshotModel = Maps.newHashMap(model);
+            }
+        }
+        Map<Integer, Integer> seen = Maps.newHashMap();
+        fm.forEach((k, v) -> assertNull(seen.put(k, v)));
+        assertEquals(model, seen);
+        seen.clear();
+        for (Map.Entry<Integer, Integer> e : fm)
+            assertNull(seen.put(e.getKey(), e.getValue()));
+        assertEquals(model, seen);
+        Set<Integer> keys = Sets.newHashSet(fs);
+        assertEquals(model.keySet(), keys);
+        // older versions are untouched
+        seen.clear();
+        snapshot.forEach(seen::put);
+        assertEquals(snapshotModel, seen);
+    }
+}
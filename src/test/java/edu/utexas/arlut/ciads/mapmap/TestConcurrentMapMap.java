@@ -0,0 +1,89 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.mapmap;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+@Slf4j
+public class TestConcurrentMapMap {
+    private static final int WRITERS = 8;
+    private static final int KEYS_PER_WRITER = 20_000;
+
+    // =================================
+    @Test
+    public void basics() {
+        ConcurrentMapMap<String, String> mm = new ConcurrentMapMap<>(60);
+        assertEquals(64, mm.order());
+        assertNull(mm.put("AAA", "1"));
+        assertEquals("1", mm.put("AAA", "2"));
+        assertEquals("2", mm.putIfAbsent("AAA", "3"));
+        assertNull(mm.putIfAbsent("BBB", "1"));
+        assertEquals(2, mm.size());
+        assertEquals("2", mm.get("AAA"));
+        assertTrue(mm.containsKey("BBB"));
+        assertFalse(mm.containsKey("CCC"));
+
+        assertEquals("2", mm.remove("AAA"));
+        assertNull(mm.remove("AAA"));
+        assertEquals("1", mm.remove("BBB"));
+        assertTrue(mm.isEmpty());
+        // emptied buckets are dropped
+        assertEquals(0, mm.buckets());
+        mm.put("AAA", "4");
+        assertEquals("4", mm.get("AAA"));
+    }
+    // =================================
+    @Test
+    public void concurrentWriters() throws Exception {
+        for (int order : new int[]{1, 16, 1024}) {
+            ConcurrentMapMap<Integer, Integer> mm = new ConcurrentMapMap<>(order);
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService pool = Executors.newFixedThreadPool(WRITERS);
+            List<Future<?>> fs = Lists.newArrayList();
+            for (int w = 0; w < WRITERS; w++) {
+                final int writer = w;
+                fs.add(pool.submit(() -> {
+                    start.await();
+                    // interleaved keys, so writers share buckets; every
+                    // other key is removed again, emptying some buckets
+                    for (int i = writer; i < WRITERS * KEYS_PER_WRITER; i += WRITERS) {
+                        assertNull(mm.put(i, i));
+                        if (0 == (i & 1))
+                            assertEquals(i, (int)mm.remove(i));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : fs)
+                f.get();
+            pool.shutdown();
+
+            assertEquals(WRITERS * KEYS_PER_WRITER / 2, mm.size());
+            for (int i = 0; i < WRITERS * KEYS_PER_WRITER; i++)
+                assertEquals((0 == (i & 1)) ? null : (Integer)i, mm.get(i));
+
+            Map<Integer, Integer> seen = new ConcurrentHashMap<>();
+            AtomicInteger visits = new AtomicInteger();
+            mm.forEach((k, v) -> {
+                visits.incrementAndGet();
+                seen.put(k, v);
+            });
+            assertEquals(mm.size(), visits.get());
+            assertEquals(mm.size(), seen.size());
+            seen.forEach((k, v) -> assertEquals(k, v));
+        }
+    }
+}
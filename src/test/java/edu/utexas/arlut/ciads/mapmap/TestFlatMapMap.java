@@ -0,0 +1,60 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.mapmap;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+@Slf4j
+public class TestFlatMapMap {
+    // =================================
+    @Test
+    public void basics() {
+        FlatMapMap<String, String> mm = new FlatMapMap<>(60);
+        assertEquals(64, mm.majors());
+        assertNull(mm.put("AAA", "1"));
+        assertEquals("1", mm.put("AAA", "2"));
+        assertNull(mm.put("AAB", "1"));
+        assertNull(mm.put("BBB", "1"));
+        assertEquals(3, mm.size());
+        assertEquals("2", mm.get("AAA"));
+        assertTrue(mm.containsKey("BBB"));
+        assertFalse(mm.containsKey("CCC"));
+
+        assertEquals("2", mm.remove("AAA"));
+        assertNull(mm.remove("AAA"));
+        assertEquals("1", mm.remove("AAB"));
+        assertEquals("1", mm.remove("BBB"));
+        assertTrue(mm.isEmpty());
+        // emptied minors are dropped
+        assertEquals(0, mm.buckets());
+    }
+    // =================================
+    // colliding hashes exercise the probing & backward-shift removal
+    @Test
+    public void againstHashMap() {
+        for (int majors : new int[]{1, 16, 1 << 12}) {
+            Random rnd = new Random(majors);
+            FlatMapMap<Integer, Integer> mm = new FlatMapMap<>(majors);
+            Map<Integer, Integer> model = Maps.newHashMap();
+            for (int step = 0; step < 50_000; step++) {
+                int k = rnd.nextInt(2_000) << rnd.nextInt(20);
+                if (rnd.nextInt(100) < 55)
+                    assertEquals(model.put(k, step), mm.put(k, step));
+                else
+                    assertEquals(model.remove(k), mm.remove(k));
+                assertEquals(model.size(), mm.size());
+            }
+            for (Map.Entry<Integer, Integer> e : model.entrySet())
+                assertEquals(e.getValue(), mm.get(e.getKey()));
+            Map<Integer, Integer> seen = Maps.newHashMap();
+            mm.forEach((k, v) -> assertNull(seen.put(k, v)));
+            assertEquals(model, seen);
+        }
+    }
+}
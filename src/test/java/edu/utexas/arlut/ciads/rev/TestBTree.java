@@ -0,0 +1,245 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.rev;
+
+import static org.junit.Assert.*;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+@Slf4j
+public class TestBTree {
+    // =================================
+    @Test
+    public void snapshot() {
+        BTree<String, String> t0 = BTree.persistent(2);
+        t0.put("A", "1");
+        t0.put("B", "1");
+        BTree<String, String> t1 = t0.snapshot();
+        t0.put("A", "2");
+        t0.remove("B");
+        t0.put("C", "3");
+
+        assertEquals(2, t1.size());
+        assertEquals("1", t1.get("A"));
+        assertTrue(t1.contains("B"));
+        assertFalse(t1.contains("C"));
+        assertEquals(2, t0.size());
+        assertEquals("2", t0.get("A"));
+        assertFalse(t0.contains("B"));
+        assertNull(t0.remove("B"));
+    }
+    // =================================
+    // a node reached from two trees is never written through either
+    @Test
+    public void sharing() {
+        BTree<Integer, Integer> t = BTree.persistent(1);
+        for (int i = 0; i < 100; i++)
+            t.put(i, i);
+        BTree<Integer, Integer> s = t.snapshot();
+        for (int i = 0; i < 100; i += 2)
+            s.remove(i);
+        for (int i = 0; i < 100; i += 3)
+            t.put(i, -i);
+        assertEquals(100, t.size());
+        assertEquals(50, s.size());
+        assertEquals(-99, (int)t.get(99));
+        assertEquals(99, (int)s.get(99));
+        assertTrue(t.validate());
+        assertTrue(s.validate());
+    }
+    // =================================
+    @Test
+    public void mutableAgainstTreeMap() {
+        for (int order : new int[]{1, 2, 3, 8})
+            againstTreeMap(new BTree<>(order), false);
+    }
+    @Test
+    public void persistentAgainstTreeMap() {
+        for (int order : new int[]{1, 2, 3, 8})
+            againstTreeMap(BTree.persistent(order), true);
+    }
+
+    // =================================
+    @Test
+    public void load() {
+        for (int order : new int[]{1, 2, 3, 8}) {
+            for (double fill : new double[]{0.5, 0.75, 1.0}) {
+                for (int n = 0; n < 300; n++) {
+                    TreeMap<Integer, Integer> model = new TreeMap<>();
+                    for (int i = 0; i < n; i++)
+                        model.put(2 * i, i);
+                    BTree<Integer, Integer> t = new BTree<>(order, model.entrySet().iterator(), fill);
+                    check(model, t);
+                    // and it's an ordinary tree from here on
+                    t.put(-1, -1);
+                    t.put(2 * n + 1, -1);
+                    t.remove(0);
+                    model.put(-1, -1);
+                    model.put(2 * n + 1, -1);
+                    model.remove(0);
+                    check(model, t);
+                }
+            }
+        }
+    }
+    @Test
+    public void loadPersistent() {
+        TreeMap<Integer, Integer> model = new TreeMap<>();
+        for (int i = 0; i < 1_000; i++)
+            model.put(i, i);
+        BTree<Integer, Integer> t = BTree.persistent(2, model.entrySet().iterator(), 0.75);
+        BTree<Integer, Integer> s = t.snapshot();
+        t.remove(500);
+        check(model, s);
+        model.remove(500);
+        check(model, t);
+    }
+    @Test(expected = IllegalArgumentException.class)
+    public void loadUnsorted() {
+        TreeMap<Integer, Integer> model = new TreeMap<>();
+        for (int i = 0; i < 10; i++)
+            model.put(i, i);
+        new BTree<>(2, model.descendingMap().entrySet().stream());
+    }
+
+    // =================================
+    @Test
+    public void navigation() {
+        Random rnd = new Random(25);
+        for (int order : new int[]{1, 2, 5}) {
+            TreeMap<Integer, Integer> model = new TreeMap<>();
+            BTree<Integer, Integer> t = new BTree<>(order);
+            for (int i = 0; i < 500; i++) {
+                int k = 3 * rnd.nextInt(400);
+                model.put(k, i);
+                t.put(k, i);
+            }
+            for (int k = -5; k < 1_210; k++) {
+                assertEquals(model.floorEntry(k), t.floor(k));
+                assertEquals(model.ceilingEntry(k), t.ceiling(k));
+            }
+            for (int n = 0; n < 200; n++) {
+                int a = rnd.nextInt(1_210) - 5;
+                int b = a + rnd.nextInt(300);
+                boolean ai = rnd.nextBoolean();
+                boolean bi = rnd.nextBoolean();
+                assertEquals(model.subMap(a, ai, b, bi), copy(t.subMap(a, ai, b, bi)));
+                assertEquals(model.headMap(b, bi), copy(t.headMap(b, bi)));
+                assertEquals(model.tailMap(a, ai), copy(t.tailMap(a, ai)));
+            }
+            assertEquals(model, copy(t.headMap(Integer.MAX_VALUE)));
+            assertTrue(copy(t.subMap(7, 7)).isEmpty());
+        }
+        assertNull(new BTree<Integer, Integer>(2).floor(1));
+        assertFalse(new BTree<Integer, Integer>(2).cursor().advance());
+    }
+    @Test
+    public void cursor() {
+        BTree<String, Integer> t = new BTree<>(1);
+        for (String k : new String[]{"d", "b", "a", "c", "e"})
+            t.put(k, (int)k.charAt(0));
+        StringBuilder sb = new StringBuilder();
+        for (BTree.Cursor<String, Integer> c = t.subMap("b", "e").cursor(); c.advance(); )
+            sb.append(c.key()).append(c.value());
+        assertEquals("b98c99d100", sb.toString());
+    }
+    // an exhausted cursor stays exhausted
+    @Test
+    public void cursorPastEnd() {
+        BTree.Cursor<Integer, Integer> empty = new BTree<Integer, Integer>(2).cursor();
+        assertFalse(empty.advance());
+        assertFalse(empty.advance());
+
+        BTree<Integer, Integer> t = new BTree<>(1);
+        for (int i = 0; i < 20; i++)
+            t.put(i, i);
+        BTree.Cursor<Integer, Integer> c = t.subMap(5, 7).cursor();
+        assertTrue(c.advance());
+        assertTrue(c.advance());
+        assertFalse(c.advance());
+        assertFalse(c.advance());
+        c = t.tailMap(19).cursor();
+        assertTrue(c.advance());
+        assertFalse(c.advance());
+        assertFalse(c.advance());
+    }
+    @Test(expected = ConcurrentModificationException.class)
+    public void cursorFailsFast() {
+        BTree<Integer, Integer> t = new BTree<>(2);
+        t.put(1, 1);
+        t.put(2, 2);
+        BTree.Cursor<Integer, Integer> c = t.cursor();
+        c.advance();
+        t.put(3, 3);
+        c.advance();
+    }
+    @Test
+    public void iteratorRemove() {
+        TreeMap<Integer, Integer> model = new TreeMap<>();
+        BTree<Integer, Integer> t = new BTree<>(2);
+        for (int i = 0; i < 1_000; i++) {
+            model.put(i, i);
+            t.put(i, i);
+        }
+        Iterator<Map.Entry<Integer, Integer>> it = t.subMap(100, 900).iterator();
+        while (it.hasNext()) {
+            if (0 != it.next().getKey() % 3)
+                it.remove();
+        }
+        model.subMap(100, 900).keySet().removeIf(k -> 0 != k % 3);
+        check(model, t);
+    }
+
+    private static <K extends Comparable<K>, V> Map<K, V> copy(BTree.Range<K, V> r) {
+        Map<K, V> m = new TreeMap<>();
+        r.forEach((k, v) -> assertNull(m.put(k, v)));
+        // the iterator must agree, in order
+        Iterator<Map.Entry<K, V>> it = r.iterator();
+        for (Map.Entry<K, V> e : m.entrySet())
+            assertEquals(e, it.next());
+        assertFalse(it.hasNext());
+        return m;
+    }
+
+    private static void againstTreeMap(BTree<Integer, Integer> t, boolean snapshots) {
+        Random rnd = new Random(21);
+        Map<Integer, Integer> model = new TreeMap<>();
+        List<BTree<Integer, Integer>> versions = Lists.newArrayList();
+        List<Map<Integer, Integer>> models = Lists.newArrayList();
+        for (int step = 0; step < 20_000; step++) {
+            int k = rnd.nextInt(2_000);
+            if (rnd.nextInt(100) < 55) {
+                t.put(k, step);
+                model.put(k, step);
+            } else {
+                t.remove(k);
+                model.remove(k);
+            }
+            if (snapshots && 0 == step % 1_000) {
+                versions.add(t.snapshot());
+                models.add(new TreeMap<>(model));
+            }
+        }
+        check(model, t);
+        for (int i = 0; i < versions.size(); i++)
+            check(models.get(i), versions.get(i));
+    }
+
+    private static void check(Map<Integer, Integer> model, BTree<Integer, Integer> t) {
+        assertTrue(t.validate());
+        assertEquals(model.size(), t.size());
+        Map<Integer, Integer> seen = Maps.newTreeMap();
+        for (Map.Entry<Integer, Integer> e : t)
+            seen.put(e.getKey(), e.getValue());
+        assertEquals(model, seen);
+    }
+}
@@ -0,0 +1,85 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.rev;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+@Slf4j
+public class TestMTree {
+    // =================================
+    @Test
+    public void persistent() {
+        MTree<String, String> m0 = MTree.empty();
+        MTree<String, String> m1 = m0.put("A", "1").put("B", "1");
+        MTree<String, String> m2 = m1.put("A", "2").remove("B");
+        assertSame(m1, m1.put("B", "1"));
+        assertSame(m1, m1.remove("C"));
+
+        assertTrue(m0.isEmpty());
+        assertNull(m0.get("A"));
+        assertEquals(2, m1.size());
+        assertEquals("1", m1.get("A"));
+        assertEquals(1, m2.size());
+        assertEquals("2", m2.get("A"));
+        assertFalse(m2.containsKey("B"));
+        assertTrue(m2.remove("A").isEmpty());
+        assertEquals("{A=2}", m2.toString());
+    }
+    // =================================
+    // "Aa" & "BB" share a hash; so do "AaAa", "AaBB", "BBAa" & "BBBB"
+    @Test
+    public void collisions() {
+        MTree<String, Integer> m = MTree.empty();
+        for (String k : new String[]{"Aa", "BB", "AaAa", "AaBB", "BBAa", "BBBB"})
+            m = m.put(k, k.length());
+        assertEquals(6, m.size());
+        assertEquals(2, (int)m.get("BB"));
+        assertEquals(4, (int)m.get("BBAa"));
+        m = m.remove("Aa").remove("AaBB").remove("BBBB");
+        assertEquals(ImmutableMap.of("BB", 2, "AaAa", 4, "BBAa", 4), ImmutableMap.copyOf(m));
+    }
+    // =================================
+    @Test
+    public void againstHashMap() {
+        Random rnd = new Random(20);
+        MTree<Integer, Integer> m = MTree.empty();
+        Map<Integer, Integer> model = Maps.newHashMap();
+        List<MTree<Integer, Integer>> versions = Lists.newArrayList();
+        List<Map<Integer, Integer>> models = Lists.newArrayList();
+        for (int step = 0; step < 50_000; step++) {
+            int k = rnd.nextInt(4_000) << rnd.nextInt(16);
+            if (rnd.nextInt(100) < 60) {
+                m = m.put(k, step);
+                model.put(k, step);
+            } else {
+                m = m.remove(k);
+                model.remove(k);
+            }
+            assertEquals(model.size(), m.size());
+            assertEquals(model.get(k), m.get(k));
+            if (0 == step % 5_000) {
+                versions.add(m);
+                models.add(Maps.newHashMap(model));
+            }
+        }
+        Map<Integer, Integer> seen = Maps.newHashMap();
+        for (Map.Entry<Integer, Integer> e : m)
+            assertNull(seen.put(e.getKey(), e.getValue()));
+        assertEquals(model, seen);
+        // every old version still reads as it was
+        for (int i = 0; i < versions.size(); i++) {
+            seen.clear();
+            versions.get(i).forEach(seen::put);
+            assertEquals(models.get(i), seen);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@Slf4j
+public class TestDurableShadowMap {
+    private Path dir;
+    @Before
+    public void before() throws IOException {
+        dir = Files.createTempDirectory("wal");
+    }
+    @After
+    public void after() throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            for (Path p : s.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                Files.delete(p);
+        }
+    }
+    // =================================
+    @Test
+    public void reopen() throws IOException {
+        try (DurableShadowMap<String, String> cm = open()) {
+            cm.put("A", "1");
+            cm.put("B", "1");
+            cm.commit();
+            cm.remove("A");
+            cm.put("C", "2");
+            cm.commit();
+            cm.put("D", "lost");
+        }
+        try (DurableShadowMap<String, String> cm = open()) {
+            assertEquals(ImmutableMap.of("B", "1", "C", "2"), ImmutableMap.copyOf(cm));
+            assertEquals(3, cm.depth());
+            // the history came back too
+            cm.rollback();
+            assertEquals(ImmutableMap.of("A", "1", "B", "1"), ImmutableMap.copyOf(cm));
+        }
+        try (DurableShadowMap<String, String> cm = open()) {
+            // & so did that rollback
+            assertEquals(ImmutableMap.of("A", "1", "B", "1"), ImmutableMap.copyOf(cm));
+            cm.clear();
+            cm.put("E", "3");
+            cm.commit();
+            cm.putAll(ImmutableMap.of());
+            cm.commit();
+        }
+        try (DurableShadowMap<String, String> cm = open()) {
+            assertEquals(ImmutableMap.of("E", "3"), ImmutableMap.copyOf(cm));
+            assertEquals(4, cm.depth());
+            cm.rollback();
+            cm.rollback();
+            assertEquals("1", cm.get("A"));
+        }
+    }
+    // =================================
+    @Test
+    public void tornTail() throws IOException {
+        try (DurableShadowMap<String, String> cm = open()) {
+            for (int i = 0; i < 10; i++) {
+                cm.put("K" + i, "V" + i);
+                cm.commit();
+            }
+        }
+        Path segment = segments().get(0);
+        long size = Files.size(segment);
+        try (FileChannel c = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            c.truncate(size - 3);
+        }
+        try (DurableShadowMap<String, String> cm = open()) {
+            assertEquals(9, cm.size());
+            assertNull(cm.get("K9"));
+            cm.put("X", "x");
+            cm.commit();
+        }
+        try (DurableShadowMap<String, String> cm = open()) {
+            assertEquals(10, cm.size());
+            assertEquals("x", cm.get("X"));
+        }
+    }
+    // =================================
+    @Test
+    public void corruptRecord() throws IOException {
+        try (DurableShadowMap<String, String> cm = open()) {
+            cm.put("A", "1");
+            cm.commit();
+            cm.put("B", "2");
+            cm.commit();
+        }
+        Path segment = segments().get(0);
+        byte[] b = Files.readAllBytes(segment);
+        b[b.length - 2] ^= 0x55;
+        Files.write(segment, b);
+        try (DurableShadowMap<String, String> cm = open()) {
+            assertEquals(ImmutableMap.of("A", "1"), ImmutableMap.copyOf(cm));
+        }
+    }
+    // =================================
+    @Test
+    public void rollSegments() throws IOException {
+        try (DurableShadowMap<Integer, Long> cm = DurableShadowMap.open(dir, ShadowMap.Lookup.INDEXED,
+                                                                        Codec.INTEGERS, Codec.LONGS, 8, 256)) {
+            for (int i = 0; i < 100; i++) {
+                cm.put(i % 17, (long)i);
+                cm.commit();
+            }
+        }
+        assertTrue(segments().size() > 10);
+        try (DurableShadowMap<Integer, Long> cm = DurableShadowMap.open(dir, ShadowMap.Lookup.INDEXED,
+                                                                        Codec.INTEGERS, Codec.LONGS, 8, 256)) {
+            assertEquals(17, cm.size());
+            assertEquals(99L, (long)cm.get(99 % 17));
+            assertEquals(101, cm.depth());
+        }
+    }
+
+    // a segment must fit one MappedByteBuffer
+    @Test(expected = IllegalArgumentException.class)
+    public void segmentTooLarge() throws IOException {
+        DurableShadowMap.open(dir, ShadowMap.Lookup.LAYERED, Codec.STRINGS, Codec.STRINGS, 1, Integer.MAX_VALUE + 1L);
+    }
+
+    private DurableShadowMap<String, String> open() throws IOException {
+        return DurableShadowMap.open(dir, Codec.STRINGS, Codec.STRINGS);
+    }
+    private List<Path> segments() throws IOException {
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "wal-*.log")) {
+            List<Path> l = Lists.newArrayList(ds);
+            l.sort(Comparator.naturalOrder());
+            return l;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+// the TestShadowMapSize scenarios, on IntShadowMap & LongShadowMap
+@Slf4j
+public class TestPrimitiveShadowMap {
+    // =================================
+    @Test
+    public void sizePut() {
+        IntShadowMap<String> cm = new IntShadowMap<>();
+        assertEquals(0, cm.size());
+        cm.put(1, "V1a");
+        assertEquals(1, cm.size());
+        cm.put(1, "V1b");
+        assertEquals(1, cm.size());
+        cm.put(2, "V2");
+        assertEquals(2, cm.size());
+        cm.rollback();
+        assertEquals(0, cm.size());
+
+        for (int i = 0; i < 10; i++)
+            cm.put(i, "V" + i);
+        cm.commit();
+        assertEquals(10, cm.size());
+        for (int i = 10; i < 20; i++)
+            cm.put(i, "V" + i);
+        assertEquals(20, cm.size());
+    }
+    @Test
+    public void sizePutDups() {
+        LongShadowMap<String> cm = new LongShadowMap<>();
+        cm.put(1L, "V1");
+        cm.put(1L, "V1");
+        assertEquals(1, cm.size());
+        cm.rollback();
+        assertEquals(0, cm.size());
+
+        cm.put(1L, "V1");
+        cm.commit();
+        cm.put(1L, "V1");
+        cm.commit();
+        assertEquals(1, cm.size());
+
+        cm.clear();
+        assertEquals(0, cm.size());
+        cm.commit();
+        assertEquals(0, cm.size());
+
+        for (long i = 0; i < 10; i++) {
+            cm.put(i << 40, "V" + i);
+            cm.put(i << 40, "Va" + i);
+        }
+        cm.commit();
+        assertEquals(10, cm.size());
+        assertEquals("Va3", cm.get(3L << 40));
+        assertNull(cm.get(3L));
+    }
+    @Test
+    public void sizeRm() {
+        IntShadowMap<String> cm = new IntShadowMap<>();
+        cm.put(1, "V1");
+        cm.remove(1);
+        assertEquals(0, cm.size());
+
+        cm.put(1, "V1");
+        cm.commit();
+        cm.remove(1);
+        assertEquals(0, cm.size());
+        assertNull(cm.get(1));
+        cm.remove(1);
+        cm.remove(99);
+        assertEquals(0, cm.size());
+
+        cm.put(2, "V2");
+        assertEquals(1, cm.size());
+        cm.rollback();
+        assertEquals("V1", cm.get(1));
+    }
+    @Test
+    public void sizeClear() {
+        IntShadowMap<String> cm = new IntShadowMap<>();
+        for (int i = 0; i < 3; i++)
+            cm.put(i, "V" + i);
+        cm.commit();
+        cm.clear();
+        assertEquals(0, cm.size());
+        assertFalse(cm.containsKey(1));
+        cm.rollback();
+        assertEquals(3, cm.size());
+        assertTrue(cm.containsKey(1));
+
+        cm.clear();
+        cm.put(7, "V7");
+        cm.remove(7);
+        cm.put(8, "V8");
+        cm.commit();
+        assertEquals(1, cm.size());
+        assertEquals("{8=V8}", cm.toString());
+    }
+    // =================================
+    @Test
+    public void deepHistory() {
+        // every layer rewrites or removes keys the older ones hold
+        IntShadowMap<Integer> im = new IntShadowMap<>();
+        LongShadowMap<Integer> lm = new LongShadowMap<>();
+        Map<Integer, Integer> expected = Maps.newHashMap();
+        for (int r = 0; r < 500; r++) {
+            for (int k = 0; k < 100; k++) {
+                if (0 == (k + r) % 7) {
+                    im.remove(k);
+                    lm.remove(k);
+                    expected.remove(k);
+                } else if (0 == k % (r % 5 + 1)) {
+                    im.put(k, r);
+                    lm.put(k, r);
+                    expected.put(k, r);
+                }
+            }
+            im.commit();
+            lm.commit();
+        }
+        assertEquals(501, im.depth());
+        Map<Integer, Integer> seen = Maps.newHashMap();
+        im.forEach((k, v) -> assertNull("visited twice: " + k, seen.put(k, v)));
+        assertEquals(expected, seen);
+        seen.clear();
+        lm.forEach((k, v) -> assertNull("visited twice: " + k, seen.put((int)k, v)));
+        assertEquals(expected, seen);
+    }
+    // =================================
+    @Test
+    public void againstShadowMap() {
+        Random rnd = new Random(11);
+        IntShadowMap<Integer> im = new IntShadowMap<>();
+        LongShadowMap<Integer> lm = new LongShadowMap<>();
+        ShadowMap<Integer, Integer> sm = new ShadowMap<>();
+        for (int step = 0; step < 20_000; step++) {
+            int k = rnd.nextInt(500) - 250;
+            int op = rnd.nextInt(100);
+            if (op < 55) {
+                assertEquals(sm.put(k, step), im.put(k, step));
+                lm.put(k, step);
+            } else if (op < 90) {
+                assertEquals(sm.remove(k), im.remove(k));
+                lm.remove(k);
+            } else if (op < 97) {
+                sm.commit();
+                im.commit();
+                lm.commit();
+            } else if (op < 99) {
+                if (sm.depth() > 1) {
+                    sm.rollback();
+                    im.rollback();
+                    lm.rollback();
+                }
+            } else {
+                sm.clear();
+                im.clear();
+                lm.clear();
+            }
+            assertEquals(sm.size(), im.size());
+            assertEquals(sm.size(), lm.size());
+            assertEquals(sm.get(k), lm.get(k));
+        }
+        Map<Integer, Integer> seen = Maps.newHashMap();
+        im.forEach((k, v) -> assertNull(seen.put(k, v)));
+        assertEquals(seen, sm);
+        seen.clear();
+        lm.forEach((k, v) -> assertNull(seen.put((int)k, v)));
+        assertEquals(seen, sm);
+    }
+}
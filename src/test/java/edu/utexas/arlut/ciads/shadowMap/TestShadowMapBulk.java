@@ -0,0 +1,83 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+@Slf4j
+public class TestShadowMapBulk {
+    // =================================
+    @Test
+    public void putAllAndRemoveAll() {
+        ShadowMap<String, String> cm = new ShadowMap<>();
+        cm.put("A", "1");
+        cm.commit();
+        cm.remove("A");
+        cm.put("B", "1");
+        cm.commit();
+        cm.putAll(ImmutableMap.of("A", "2", "B", "2", "C", "2"));
+        assertEquals(3, cm.size());
+        assertEquals(ImmutableMap.of("A", "2", "B", "2", "C", "2"), cm);
+
+        assertEquals(2, cm.removeAll(ImmutableList.of("A", "C", "X")));
+        assertEquals(1, cm.size());
+        assertEquals(0, cm.removeAll(ImmutableList.of("A", "X")));
+        assertTrue(cm.keySet().removeAll(ImmutableList.of("B")));
+        assertTrue(cm.isEmpty());
+        cm.rollback();
+        assertEquals(ImmutableMap.of("B", "1"), cm);
+    }
+    // =================================
+    @Test
+    public void againstPerEntry() {
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            Random rnd = new Random(29);
+            ShadowMap<Integer, Integer> bulk = new ShadowMap<>(mode);
+            ShadowMap<Integer, Integer> single = new ShadowMap<>(mode);
+            bulk.enableValueIndex();
+            for (int batch = 0; batch < 300; batch++) {
+                int op = rnd.nextInt(10);
+                int n = rnd.nextInt(200);
+                if (op < 5) {
+                    Map<Integer, Integer> m = Maps.newHashMap();
+                    for (int i = 0; i < n; i++)
+                        m.put(rnd.nextInt(1000), rnd.nextInt(50));
+                    bulk.putAll(m);
+                    m.forEach(single::put);
+                } else if (op < 8) {
+                    List<Integer> keys = Lists.newArrayList();
+                    for (int i = 0; i < n; i++)
+                        keys.add(rnd.nextInt(1000));
+                    int removed = bulk.removeAll(keys);
+                    int expected = 0;
+                    for (Integer k : keys) {
+                        if (null != single.remove(k))
+                            expected++;
+                    }
+                    assertEquals(expected, removed);
+                } else if (op < 9) {
+                    bulk.commit();
+                    single.commit();
+                } else if (bulk.depth() > 1) {
+                    bulk.rollback();
+                    single.rollback();
+                }
+                assertEquals(single.size(), bulk.size());
+                assertEquals(single.hashCode(), bulk.hashCode());
+                assertEquals(Maps.newHashMap(single), Maps.newHashMap(bulk));
+                int v = rnd.nextInt(50);
+                assertEquals(single.countValue(v), bulk.countValue(v));
+            }
+        }
+    }
+}
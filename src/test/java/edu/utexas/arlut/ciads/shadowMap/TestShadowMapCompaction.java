@@ -0,0 +1,123 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import static org.junit.Assert.*;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+@Slf4j
+public class TestShadowMapCompaction {
+    // =================================
+    @Test
+    public void compact() {
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            ShadowMap<String, String> cm = new ShadowMap<>(mode);
+            fill(cm, 50);
+            assertEquals(51, cm.depth());
+
+            cm.compact(3);
+            assertEquals(4, cm.depth());
+            check(cm, 50);
+
+            // the retained revisions can still be rolled back
+            cm.rollback();
+            cm.rollback();
+            check(cm, 48);
+            cm.put("K0", "Vx");
+            assertEquals("Vx", cm.get("K0"));
+            cm.commit();
+            assertEquals("Vx", cm.get("K0"));
+        }
+    }
+    // =================================
+    @Test
+    public void compactAfterClear() {
+        ShadowMap<String, String> cm = new ShadowMap<>();
+        fill(cm, 10);
+        cm.clear();
+        cm.put("A", "1");
+        cm.commit();
+        cm.put("B", "2");
+        cm.commit();
+        cm.compact(1);
+        assertEquals(2, cm.depth());
+        assertEquals(2, cm.size());
+        assertEquals("1", cm.get("A"));
+        assertNull(cm.get("K1"));
+    }
+    // =================================
+    @Test
+    public void background() {
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            ShadowMap<String, String> cm = new ShadowMap<>(mode);
+            cm.setCompactionPolicy(CompactionPolicy.byRevisions(5, 10));
+            fill(cm, 500);
+            check(cm, 500);
+            // whatever was still in flight, one more commit catches up:
+            // base + 5 retained + at most 10 foldable
+            cm.awaitCompaction();
+            cm.commit();
+            cm.awaitCompaction();
+            assertTrue(cm.depth() <= 16);
+            check(cm, 500);
+        }
+    }
+    // =================================
+    @Test
+    public void tombstones() {
+        ShadowMap<String, String> cm = new ShadowMap<>();
+        cm.setCompactionPolicy(CompactionPolicy.byTombstones(1, 0.4));
+        for (int i = 0; i < 10; i++)
+            cm.put("K" + i, "V" + i);
+        cm.commit();
+        cm.awaitCompaction();
+        assertEquals(2, cm.depth());
+
+        for (int i = 0; i < 10; i++)
+            cm.remove("K" + i);
+        cm.commit();
+        cm.awaitCompaction();
+        assertEquals(2, cm.depth());
+        assertTrue(cm.isEmpty());
+        assertNull(cm.get("K3"));
+    }
+    // =================================
+    @Test
+    public void rollbackPastBoundary() {
+        ShadowMap<String, String> cm = new ShadowMap<>();
+        fill(cm, 10);
+        cm.setCompactionPolicy(CompactionPolicy.byRevisions(2, 1));
+        cm.put("X", "1");
+        cm.commit();
+        for (int i = 0; i < 6; i++)
+            cm.rollback();
+        cm.awaitCompaction();
+        check(cm, 5);
+        assertNull(cm.get("X"));
+    }
+
+    // =================================
+    // revision i puts K<i>, overwrites K<i-1>, & removes K<i-2>
+    private static void fill(ShadowMap<String, String> cm, int revisions) {
+        for (int i = 0; i < revisions; i++) {
+            cm.put("K" + i, "V" + i);
+            if (i > 0)
+                cm.put("K" + (i - 1), "W" + (i - 1));
+            if (i > 1)
+                cm.remove("K" + (i - 2));
+            cm.commit();
+        }
+    }
+    private static void check(ShadowMap<String, String> cm, int revisions) {
+        assertEquals(Math.min(2, revisions), cm.size());
+        for (int i = 0; i < revisions; i++) {
+            String expected = null;
+            if (i == revisions - 1)
+                expected = "V" + i;
+            else if (i == revisions - 2)
+                expected = "W" + i;
+            assertEquals(expected, cm.get("K" + i));
+        }
+    }
+}
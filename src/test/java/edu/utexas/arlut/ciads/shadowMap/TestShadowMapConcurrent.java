@@ -0,0 +1,132 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+@Slf4j
+public class TestShadowMapConcurrent {
+    private static final int KEYS = 16;
+    private static final int COMMITS = 2_000;
+    private static final int READERS = 4;
+
+    // =================================
+    @Test
+    public void publishedIsImmutable() {
+        ShadowMap<String, String> cm = new ShadowMap<>();
+        cm.put("A", "1");
+        ShadowMap.Revision<String, String> r1 = cm.commit();
+        assertSame(r1, cm.published());
+
+        cm.put("A", "2");
+        cm.put("B", "2");
+        // uncommitted work isn't published
+        assertSame(r1, cm.published());
+        ShadowMap.Revision<String, String> r2 = cm.commit();
+
+        cm.remove("A");
+        cm.clear();
+        cm.put("C", "3");
+        ShadowMap.Revision<String, String> r3 = cm.commit();
+
+        assertEquals("1", r1.get("A"));
+        assertNull(r1.get("B"));
+        assertEquals(1, r1.size());
+        assertEquals("2", r2.get("A"));
+        assertEquals(2, r2.asMap().size());
+        assertFalse(r3.containsKey("A"));
+        assertEquals("3", r3.get("C"));
+        assertEquals(1, r3.asMap().entrySet().size());
+
+        cm.rollback();
+        assertSame(r2, cm.published());
+    }
+    // =================================
+    @Test
+    public void readersSeeWholeRevisions() throws Exception {
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            ShadowMap<String, Integer> cm = new ShadowMap<>(mode);
+            cm.setCompactionPolicy(CompactionPolicy.byRevisions(4, 8));
+            write(cm, 0);
+
+            AtomicBoolean done = new AtomicBoolean(false);
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService readers = Executors.newFixedThreadPool(READERS);
+            List<Future<Integer>> results = Lists.newArrayList();
+            for (int i = 0; i < READERS; i++) {
+                final boolean walk = (0 == i % 2);
+                results.add(readers.submit(() -> {
+                    start.await();
+                    int checked = 0;
+                    while (!done.get()) {
+                        ShadowMap.Revision<String, Integer> r = cm.published();
+                        if (walk)
+                            checkMap(r.asMap());
+                        else
+                            check(r);
+                        checked++;
+                    }
+                    return checked;
+                }));
+            }
+            start.countDown();
+            for (int n = 1; n <= COMMITS; n++) {
+                write(cm, n);
+                // abandoned work must never be visible either
+                if (0 == n % 7) {
+                    cm.put("K0", -1);
+                    cm.rollback();
+                }
+            }
+            done.set(true);
+            readers.shutdown();
+            assertTrue(readers.awaitTermination(30, TimeUnit.SECONDS));
+            for (Future<Integer> f : results)
+                assertTrue(f.get() > 0);
+            check(cm.published());
+            assertEquals(COMMITS, (int)cm.published().get("K0"));
+        }
+    }
+
+    // every key holds the commit number; P is present on even commits only
+    private static void write(ShadowMap<String, Integer> cm, int n) {
+        for (int i = 0; i < KEYS; i++)
+            cm.put("K" + i, n);
+        if (0 == n % 2)
+            cm.put("P", n);
+        else
+            cm.remove("P");
+        cm.commit();
+    }
+    private static void check(ShadowMap.Revision<String, Integer> r) {
+        int n = r.get("K0");
+        for (int i = 1; i < KEYS; i++)
+            assertEquals("K" + i + " in revision " + r.getId(), n, (int)r.get("K" + i));
+        assertEquals(0 == n % 2, r.containsKey("P"));
+        assertEquals(KEYS + (0 == n % 2 ? 1 : 0), r.size());
+    }
+    private static void checkMap(Map<String, Integer> m) {
+        Integer n = null;
+        int count = 0;
+        for (Map.Entry<String, Integer> e : m.entrySet()) {
+            if (null == n)
+                n = e.getValue();
+            assertEquals(n, e.getValue());
+            count++;
+        }
+        assertEquals(m.size(), count);
+        assertEquals(0 == n % 2, m.containsKey("P"));
+    }
+}
@@ -0,0 +1,149 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+@Slf4j
+public class TestShadowMapDiff {
+    // =================================
+    @Test
+    public void forwardAndBack() {
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            ShadowMap<String, String> cm = new ShadowMap<>(mode);
+            cm.put("A", "1");
+            cm.put("B", "1");
+            cm.put("C", "1");
+            ShadowMap.Revision<String, String> r1 = cm.commit();
+            cm.put("A", "2");
+            cm.remove("B");
+            cm.put("D", "2");
+            cm.commit();
+            // changed & changed back: not a change
+            cm.put("C", "x");
+            cm.commit();
+            cm.put("C", "1");
+            ShadowMap.Revision<String, String> r2 = cm.commit();
+
+            assertEquals(ImmutableMap.of("A", "2", "B", "<removed>", "D", "2"), changes(r1, r2));
+            assertEquals(ImmutableMap.of("A", "1", "B", "1", "D", "<removed>"), changes(r2, r1));
+            assertTrue(changes(r2, r2).isEmpty());
+
+            ShadowMap.Change<String, String> a = ShadowMap.diff(r1, r2)
+                                                          .filter(c -> c.getKey().equals("A"))
+                                                          .findFirst().get();
+            assertEquals("1", a.getBefore());
+            assertEquals("2", a.getAfter());
+            assertFalse(a.isRemove());
+        }
+    }
+    // =================================
+    @Test
+    public void acrossClear() {
+        ShadowMap<String, String> cm = new ShadowMap<>();
+        cm.put("A", "1");
+        cm.put("B", "1");
+        ShadowMap.Revision<String, String> r1 = cm.commit();
+        cm.clear();
+        cm.put("B", "1");
+        cm.put("C", "2");
+        ShadowMap.Revision<String, String> r2 = cm.commit();
+        assertEquals(ImmutableMap.of("A", "<removed>", "C", "2"), changes(r1, r2));
+        assertEquals(ImmutableMap.of("A", "1", "C", "<removed>"), changes(r2, r1));
+    }
+    // =================================
+    @Test
+    public void acrossForks() {
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            ShadowMap<String, String> cm = new ShadowMap<>(mode);
+            for (int i = 0; i < 100; i++)
+                cm.put("K" + i, "V" + i);
+            cm.commit();
+            ShadowMap<String, String> f = cm.fork();
+            cm.put("K1", "main");
+            ShadowMap.Revision<String, String> main = cm.commit();
+            f.put("K2", "fork");
+            f.remove("K3");
+            ShadowMap.Revision<String, String> fork = f.commit();
+            assertEquals(ImmutableMap.of("K1", "V1", "K2", "fork", "K3", "<removed>"), changes(main, fork));
+        }
+    }
+    // =================================
+    @Test
+    public void afterCompaction() {
+        ShadowMap<String, Integer> cm = new ShadowMap<>();
+        cm.put("A", 0);
+        ShadowMap.Revision<String, Integer> r0 = cm.commit();
+        for (int i = 1; i <= 10; i++) {
+            cm.put("K" + i, i);
+            cm.commit();
+        }
+        cm.compact(1);
+        cm.put("A", 1);
+        ShadowMap.Revision<String, Integer> r1 = cm.commit();
+        Map<String, String> c = changes(r0, r1);
+        assertEquals(11, c.size());
+        assertEquals("1", c.get("A"));
+    }
+    // =================================
+    @Test
+    public void againstViews() {
+        Random rnd = new Random(7);
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            ShadowMap<String, String> cm = new ShadowMap<>(mode);
+            for (int i = 0; i < 200; i++)
+                cm.put("K" + i, "V0");
+            cm.commit();
+            ShadowMap<String, String> f = cm.fork();
+            List<ShadowMap.Revision<String, String>> revs = Lists.newArrayList();
+            for (int r = 1; r <= 50; r++) {
+                for (ShadowMap<String, String> m : Arrays.asList(cm, f)) {
+                    for (int n = 0; n < 10; n++) {
+                        String k = "K" + rnd.nextInt(250);
+                        if (rnd.nextInt(3) == 0)
+                            m.remove(k);
+                        else
+                            m.put(k, "V" + rnd.nextInt(3));
+                    }
+                    revs.add(m.commit());
+                }
+            }
+            for (int n = 0; n < 200; n++) {
+                ShadowMap.Revision<String, String> from = revs.get(rnd.nextInt(revs.size()));
+                ShadowMap.Revision<String, String> to = revs.get(rnd.nextInt(revs.size()));
+                assertEquals(viewChanges(from, to), changes(from, to));
+            }
+        }
+    }
+
+    private static <V> Map<String, String> viewChanges(ShadowMap.Revision<String, V> from, ShadowMap.Revision<String, V> to) {
+        Map<String, String> c = Maps.newHashMap();
+        Set<String> keys = Sets.union(from.asMap().keySet(), to.asMap().keySet());
+        for (String k : keys) {
+            V after = to.get(k);
+            if (!Objects.equals(from.get(k), after))
+                c.put(k, null == after ? "<removed>" : String.valueOf(after));
+        }
+        return c;
+    }
+
+    private static <V> Map<String, String> changes(ShadowMap.Revision<String, V> from, ShadowMap.Revision<String, V> to) {
+        return ShadowMap.diff(from, to)
+                        .collect(Collectors.toMap(ShadowMap.Change::getKey,
+                                                  c -> c.isRemove() ? "<removed>" : String.valueOf(c.getAfter())));
+    }
+}
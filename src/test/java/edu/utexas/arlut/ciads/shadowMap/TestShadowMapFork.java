@@ -0,0 +1,123 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import static org.junit.Assert.*;
+
+import com.google.common.collect.ImmutableMap;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+@Slf4j
+public class TestShadowMapFork {
+    // =================================
+    @Test
+    public void independentLineages() {
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            ShadowMap<String, String> base = new ShadowMap<>(mode);
+            base.put("A", "0");
+            base.put("B", "0");
+            base.commit();
+            // uncommitted work stays behind
+            base.put("Z", "0");
+
+            ShadowMap<String, String> f1 = base.fork();
+            ShadowMap<String, String> f2 = base.fork();
+            assertEquals(ImmutableMap.of("A", "0", "B", "0"), f1);
+
+            f1.put("A", "1");
+            f1.remove("B");
+            f1.commit();
+            f2.put("C", "2");
+            f2.clear();
+            f2.put("D", "2");
+            base.commit();
+
+            assertEquals(ImmutableMap.of("A", "1"), f1);
+            assertEquals(ImmutableMap.of("D", "2"), f2);
+            assertEquals(ImmutableMap.of("A", "0", "B", "0", "Z", "0"), base);
+
+            // a fork can roll back into the shared history, not past it
+            f1.rollback();
+            assertEquals(ImmutableMap.of("A", "0", "B", "0"), f1);
+            f1.put("E", "1");
+            assertEquals(3, f1.size());
+            assertEquals(3, base.size());
+        }
+    }
+    // =================================
+    @Test
+    public void forkTag() {
+        ShadowMap<String, Integer> cm = new ShadowMap<>();
+        for (int i = 0; i < 10; i++) {
+            cm.put("K", i);
+            cm.commit();
+            if (3 == i)
+                cm.tag("three");
+        }
+        ShadowMap<String, Integer> f = cm.fork("three");
+        assertEquals(3, (int)f.get("K"));
+        f.put("K", 99);
+        assertEquals(99, (int)f.get("K"));
+        assertEquals(9, (int)cm.get("K"));
+        assertEquals(3, (int)cm.checkout("three").get("K"));
+    }
+    // =================================
+    @Test
+    public void compactionDoesntLeak() {
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            ShadowMap<String, Integer> cm = new ShadowMap<>(mode);
+            for (int i = 0; i < 20; i++) {
+                cm.put("K" + i, i);
+                cm.commit();
+            }
+            ShadowMap<String, Integer> f = cm.fork();
+            for (int i = 0; i < 20; i++) {
+                f.put("K" + i, -i);
+                f.commit();
+            }
+            f.compact(1);
+            cm.compact(1);
+            assertEquals(2, f.depth());
+            assertEquals(2, cm.depth());
+            for (int i = 0; i < 20; i++) {
+                assertEquals(i, (int)cm.get("K" + i));
+                assertEquals(-i, (int)f.get("K" + i));
+            }
+        }
+    }
+    // =================================
+    @Test
+    public void compactUnderFork() {
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            ShadowMap<String, Integer> cm = new ShadowMap<>(mode);
+            for (int i = 0; i < 10; i++) {
+                cm.put("K", i);
+                cm.put("K" + i, i);
+                cm.commit();
+            }
+            ShadowMap.Revision<String, Integer> handle = cm.published();
+            ShadowMap<String, Integer> f = cm.fork();
+            cm.compact(1);
+            assertEquals(2, cm.depth());
+            assertEquals(9, (int)cm.get("K"));
+            cm.rollback();
+            assertEquals(8, (int)cm.get("K"));
+            // the fork still rolls back one revision at a time through the
+            // range the parent folded away
+            for (int i = 9; i > 0; i--) {
+                assertEquals(i, (int)f.get("K"));
+                assertEquals(i + 1, f.size() - 1);
+                f.rollback();
+            }
+            assertEquals(0, (int)f.get("K"));
+            assertNull(f.get("K1"));
+            assertEquals(9, (int)handle.get("K"));
+            assertEquals(11, handle.size());
+        }
+    }
+    // =================================
+    @Test(expected = IllegalStateException.class)
+    public void rollbackRoot() {
+        new ShadowMap<String, String>().rollback();
+    }
+}
@@ -0,0 +1,92 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+@Slf4j
+public class TestShadowMapHash {
+    // =================================
+    @Test
+    public void contract() {
+        ShadowMap<String, String> cm = new ShadowMap<>();
+        cm.put("A", "1");
+        cm.put("B", "2");
+        cm.commit();
+        // shadowed & removed entries don't count
+        cm.put("A", "3");
+        cm.remove("B");
+        Map<String, String> m = ImmutableMap.of("A", "3");
+        assertEquals(m.hashCode(), cm.hashCode());
+        assertEquals(m, cm);
+        assertEquals(cm, m);
+        cm.rollback();
+        assertEquals(ImmutableMap.of("A", "1", "B", "2").hashCode(), cm.hashCode());
+        assertNotEquals(m, cm);
+        cm.clear();
+        assertEquals(0, cm.hashCode());
+        assertEquals(ImmutableMap.of(), cm);
+    }
+    // =================================
+    @Test
+    public void againstHashMap() {
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            Random rnd = new Random(23);
+            ShadowMap<Integer, Integer> cm = new ShadowMap<>(mode);
+            cm.setCompactionPolicy(CompactionPolicy.byRevisions(3, 5));
+            for (int step = 0; step < 5_000; step++) {
+                int k = rnd.nextInt(100);
+                int op = rnd.nextInt(100);
+                if (op < 50)
+                    cm.put(k, rnd.nextInt(10));
+                else if (op < 80)
+                    cm.remove(k);
+                else if (op < 95)
+                    cm.commit();
+                else if (op < 99) {
+                    if (cm.depth() > 1)
+                        cm.rollback();
+                } else
+                    cm.clear();
+                Map<Integer, Integer> copy = Maps.newHashMap(cm);
+                assertEquals(copy.hashCode(), cm.hashCode());
+                assertEquals(copy, cm);
+                assertEquals(cm, copy);
+            }
+            cm.commit();
+            assertEquals(Maps.newHashMap(cm).hashCode(), cm.published().hashCode());
+        }
+    }
+    // =================================
+    @Test
+    public void betweenShadowMaps() {
+        ShadowMap<String, String> a = new ShadowMap<>();
+        ShadowMap<String, String> b = new ShadowMap<>(ShadowMap.Lookup.INDEXED);
+        a.put("A", "1");
+        a.commit();
+        a.put("B", "2");
+        b.put("B", "2");
+        b.put("A", "1");
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        b.put("A", "x");
+        assertNotEquals(a, b);
+
+        ShadowMap<String, String> f = a.fork();
+        assertNotEquals(a, f);
+        a.commit();
+        f = a.fork();
+        assertEquals(a, f);
+        assertEquals(a.published(), f.published());
+        f.put("C", "3");
+        f.commit();
+        assertNotEquals(a.published(), f.published());
+    }
+}
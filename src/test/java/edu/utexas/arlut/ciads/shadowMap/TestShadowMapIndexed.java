@@ -0,0 +1,114 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Before;
+import org.junit.Test;
+
+@Slf4j
+public class TestShadowMapIndexed {
+    private ShadowMap<String, String> cm;
+    @Before
+    public void before() {
+        cm = new ShadowMap<>(ShadowMap.Lookup.INDEXED);
+    }
+    // =================================
+    @Test
+    public void get() {
+        cm.put("K1", "V1");
+        assertEquals("V1", cm.get("K1"));
+        cm.rollback();
+        assertNull(cm.get("K1"));
+
+        cm.put("K2", "V2");
+        cm.commit();
+        assertEquals("V2", cm.get("K2"));
+        cm.put("K2", "V2a");
+        assertEquals("V2a", cm.get("K2"));
+        cm.commit();
+        assertEquals("V2a", cm.get("K2"));
+        cm.rollback();
+        assertEquals("V2", cm.get("K2"));
+
+        cm.remove("K2");
+        assertNull(cm.get("K2"));
+        assertFalse(cm.containsKey("K2"));
+        cm.commit();
+        assertNull(cm.get("K2"));
+        assertEquals(0, cm.size());
+    }
+    // =================================
+    @Test
+    public void clear() {
+        cm.put("K1", "V1");
+        cm.put("K2", "V2");
+        cm.commit();
+        cm.clear();
+        assertNull(cm.get("K1"));
+        cm.put("K3", "V3");
+        assertEquals("V3", cm.get("K3"));
+        cm.commit();
+        assertNull(cm.get("K1"));
+        assertEquals("V3", cm.get("K3"));
+        cm.rollback();
+        assertEquals("V1", cm.get("K1"));
+        assertNull(cm.get("K3"));
+    }
+    // =================================
+    @Test
+    public void deep() {
+        for (int i = 0; i < 2000; i++) {
+            cm.put("K" + i, "V" + i);
+            if (0 == i % 3)
+                cm.remove("K" + (i / 2));
+            cm.commit();
+        }
+        for (int i = 0; i < 2000; i++) {
+            boolean removed = (i <= 1998 / 2) && (0 == (2 * i) % 3 || 0 == (2 * i + 1) % 3);
+            assertEquals("K" + i, removed ? null : "V" + i, cm.get("K" + i));
+        }
+    }
+    // =================================
+    @Test
+    public void matchesLayered() {
+        ShadowMap<String, String> layered = new ShadowMap<>();
+        Random rnd = new Random(17);
+        boolean canRollback = false;
+        for (int i = 0; i < 20000; i++) {
+            String k = "K" + rnd.nextInt(200);
+            int op = rnd.nextInt(100);
+            if (op < 50) {
+                String v = "V" + i;
+                cm.put(k, v);
+                layered.put(k, v);
+                canRollback = true;
+                continue;
+            }
+            if (op < 75) {
+                cm.remove(k);
+                layered.remove(k);
+            } else if (op < 93) {
+                cm.commit();
+                layered.commit();
+            } else if (op < 99) {
+                if (canRollback) {
+                    cm.rollback();
+                    layered.rollback();
+                }
+            } else {
+                cm.clear();
+                layered.clear();
+            }
+            canRollback = false;
+            assertEquals(layered.size(), cm.size());
+            for (int j = 0; j < 200; j++) {
+                assertEquals(layered.get("K" + j), cm.get("K" + j));
+                assertEquals(layered.containsKey("K" + j), cm.containsKey("K" + j));
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Sets.newHashSet;
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+@Slf4j
+public class TestShadowMapIterator {
+    // =================================
+    @Test
+    public void shadowing() {
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            ShadowMap<String, String> cm = new ShadowMap<>(mode);
+            cm.put("K1", "V1");
+            cm.put("K2", "V2");
+            cm.put("K3", "V3");
+            cm.commit();
+            cm.put("K1", "V1a");
+            cm.remove("K2");
+            cm.commit();
+            cm.put("K4", "V4");
+
+            Map<String, String> seen = newHashMap();
+            for (Map.Entry<String, String> e : cm.entrySet())
+                assertNull("visited twice: " + e, seen.put(e.getKey(), e.getValue()));
+            assertEquals(3, seen.size());
+            assertEquals("V1a", seen.get("K1"));
+            assertFalse(seen.containsKey("K2"));
+            assertEquals(newHashSet("K1", "K3", "K4"), newHashSet(cm.keySet()));
+        }
+    }
+    // =================================
+    @Test
+    public void reuseEntry() {
+        ShadowMap<String, String> cm = new ShadowMap<>();
+        cm.put("K1", "V1");
+        cm.commit();
+        cm.put("K2", "V2");
+
+        Iterator<Map.Entry<String, String>> it = cm.entryIterator(true);
+        Map.Entry<String, String> first = it.next();
+        String k = first.getKey();
+        Map.Entry<String, String> second = it.next();
+        assertSame(first, second);
+        assertNotEquals(k, second.getKey());
+        assertFalse(it.hasNext());
+        try {
+            it.next();
+            fail();
+        } catch (NoSuchElementException expected) {
+        }
+    }
+    // =================================
+    @Test
+    public void forEachSkipsTombstones() {
+        ShadowMap<String, String> cm = new ShadowMap<>();
+        cm.put("K1", "V1");
+        cm.put("K2", "V2");
+        cm.commit();
+        cm.remove("K1");
+        Map<String, String> seen = newHashMap();
+        cm.forEach((k, v) -> seen.put(k, v));
+        assertEquals(1, seen.size());
+        assertEquals("V2", seen.get("K2"));
+    }
+    // =================================
+    @Test
+    public void random() {
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            ShadowMap<String, String> cm = new ShadowMap<>(mode);
+            Random rnd = new Random(5);
+            for (int i = 0; i < 3000; i++) {
+                String k = "K" + rnd.nextInt(100);
+                int op = rnd.nextInt(100);
+                if (op < 55)
+                    cm.put(k, "V" + i);
+                else if (op < 80)
+                    cm.remove(k);
+                else if (op < 99)
+                    cm.commit();
+                else
+                    cm.clear();
+
+                if (0 != i % 10)
+                    continue;
+                Map<String, String> expected = newHashMap();
+                for (int j = 0; j < 100; j++) {
+                    String v = cm.get("K" + j);
+                    if (null != v)
+                        expected.put("K" + j, v);
+                }
+                Map<String, String> seen = newHashMap();
+                Iterator<Map.Entry<String, String>> it = cm.entryIterator(0 == i % 20);
+                while (it.hasNext()) {
+                    Map.Entry<String, String> e = it.next();
+                    assertNull(seen.put(e.getKey(), e.getValue()));
+                }
+                assertEquals(expected, seen);
+                assertEquals(expected.size(), cm.size());
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+@Slf4j
+public class TestShadowMapSpliterator {
+    // =================================
+    @Test
+    public void parallelStream() {
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            ShadowMap<Integer, Long> cm = build(mode);
+            cm.commit();
+            long expected = 0;
+            for (Map.Entry<Integer, Long> e : cm.entrySet())
+                expected += e.getValue();
+
+            assertEquals(cm.size(), cm.entrySet().parallelStream().count());
+            assertEquals(expected, cm.entrySet().parallelStream().mapToLong(Map.Entry::getValue).sum());
+            assertEquals(expected, cm.values().parallelStream().mapToLong(Long::longValue).sum());
+            assertEquals(cm.size(), cm.keySet().parallelStream().collect(Collectors.toSet()).size());
+            assertNull(cm.entrySet().parallelStream().filter(e -> 0 == e.getKey() % 3).findAny().orElse(null));
+        }
+    }
+    // =================================
+    @Test
+    public void subsized() {
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            ShadowMap<Integer, Long> cm = build(mode);
+            cm.commit();
+            Spliterator<Map.Entry<Integer, Long>> s = cm.entrySet().spliterator();
+            assertTrue(s.hasCharacteristics(Spliterator.SIZED));
+            assertTrue(s.hasCharacteristics(Spliterator.SUBSIZED));
+            assertEquals(cm.size(), s.estimateSize());
+            assertEquals(cm.size(), check(s, 0));
+        }
+    }
+    // =================================
+    @Test
+    public void uncommitted() {
+        ShadowMap<Integer, Long> cm = build(ShadowMap.Lookup.INDEXED);
+        cm.put(-1, 1L);
+        cm.remove(1);
+        Spliterator<Map.Entry<Integer, Long>> s = cm.entrySet().spliterator();
+        assertEquals(cm.size(), s.estimateSize());
+        assertEquals(cm.size(), cm.entrySet().parallelStream().count());
+    }
+
+    // =================================
+    // split all the way down; every piece must report its exact size
+    private static long check(Spliterator<Map.Entry<Integer, Long>> s, int depth) {
+        long expected = s.estimateSize();
+        Spliterator<Map.Entry<Integer, Long>> prefix = (depth < 20) ? s.trySplit() : null;
+        long n = 0;
+        if (null != prefix)
+            n += check(prefix, depth + 1);
+        if (null != prefix)
+            n += check(s, depth + 1);
+        else {
+            AtomicLong count = new AtomicLong();
+            s.forEachRemaining(e -> count.incrementAndGet());
+            n += count.get();
+        }
+        assertEquals(expected, n);
+        return n;
+    }
+
+    // every third key is removed again, every other one overwritten
+    private static ShadowMap<Integer, Long> build(ShadowMap.Lookup mode) {
+        ShadowMap<Integer, Long> cm = new ShadowMap<>(mode);
+        for (int r = 0; r < 50; r++) {
+            for (int i = 0; i < 2000; i++) {
+                int k = r * 1000 + i;
+                cm.put(k, (long)k);
+                if (0 == k % 3)
+                    cm.remove(k);
+            }
+            cm.commit();
+        }
+        return cm;
+    }
+}
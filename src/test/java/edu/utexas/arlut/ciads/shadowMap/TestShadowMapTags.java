@@ -0,0 +1,106 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+@Slf4j
+public class TestShadowMapTags {
+    // =================================
+    @Test
+    public void checkout() {
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            ShadowMap<String, String> cm = new ShadowMap<>(mode);
+            cm.put("A", "1");
+            cm.put("B", "1");
+            cm.commit();
+            cm.tag("before");
+
+            cm.put("A", "2");
+            cm.remove("B");
+            cm.put("C", "2");
+            // tags the last commit, not the working revision
+            cm.tag("still-before");
+            cm.commit();
+            cm.tag("after");
+            cm.clear();
+            cm.put("D", "3");
+
+            assertEquals(ImmutableMap.of("A", "1", "B", "1"), cm.checkout("before"));
+            assertEquals(ImmutableMap.of("A", "1", "B", "1"), cm.checkout("still-before"));
+            assertEquals(ImmutableMap.of("A", "2", "C", "2"), cm.checkout("after"));
+            assertEquals(ImmutableMap.of("D", "3"), cm);
+            assertEquals(3, cm.tags().size());
+
+            // rolling back past a tag doesn't lose it
+            cm.rollback();
+            cm.rollback();
+            assertEquals("1", cm.get("A"));
+            assertEquals(ImmutableMap.of("A", "2", "C", "2"), cm.checkout("after"));
+        }
+    }
+    // =================================
+    @Test
+    public void readOnly() {
+        ShadowMap<String, String> cm = new ShadowMap<>();
+        cm.put("A", "1");
+        cm.commit();
+        cm.tag("t");
+        Map<String, String> view = cm.checkout("t");
+        try {
+            view.put("A", "2");
+            fail("checkout should be read-only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        assertEquals("1", cm.get("A"));
+    }
+    // =================================
+    @Test
+    public void badTags() {
+        ShadowMap<String, String> cm = new ShadowMap<>();
+        cm.commit();
+        cm.tag("t");
+        try {
+            cm.tag("t");
+            fail("duplicate tag");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        cm.untag("t");
+        try {
+            cm.checkout("t");
+            fail("unknown tag");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+    // =================================
+    @Test
+    public void survivesCompaction() {
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            ShadowMap<String, Integer> cm = new ShadowMap<>(mode);
+            for (int i = 0; i < 100; i++) {
+                cm.put("K" + (i % 10), i);
+                cm.commit();
+                if (0 == i % 25)
+                    cm.tag("T" + i);
+            }
+            cm.compact(1);
+            assertEquals(2, cm.depth());
+            for (int t = 0; t < 100; t += 25) {
+                Map<String, Integer> view = cm.checkout("T" + t);
+                assertEquals(Math.min(t + 1, 10), view.size());
+                for (int i = 0; i <= t; i++) {
+                    if (i + 10 > t)
+                        assertEquals(Integer.valueOf(i), view.get("K" + (i % 10)));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+// CLASSIFICATION NOTICE: This file is UNCLASSIFIED
+package edu.utexas.arlut.ciads.shadowMap;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+@Slf4j
+public class TestShadowMapValueIndex {
+    // =================================
+    @Test
+    public void containsValue() {
+        ShadowMap<String, String> cm = new ShadowMap<>();
+        cm.enableValueIndex();
+        cm.put("A", "x");
+        cm.put("B", "x");
+        cm.commit();
+        assertEquals(2, cm.countValue("x"));
+        cm.put("A", "y");
+        assertEquals(1, cm.countValue("x"));
+        assertTrue(cm.containsValue("y"));
+        cm.remove("B");
+        assertFalse(cm.containsValue("x"));
+        cm.rollback();
+        assertEquals(2, cm.countValue("x"));
+        assertFalse(cm.containsValue("y"));
+
+        cm.clear();
+        assertFalse(cm.containsValue("x"));
+        cm.put("C", "z");
+        cm.commit();
+        assertTrue(cm.containsValue("z"));
+        cm.rollback();
+        assertTrue(cm.containsValue("x"));
+        assertFalse(cm.containsValue("z"));
+    }
+    // =================================
+    @Test
+    public void enabledLate() {
+        ShadowMap<String, String> cm = new ShadowMap<>();
+        cm.put("A", "x");
+        cm.commit();
+        cm.put("B", "x");
+        cm.enableValueIndex();
+        cm.put("C", "x");
+        assertEquals(3, cm.countValue("x"));
+        cm.commit();
+        cm.put("D", "x");
+        cm.commit();
+        cm.rollback();
+        assertEquals(3, cm.countValue("x"));
+        // past where it was enabled
+        cm.rollback();
+        assertEquals(1, cm.countValue("x"));
+        cm.put("E", "x");
+        assertEquals(2, cm.countValue("x"));
+    }
+    // =================================
+    @Test
+    public void againstScan() {
+        for (ShadowMap.Lookup mode : ShadowMap.Lookup.values()) {
+            Random rnd = new Random(17);
+            ShadowMap<Integer, Integer> indexed = new ShadowMap<>(mode);
+            ShadowMap<Integer, Integer> plain = new ShadowMap<>(mode);
+            indexed.enableValueIndex();
+            for (int step = 0; step < 10_000; step++) {
+                int k = rnd.nextInt(200);
+                int v = rnd.nextInt(20);
+                int op = rnd.nextInt(100);
+                for (ShadowMap<Integer, Integer> cm : new ShadowMap[]{indexed, plain}) {
+                    if (op < 50)
+                        cm.put(k, v);
+                    else if (op < 85)
+                        cm.remove(k);
+                    else if (op < 95)
+                        cm.commit();
+                    else if (op < 99) {
+                        if (cm.depth() > 1)
+                            cm.rollback();
+                    } else
+                        cm.clear();
+                }
+                assertEquals(plain.countValue(v), indexed.countValue(v));
+                assertEquals(plain.containsValue(v), indexed.containsValue(v));
+            }
+        }
+    }
+}